@@ -0,0 +1,72 @@
+package Weather.bench;
+
+import com.google.gson.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fixtures shared by the benchmarks: stations shaped like data/weather.txt and the raw
+ * requests a content server and a GET client send.
+ */
+public final class BenchData {
+
+    private BenchData() {
+    }
+
+    public static JsonObject station(int i) {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("id", "IDS" + String.format("%06d", i));
+        obj.addProperty("name", "Station " + i);
+        obj.addProperty("state", "SA");
+        obj.addProperty("time_zone", "CST");
+        obj.addProperty("lat", String.valueOf(-34.9 - (i % 100) / 100.0));
+        obj.addProperty("lon", String.valueOf(138.6 + (i % 100) / 100.0));
+        obj.addProperty("local_date_time", "15/04:00pm");
+        obj.addProperty("local_date_time_full", "20230715160000");
+        obj.addProperty("air_temp", String.valueOf(10 + i % 25 + 0.5));
+        obj.addProperty("apparent_t", String.valueOf(8 + i % 25 + 0.1));
+        obj.addProperty("cloud", "Partly cloudy");
+        obj.addProperty("dewpt", "5.7");
+        obj.addProperty("press", "1023.9");
+        obj.addProperty("rel_hum", String.valueOf(40 + i % 50));
+        obj.addProperty("wind_dir", "S");
+        obj.addProperty("wind_spd_kmh", String.valueOf(i % 40));
+        obj.addProperty("wind_spd_kt", String.valueOf(i % 22));
+        return obj;
+    }
+
+    public static Map<String, JsonObject> stations(int count) {
+        Map<String, JsonObject> map = new HashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            JsonObject obj = station(i);
+            map.put(obj.get("id").getAsString(), obj);
+        }
+        return map;
+    }
+
+    public static byte[] putRequest(String body) {
+        byte[] payload = body.getBytes(StandardCharsets.UTF_8);
+        String head = "PUT /weather.json HTTP/1.1\r\n" +
+                "Host: localhost:4567\r\n" +
+                "User-Agent: ATOMClient/1/0\r\n" +
+                "Content-Type: application/json\r\n" +
+                "Content-Length: " + payload.length + "\r\n" +
+                "Lamport-Clock: 42\r\n" +
+                "\r\n";
+        byte[] bytes = new byte[head.length() + payload.length];
+        System.arraycopy(head.getBytes(StandardCharsets.US_ASCII), 0, bytes, 0, head.length());
+        System.arraycopy(payload, 0, bytes, head.length(), payload.length);
+        return bytes;
+    }
+
+    public static byte[] getRequest() {
+        return ("GET /weather.json HTTP/1.1\r\n" +
+                "Host: localhost:4567\r\n" +
+                "Accept: application/json\r\n" +
+                "Accept-Encoding: gzip\r\n" +
+                "Lamport-Clock: 42\r\n" +
+                "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+}
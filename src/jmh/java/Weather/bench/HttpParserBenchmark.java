@@ -0,0 +1,57 @@
+package Weather.bench;
+
+import Weather.util.HttpParser;
+import Weather.util.HttpRequest;
+import Weather.util.HttpRequestParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HttpParserBenchmark: cost of turning one request into an HttpRequest.
+ *
+ * parseRequest is the character-stream HttpParser the clients and older code use;
+ * byteParser is the incremental HttpRequestParser the server transports use, given the
+ * whole request in one buffer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HttpParserBenchmark {
+
+    @Param({"GET", "PUT"})
+    public String method;
+
+    private byte[] request;
+    private ByteBuffer buffer;
+    private HttpRequestParser parser;
+
+    @Setup
+    public void setup() {
+        request = "GET".equals(method)
+                ? BenchData.getRequest()
+                : BenchData.putRequest(BenchData.station(1).toString());
+        buffer = ByteBuffer.wrap(request);
+        parser = new HttpRequestParser();
+    }
+
+    @Benchmark
+    public HttpRequest parseRequest() throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(request), StandardCharsets.UTF_8));
+        return HttpParser.parseRequest(in);
+    }
+
+    @Benchmark
+    public HttpRequest byteParser() throws IOException {
+        buffer.clear();
+        parser.reset();
+        return parser.parse(buffer);
+    }
+}
@@ -0,0 +1,62 @@
+package Weather.bench;
+
+import Weather.util.HttpResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HttpResponseBenchmark: encoding a response with a JSON body of the given number of stations,
+ * as a String (buildResponse) and as the bytes the transports write (toBytes).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HttpResponseBenchmark {
+
+    @Param({"1", "100"})
+    public int stations;
+
+    private String body;
+    private byte[] bodyBytes;
+
+    @Setup
+    public void setup() {
+        body = BenchData.stations(stations).values().toString();
+        bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private HttpResponse response() {
+        HttpResponse response = new HttpResponse();
+        response.statusCode = 200;
+        response.statusMessage = "OK";
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json");
+        headers.put("Content-Length", String.valueOf(bodyBytes.length));
+        headers.put("Lamport-Clock", "1234");
+        headers.put("ETag", "\"42\"");
+        headers.put("Connection", "keep-alive");
+        response.headers = headers;
+        return response;
+    }
+
+    @Benchmark
+    public String buildResponse() {
+        HttpResponse response = response();
+        response.body = body;
+        return response.buildResponse();
+    }
+
+    @Benchmark
+    public byte[] toBytesCachedBody() {
+        HttpResponse response = response();
+        response.bodyBytes = bodyBytes;
+        return response.toBytes();
+    }
+}
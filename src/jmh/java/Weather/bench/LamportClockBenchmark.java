@@ -0,0 +1,86 @@
+package Weather.bench;
+
+import Weather.util.LamportClock;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LamportClockBenchmark: the lock-free LamportClock against the previous monitor-based one.
+ *
+ * Each operation mirrors what a request does in dispatch: tick() for the local event,
+ * then update() with the sender's time. The sender's time is kept a little behind the
+ * shared clock so update() takes the max+1 path the server normally sees.
+ *
+ * Usage: java -cp target/benchmarks.jar Weather.bench.LamportClockBenchmark
+ * runs both implementations at 1, 2, 4, 8, 16, 32 and 64 threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LamportClockBenchmark {
+
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+    /** The clock as it was before: every call takes the same monitor. */
+    static final class SynchronizedLamportClock {
+        private long time;
+
+        synchronized long tick() {
+            return ++time;
+        }
+
+        synchronized long update(long receivedTime) {
+            time = Math.max(time, receivedTime) + 1;
+            return time;
+        }
+
+        synchronized long getTime() {
+            return time;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Clocks {
+        final LamportClock atomic = new LamportClock();
+        final SynchronizedLamportClock synchronizedClock = new SynchronizedLamportClock();
+    }
+
+    @Benchmark
+    public void atomicTickUpdate(Clocks clocks, Blackhole bh) {
+        long local = clocks.atomic.tick();
+        bh.consume(clocks.atomic.update(local - 1));
+    }
+
+    @Benchmark
+    public void synchronizedTickUpdate(Clocks clocks, Blackhole bh) {
+        long local = clocks.synchronizedClock.tick();
+        bh.consume(clocks.synchronizedClock.update(local - 1));
+    }
+
+    @Benchmark
+    public long atomicGetTime(Clocks clocks) {
+        return clocks.atomic.getTime();
+    }
+
+    @Benchmark
+    public long synchronizedGetTime(Clocks clocks) {
+        return clocks.synchronizedClock.getTime();
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int threads : THREADS) {
+            Options options = new OptionsBuilder()
+                    .include(LamportClockBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
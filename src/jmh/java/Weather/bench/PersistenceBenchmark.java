@@ -0,0 +1,64 @@
+package Weather.bench;
+
+import Weather.util.PersistenceManager;
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PersistenceBenchmark: a full save and a full load of the station store, for each
+ * snapshot format and store size. Files go to a temporary directory removed afterwards.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersistenceBenchmark {
+
+    @Param({"1000", "100000"})
+    public int stations;
+
+    @Param({"JSON", "BINARY"})
+    public String format;
+
+    private File dir;
+    private PersistenceManager persistence;
+    private Map<String, JsonObject> data;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("persistence-bench").toFile();
+        boolean binary = "BINARY".equals(format);
+        persistence = new PersistenceManager(new File(dir, binary ? "weather.snap" : "weather.json").getPath(), binary);
+        data = BenchData.stations(stations);
+        persistence.save(data); // load() reads this copy
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public void save() throws IOException {
+        persistence.save(data);
+    }
+
+    @Benchmark
+    public Map<String, JsonObject> load() throws IOException {
+        return persistence.load();
+    }
+}
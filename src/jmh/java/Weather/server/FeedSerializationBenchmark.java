@@ -0,0 +1,56 @@
+package Weather.server;
+
+import Weather.bench.BenchData;
+import Weather.util.HttpRequest;
+import Weather.util.HttpRequestParser;
+import Weather.util.HttpResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FeedSerializationBenchmark: the GET /weather.json path without the network.
+ *
+ * serializeFeed encodes every station, which is what a GET costs after a PUT has changed
+ * the data; cachedGet dispatches a full GET while the data is unchanged, so it is served
+ * from the FeedCache. Lives in Weather.server to reach the package-private entry points.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FeedSerializationBenchmark {
+
+    @Param({"1000", "100000"})
+    public int stations;
+
+    @Param({"false", "true"})
+    public boolean compactJson;
+
+    private AggregationServer server;
+    private byte[] getRequest;
+
+    @Setup
+    public void setup() {
+        ServerConfig config = new ServerConfig(0);
+        config.compactJson = compactJson;
+        config.gzip = false;
+        server = new AggregationServer(config);
+        server.restore(BenchData.stations(stations));
+        getRequest = BenchData.getRequest();
+    }
+
+    @Benchmark
+    public byte[] serializeFeed() {
+        return server.serializeFeed();
+    }
+
+    @Benchmark
+    public HttpResponse cachedGet() throws Exception {
+        HttpRequest request = new HttpRequestParser().parse(ByteBuffer.wrap(getRequest));
+        return server.dispatch(request);
+    }
+}
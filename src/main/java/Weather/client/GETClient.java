@@ -1,25 +1,161 @@
 package Weather.client;
 
+import com.google.gson.*;
+import Weather.util.HttpParser;
+import Weather.util.HttpResponse;
 import Weather.util.LamportClock;
 
 import java.io.*;
 import java.net.Socket;
+import java.util.*;
 
 public class GETClient {
     private final LamportClock clock = new LamportClock();
 
+    // Delta mode: local copy of the feed and the data version it reflects; opaque, since a cluster
+    // answers with one version per node (e.g. "A-12.B-7.C-30")
+    private final Map<String, JsonObject> stations = new TreeMap<>();
+    private String version = "0";
+
+    // Servers to read from, in order of preference; a failed one is replaced by the next
+    private final List<String> servers;
+    private int current;
+
+    public GETClient(List<String> servers) {
+        this.servers = servers;
+    }
+
     public static void main(String[] args) throws Exception {
         if (args.length < 1) {
-            System.err.println("Usage: GETClient <host:port>");
+            System.err.println("Usage: GETClient <host:port>[,<host:port>...] [--watch] [--interval=seconds]");
             return;
         }
 
-        String[] parts = args[0].split(":");
-        String host = parts[0];
-        int port = Integer.parseInt(parts[1]);
+        boolean watch = false;
+        int interval = 5;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--watch")) {
+                watch = true;
+            } else if (args[i].startsWith("--interval=")) {
+                interval = Integer.parseInt(args[i].substring("--interval=".length()));
+            }
+        }
 
-        GETClient client = new GETClient();
-        client.sendGet(host, port);
+        GETClient client = new GETClient(Arrays.asList(args[0].split(",")));
+        if (!watch) {
+            client.get();
+            return;
+        }
+
+        // Keep a local copy and only fetch what changed since the last poll
+        while (true) {
+            try {
+                client.pollDelta(client.host(), client.port());
+            } catch (IOException e) {
+                System.err.println("[GETClient] Poll failed: " + e.getMessage());
+                client.failover();
+            }
+            Thread.sleep(interval * 1000L);
+        }
+    }
+
+    // One GET, trying each server in turn until one answers
+    private void get() throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                sendGet(host(), port());
+                return;
+            } catch (IOException e) {
+                if (attempt >= servers.size()) {
+                    throw e;
+                }
+                System.err.println("[GETClient] " + servers.get(current) + " failed: " + e.getMessage());
+                current = (current + 1) % servers.size();
+            }
+        }
+    }
+
+    // Moves to the next server, if there is one; data versions are per server and per run of it,
+    // so the local copy is fetched again in full either way
+    private void failover() {
+        version = "0";
+        stations.clear();
+        if (servers.size() < 2) {
+            return;
+        }
+        current = (current + 1) % servers.size();
+        System.err.println("[GETClient] Switching to " + servers.get(current));
+    }
+
+    private String host() {
+        String server = servers.get(current).trim();
+        return server.substring(0, server.lastIndexOf(':'));
+    }
+
+    private int port() {
+        String server = servers.get(current).trim();
+        return Integer.parseInt(server.substring(server.lastIndexOf(':') + 1));
+    }
+
+    private void pollDelta(String host, int port) throws IOException {
+        clock.tick(); // local event
+        String request =
+                "GET /weather.json?since=" + version + " HTTP/1.1\r\n" +
+                        "Host: " + host + "\r\n" +
+                        "User-Agent: GETClient/1.0\r\n" +
+                        "Lamport-Clock: " + clock.getTime() + "\r\n" +
+                        "Accept-Encoding: gzip\r\n" +
+                        "Connection: close\r\n" +
+                        "\r\n";
+
+        HttpResponse response;
+        try (Socket socket = new Socket(host, port);
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+             InputStream in = new BufferedInputStream(socket.getInputStream())) {
+
+            out.write(request);
+            out.flush();
+            response = HttpParser.parseResponse(in);
+        }
+        if (response == null) {
+            throw new EOFException("Connection closed by server");
+        }
+
+        String serverTime = response.headers.get("Lamport-Clock");
+        if (serverTime != null) {
+            clock.update(Long.parseLong(serverTime));
+        }
+
+        if (response.statusCode == 304) {
+            System.out.println("[GETClient] No changes since version " + version);
+            return;
+        }
+        if (response.statusCode != 200 || response.body == null) {
+            System.err.println("[GETClient] Unexpected response: " + response.statusCode + " " + response.statusMessage);
+            return;
+        }
+
+        JsonObject delta = JsonParser.parseString(response.body).getAsJsonObject();
+        if (delta.get("full").getAsBoolean()) {
+            stations.clear();
+        }
+        JsonArray changed = delta.getAsJsonArray("changed");
+        for (JsonElement el : changed) {
+            JsonObject entry = el.getAsJsonObject();
+            stations.put(entry.get("id").getAsString(), entry);
+        }
+        JsonArray removed = delta.getAsJsonArray("removed");
+        for (JsonElement el : removed) {
+            stations.remove(el.getAsString());
+        }
+        version = delta.get("version").getAsString();
+
+        System.out.println("[GETClient] Version " + version + ": " + changed.size() + " changed, "
+                + removed.size() + " removed, " + stations.size() + " stations"
+                + (delta.get("full").getAsBoolean() ? " (full resync)" : ""));
+        for (JsonElement el : changed) {
+            System.out.println("[GETClient]   " + el.getAsJsonObject().get("id").getAsString());
+        }
     }
 
     private void sendGet(String host, int port) throws Exception {
@@ -29,39 +165,37 @@ public class GETClient {
                         "Host: " + host + "\r\n" +
                         "User-Agent: GETClient/1.0\r\n" +
                         "Lamport-Clock: " + clock.getTime() + "\r\n" +
+                        "Accept-Encoding: gzip\r\n" +
+                        "Connection: close\r\n" +
                         "\r\n";
 
         try (Socket socket = new Socket(host, port);
              BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+             InputStream in = new BufferedInputStream(socket.getInputStream())) {
 
             out.write(request);
             out.flush();
 
-            // Status + headers
-            String line;
-            int contentLength = 0;
-            while ((line = in.readLine()) != null) {
-                if (line.isEmpty()) break;
-                System.out.println("[GETClient] " + line);
+            // Status + headers; the body arrives already decompressed
+            HttpResponse response = HttpParser.parseResponse(in);
+            if (response == null) {
+                throw new EOFException("Connection closed by server");
+            }
+            System.out.println("[GETClient] " + response.version + " " + response.statusCode + " " + response.statusMessage);
+            for (Map.Entry<String, String> header : response.headers.entrySet()) {
+                System.out.println("[GETClient] " + header.getKey() + ": " + header.getValue());
+            }
 
-                if (line.startsWith("Content-Length:")) {
-                    contentLength = Integer.parseInt(line.split(":")[1].trim());
-                }
-                if (line.startsWith("Lamport-Clock:")) {
-                    int serverTime = Integer.parseInt(line.split(":")[1].trim());
-                    clock.update(serverTime);
-                    System.out.println("[GETClient] Updated Lamport Clock = " + clock.getTime());
-                }
+            String serverTime = response.headers.get("Lamport-Clock");
+            if (serverTime != null) {
+                clock.update(Long.parseLong(serverTime));
+                System.out.println("[GETClient] Updated Lamport Clock = " + clock.getTime());
             }
 
             // Body
-            if (contentLength > 0) {
-                char[] buf = new char[contentLength];
-                in.read(buf, 0, contentLength);
-                String body = new String(buf);
-                System.out.println("\n[GETClient] Weather Data:\n" + body);
+            if (response.body != null) {
+                System.out.println("\n[GETClient] Weather Data:\n" + response.body);
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -1,64 +1,91 @@
 package Weather.content;
 
 import com.google.gson.*;
+import Weather.util.AsyncLogger;
+import Weather.util.HttpParser;
+import Weather.util.HttpResponse;
 import Weather.util.LamportClock;
+import org.slf4j.Logger;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
 import java.util.concurrent.*;
 
 public class ContentServer {
+    private static final Logger logger = AsyncLogger.getLogger(ContentServer.class);
+
     private final LamportClock clock = new LamportClock();
     private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
 
-    private final String host;
-    private final int port;
+    // Servers to upload to, in order of preference; PUTs go to the current one until it fails
+    private final List<String> servers;
+    private int current;
+    private String host;
+    private int port;
     private final String filePath;
 
+    // Breaks ties between writes from different content servers that carry the same Lamport time
+    private final String originId = "cs-" + UUID.randomUUID().toString().substring(0, 8);
+
+    // Persistent connection reused across PUTs, reopened when the server closes it
+    private Socket socket;
+    private BufferedWriter out;
+    private BufferedReader in;
+
     public ContentServer(String host, int port, String filePath) {
-        this.host = host;
-        this.port = port;
+        this(List.of(host + ":" + port), filePath);
+    }
+
+    public ContentServer(List<String> servers, String filePath) {
+        this.servers = servers;
         this.filePath = filePath;
+        useServer(0);
     }
 
     public static void main(String[] args) throws Exception {
         if (args.length < 2) {
-            System.err.println("Usage: ContentServer <host:port> <datafile>");
+            System.err.println("Usage: ContentServer <host:port>[,<host:port>...] <datafile>");
             return;
         }
 
-        String[] parts = args[0].split(":");
-        String host = parts[0];
-        int port = Integer.parseInt(parts[1]);
+        List<String> servers = Arrays.asList(args[0].split(","));
         String filePath = args[1];
 
-        System.out.println("Starting ContentServer on " + host + ":" + port + " with file: " + filePath);
+        logger.info("Starting ContentServer on {} with file: {}", servers, filePath);
 
-        ContentServer cs = new ContentServer(host, port, filePath);
+        ContentServer cs = new ContentServer(servers, filePath);
         cs.start();
     }
 
     public void start() {
-        System.out.println("ContentServer started. Sending data every 20 seconds...");
+        logger.info("ContentServer started. Sending data every 20 seconds...");
 
         ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
         scheduler.scheduleAtFixedRate(() -> {
             try {
                 File file = new File(filePath);
                 if (!file.exists()) {
-                    System.err.println("Error: File does not exist: " + filePath);
+                    logger.error("File does not exist: {}", filePath);
                     return;
                 }
 
                 if (!file.canRead()) {
-                    System.err.println("Error: Cannot read file: " + filePath);
+                    logger.error("Cannot read file: {}", filePath);
                     return;
                 }
 
-                JsonObject weatherJson = readFile(filePath);
-                sendPut(weatherJson);
+                List<JsonObject> stations = readFile(filePath);
+                if (stations.size() == 1) {
+                    sendPut(stations.get(0));
+                } else if (!stations.isEmpty()) {
+                    sendBatch(stations);
+                }
             } catch (Exception e) {
-                System.err.println("Failed to send PUT request: " + e.getMessage());
+                logger.error("Failed to send PUT request: {}", e.getMessage());
             }
         }, 0, 20, TimeUnit.SECONDS);
 
@@ -66,69 +93,184 @@ public class ContentServer {
         try {
             Thread.currentThread().join();
         } catch (InterruptedException e) {
-            System.out.println("ContentServer interrupted, shutting down...");
+            logger.info("ContentServer interrupted, shutting down...");
             scheduler.shutdown();
         }
     }
 
-    private JsonObject readFile(String path) throws IOException {
-        JsonObject json = new JsonObject();
+    /**
+     * Reads one or more stations. The file is either a JSON array of station objects or
+     * "key: value" lines, where a blank line or a repeated id starts the next station.
+     */
+    private List<JsonObject> readFile(String path) throws IOException {
+        String content = new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+        List<JsonObject> stations = new ArrayList<>();
 
-        try (BufferedReader br = new BufferedReader(new FileReader(path))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split(":", 2);
-                if (parts.length == 2) {
-                    String key = parts[0].trim();
-                    String value = parts[1].trim();
-                    json.addProperty(key, value);
+        if (content.trim().startsWith("[")) {
+            for (JsonElement el : gson.fromJson(content, JsonArray.class)) {
+                stations.add(el.getAsJsonObject());
+            }
+            return stations;
+        }
+
+        JsonObject json = new JsonObject();
+        for (String line : content.split("\r?\n")) {
+            String[] parts = line.split(":", 2);
+            if (parts.length == 2) {
+                String key = parts[0].trim();
+                String value = parts[1].trim();
+                if (key.equals("id") && json.has("id")) {
+                    stations.add(json);
+                    json = new JsonObject();
                 }
+                json.addProperty(key, value);
+            } else if (line.isBlank() && json.size() > 0) {
+                stations.add(json);
+                json = new JsonObject();
             }
         }
+        if (json.size() > 0) {
+            stations.add(json);
+        }
+        return stations;
+    }
 
-        return json;
+    // Uploads every station in one PUT; the server applies them under one Lamport time
+    private void sendBatch(List<JsonObject> stations) throws IOException {
+        JsonArray batch = new JsonArray();
+        stations.forEach(batch::add);
+
+        HttpResponse response = put(gson.toJson(batch));
+        if (response.statusCode != 200 || response.body == null) {
+            logger.error("Batch PUT failed: {} {}", response.statusCode, response.statusMessage);
+            return;
+        }
+        JsonObject result = JsonParser.parseString(response.body).getAsJsonObject();
+        logger.info("Batch of {} stations: {} applied, {} rejected", stations.size(),
+                result.get("applied").getAsInt(), result.get("rejected").getAsInt());
+        for (JsonElement el : result.getAsJsonArray("results")) {
+            JsonObject record = el.getAsJsonObject();
+            if (record.get("status").getAsInt() >= 400) {
+                logger.warn("Batch station #{}: {}", record.get("index").getAsInt(), record.get("error").getAsString());
+            }
+        }
     }
 
     private void sendPut(JsonObject json) throws IOException {
+        HttpResponse response = put(gson.toJson(json));
+        if (response.statusCode == 409) {
+            logger.warn("PUT rejected as stale: the server holds a write from Lamport time {}",
+                    response.headers.get("Station-Lamport"));
+        }
+    }
+
+    // Sends the PUT, moving on to the next server when one is down or has no primary to take it
+    private HttpResponse put(String body) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                HttpResponse response = putOnce(body);
+                if (response.statusCode != 503 || attempt >= servers.size()) {
+                    return response;
+                }
+                logger.warn("{}:{} cannot take writes right now", host, port);
+            } catch (IOException e) {
+                if (attempt >= servers.size()) {
+                    throw e;
+                }
+                logger.warn("{}:{} failed: {}", host, port, e.getMessage());
+            }
+            closeConnection();
+            useServer(current + 1);
+            logger.info("Failing over to {}:{}", host, port);
+        }
+    }
+
+    private void useServer(int index) {
+        current = index % servers.size();
+        String server = servers.get(current).trim();
+        int colon = server.lastIndexOf(':');
+        host = server.substring(0, colon);
+        port = Integer.parseInt(server.substring(colon + 1));
+    }
+
+    private HttpResponse putOnce(String body) throws IOException {
         clock.tick(); // local event
-        String body = gson.toJson(json);
 
         String request =
                 "PUT /weather.json HTTP/1.1\r\n" +
                         "Host: " + host + "\r\n" +
                         "User-Agent: ContentServer/1.0\r\n" +
                         "Lamport-Clock: " + clock.getTime() + "\r\n" +
+                        "Origin-Id: " + originId + "\r\n" +
+                        "Connection: keep-alive\r\n" +
                         "Content-Type: application/json\r\n" +
-                        "Content-Length: " + body.length() + "\r\n" +
+                        "Content-Length: " + body.getBytes(StandardCharsets.UTF_8).length + "\r\n" +
                         "\r\n" +
                         body;
 
-        try (Socket socket = new Socket(host, port);
-             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+        HttpResponse response;
+        boolean reused = socket != null;
+        try {
+            response = exchange(request);
+        } catch (IOException e) {
+            closeConnection();
+            if (!reused) {
+                throw e;
+            }
+            // The server may have dropped the idle connection since the last PUT; retry once on a fresh one
+            response = exchange(request);
+        }
 
-            out.write(request);
-            out.flush();
+        String serverTime = response.headers.get("Lamport-Clock");
+        if (serverTime != null) {
+            clock.update(Long.parseLong(serverTime));
+        }
+        if ("close".equalsIgnoreCase(response.headers.get("Connection"))) {
+            closeConnection();
+        }
+        return response;
+    }
 
-            String line;
-            while ((line = in.readLine()) != null) {
-                if (line.isEmpty()) {
-                    break;
-                }
+    private HttpResponse exchange(String request) throws IOException {
+        connect();
+        out.write(request);
+        out.flush();
 
-                if (line.startsWith("Lamport-Clock:")) {
-                    int serverTime = Integer.parseInt(line.split(":")[1].trim());
-                    clock.update(serverTime);
-                }
-            }
+        HttpResponse response = HttpParser.parseResponse(in);
+        if (response == null) {
+            throw new EOFException("Connection closed by server");
+        }
+        return response;
+    }
 
+    private void connect() throws IOException {
+        if (socket != null) {
+            return;
+        }
+        try {
+            socket = new Socket(host, port);
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
         } catch (java.net.ConnectException e) {
-            System.err.println("ERROR: Could not connect to server at " + host + ":" + port);
-            System.err.println("Make sure the AggregationServer is running on that address.");
+            logger.error("Could not connect to server at {}:{}. Make sure the AggregationServer is running on that address.",
+                    host, port);
             throw e;
         } catch (java.net.UnknownHostException e) {
-            System.err.println("ERROR: Unknown host: " + host);
+            logger.error("Unknown host: {}", host);
             throw e;
         }
     }
-}
\ No newline at end of file
+
+    private void closeConnection() {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+        socket = null;
+        out = null;
+        in = null;
+    }
+}
@@ -1,83 +1,1140 @@
 package Weather.server;
 
 import com.google.gson.*;
+import com.google.gson.stream.JsonWriter;
 import Weather.util.*;
+import org.slf4j.Logger;
 
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.zip.GZIPOutputStream;
 
 public class AggregationServer {
-    private static final int DEFAULT_PORT = 4567;
+    private static final Logger logger = AsyncLogger.getLogger(AggregationServer.class);
+
+    // Bodies smaller than this are sent uncompressed; the gzip framing would outweigh the saving
+    static final int GZIP_MIN_BYTES = 1024;
+
+    private final ServerConfig config;
     private final int port;
     private final LamportClock clock = new LamportClock();
 
     // Shared State
-    private final Map<String, JsonObject> weatherData = new ConcurrentHashMap<>();
-    private final Map<String, Long> lastUpdate = new ConcurrentHashMap<>();
-    private final PersistenceManager persistence = new PersistenceManager("weather.json");
-    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private final Map<String, StationEntry> weatherData = new ConcurrentHashMap<>();
+    private final ExpiryQueue expiry = new ExpiryQueue();
+    private final ConcurrentSkipListSet<String> sortedIds = new ConcurrentSkipListSet<>();
+    private final PersistenceManager persistence;
+    private final Gson gson;
+    private final ChangeIndex changes = new ChangeIndex();
+
+    // Striped by station id: changes to one station are announced one at a time, see announce
+    private final Object[] announceLocks = new Object[64];
+
+    // Prefix of the versions this run hands out; versions restart at 0 with every run, so a
+    // client's version from an earlier run never matches (or is mistaken for) a current one
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final FeedCache feed = new FeedCache(changes::version);
+    final Metrics metrics = new Metrics(weatherData::size);
+
+    // Log-structured store, null when persisting to weather.json
+    private LogStructuredStore log;
+
+    // Background flusher, null when persisting immediately
+    private WriteBehindPersister writeBehind;
+
+    // Admission control, null when unlimited
+    private final Semaphore inFlight;
+
+    // Routing to the other nodes of a sharded cluster, null when running alone; set by start()
+    private ClusterRouter cluster;
+
+    // Primary/replica role in a replication group, null when running alone; set by start()
+    private Replication replication;
+
+    // Subscribers to GET /events
+    private final EventHub events;
+
+    // Recent readings per station for GET /history
+    private final History history;
 
     public AggregationServer(int port) {
-        this.port = port;
+        this(new ServerConfig(port));
+    }
+
+    public AggregationServer(ServerConfig config) {
+        this.config = config;
+        this.port = config.port;
+        for (int i = 0; i < announceLocks.length; i++) {
+            announceLocks[i] = new Object();
+        }
+        this.inFlight = config.maxInFlight > 0 ? new Semaphore(config.maxInFlight) : null;
+
+        this.gson = config.compactJson ? new Gson() : new GsonBuilder().setPrettyPrinting().create();
+
+        boolean binary = config.snapshotFormat == ServerConfig.SnapshotFormat.BINARY;
+        this.persistence = new PersistenceManager(binary ? "weather.snap" : "weather.json", binary, !config.compactJson);
+        this.events = new EventHub(config.eventBuffer, metrics);
+        this.history = new History(config);
     }
 
     public void start() throws IOException {
-        System.out.println("Starting Aggregation Server on port " + port + "...");
+        logger.info("Starting Aggregation Server on port {}...", port);
+
+        // Built here rather than in the constructor: both call back into this server
+        cluster = config.cluster.isEmpty() ? null : new ClusterRouter(config, clock, gson, metrics, this::processRequest);
+        replication = config.group.isEmpty() ? null : new Replication(config, clock, this::applyReplicationLog);
 
         // Recover from persistence
-        try {
-            weatherData.putAll(persistence.load());
-            for (String id : weatherData.keySet()) {
-                lastUpdate.put(id, System.currentTimeMillis());
+        if (config.store == ServerConfig.Store.LOG) {
+            // The log is the only copy of the data, so a store that cannot be opened is fatal
+            restore(recoverLog());
+            logger.info("Recovered {} entries from {}.", weatherData.size(), config.logDir);
+        } else {
+            try {
+                restore(persistence.load());
+                logger.info("Recovered {} entries from persistence.", weatherData.size());
+            } catch (Exception e) {
+                logger.info("No valid persistence found, starting fresh.");
             }
-            System.out.println("Recovered " + weatherData.size() + " entries from persistence.");
-        } catch (Exception e) {
-            System.out.println("No valid persistence found, starting fresh.");
         }
 
-        // Expiry thread
-        Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(() -> {
-            long now = System.currentTimeMillis();
-            int removed = 0;
-            Iterator<Map.Entry<String, Long>> iterator = lastUpdate.entrySet().iterator();
-            while (iterator.hasNext()) {
-                Map.Entry<String, Long> entry = iterator.next();
-                if (now - entry.getValue() > 30000) {
-                    String id = entry.getKey();
-                    weatherData.remove(id);
-                    iterator.remove();
-                    removed++;
-                }
-            }
-            if (removed > 0) {
-                System.out.println("Expired " + removed + " entries due to timeout.");
-                persistSafely();
-            }
-        }, 5, 5, TimeUnit.SECONDS);
+        if (config.persistMode == ServerConfig.PersistMode.WRITE_BEHIND) {
+            writeBehind = new WriteBehindPersister(this::writeChanges, config.flushWindowMs, config.flushBatch);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(this::closePersistence));
+        sortedIds.addAll(weatherData.keySet());
+
+        Thread.ofPlatform().daemon().name("expiry").start(this::expireStations);
+        if (replication != null) {
+            replication.start();
+        }
 
         // Listen for clients
+        if (config.transport == ServerConfig.Transport.NIO) {
+            new NioTransport(config, this).run();
+            return;
+        }
+
         ServerSocket serverSocket = new ServerSocket(port);
-        System.out.println("AggregationServer running on port " + port);
+        logger.info("AggregationServer running on port {}{}", port,
+                config.transport == ServerConfig.Transport.VIRTUAL ? " (virtual threads)" : "");
+
+        Thread.Builder threads = config.transport == ServerConfig.Transport.VIRTUAL
+                ? Thread.ofVirtual().name("client-", 0)
+                : Thread.ofPlatform().name("client-", 0);
 
         while (true) {
             try {
                 Socket clientSocket = serverSocket.accept();
-                Thread clientThread = new Thread(new ClientHandler(clientSocket));
-                clientThread.start();
+                threads.start(new ClientHandler(clientSocket));
+            } catch (IOException e) {
+                logger.error("Error accepting client connection: {}", e.getMessage());
+            }
+        }
+    }
+
+    // Removes stations as their deadlines come due; wakes at least once a second to prune tombstones
+    private void expireStations() {
+        while (true) {
+            List<ExpiryQueue.Deadline> due;
+            try {
+                due = expiry.awaitDue(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            long sweepStart = System.nanoTime();
+            Map<String, Long> removed = new HashMap<>();
+            long now = System.currentTimeMillis();
+            for (ExpiryQueue.Deadline deadline : due) {
+                String id = deadline.id;
+                if (!expiry.claim(deadline)) {
+                    continue; // an earlier deadline for this station was queued since
+                }
+                // Judged on the entry actually in the map: a PUT that replaced it has moved the deadline
+                long[] next = new long[1];
+                weatherData.computeIfPresent(id, (k, entry) -> {
+                    if (entry.expiresAt > now) {
+                        next[0] = entry.expiresAt;
+                        return entry;
+                    }
+                    sortedIds.remove(id);
+                    history.remove(id);
+                    removed.put(id, clock.tick()); // expiry is a local event
+                    return null;
+                });
+                if (next[0] > 0) {
+                    expiry.schedule(id, next[0]);
+                } else if (removed.containsKey(id)) {
+                    announce(id, null);
+                }
+            }
+
+            changes.pruneTombstones(config.tombstoneRetentionMs);
+            if (!due.isEmpty()) {
+                metrics.expirySweep.recordSince(sweepStart);
+            }
+            if (!removed.isEmpty()) {
+                logger.info("Expired {} entries due to timeout.", removed.size());
+                if (writeBehind != null) {
+                    removed.forEach(writeBehind::markDirty);
+                } else {
+                    persistSafely(removed);
+                }
+            }
+        }
+    }
+
+    // Recovered stations carry no write stamp and get a full default TTL from now
+    void restore(Map<String, JsonObject> recovered) {
+        long expiresAt = System.currentTimeMillis() + config.ttlMs;
+        recovered.forEach((id, data) -> {
+            if (cluster != null && !cluster.owns(id)) {
+                return; // another node's station, e.g. from before the ring changed
+            }
+            weatherData.put(id, new StationEntry(WeatherRecord.fromJson(data), 0, null, expiresAt));
+            expiry.schedule(id, expiresAt);
+        });
+    }
+
+    private Map<String, JsonObject> recoverLog() throws IOException {
+        log = new LogStructuredStore(new File(config.logDir), config.segmentBytes, config.fsync,
+                config.snapshotFormat == ServerConfig.SnapshotFormat.BINARY, this::snapshotRecord);
+        Map<String, JsonObject> recovered = log.recover();
+
+        // First start on the log store: carry over an existing weather.json. Only then: once every
+        // station has expired the log is empty too, and weather.json is never updated after this
+        if (log.isNew()) {
+            Map<String, JsonObject> legacy = persistence.load();
+            // No compaction here: snapshots read weatherData, which restore() has yet to fill
+            for (Map.Entry<String, JsonObject> entry : legacy.entrySet()) {
+                log.appendPut(entry.getKey(), entry.getValue(), 0);
+            }
+            log.flush();
+            recovered = legacy;
+        }
+
+        clock.update(log.getMaxLamport());
+        return recovered;
+    }
+
+    // A station's data as the log store snapshots it; the store keeps no copy of its own
+    private JsonObject snapshotRecord(String id) {
+        StationEntry entry = weatherData.get(id);
+        return entry != null ? entry.data.toJsonObject() : null;
+    }
+
+    private void closePersistence() {
+        if (writeBehind != null) {
+            writeBehind.close();
+        }
+        if (log != null) {
+            try {
+                log.close();
             } catch (IOException e) {
-                System.err.println("Error accepting client connection: " + e.getMessage());
+                logger.error("Error closing log store: {}", e.getMessage());
+            }
+        }
+    }
+
+    // Writes the current value (or removal) of each changed station to the configured store
+    private void writeChanges(Map<String, Long> changes) throws IOException {
+        long start = System.nanoTime();
+        long bytes = 0;
+        if (log == null) {
+            bytes = persistence.save(stationData());
+        } else {
+            for (Map.Entry<String, Long> change : changes.entrySet()) {
+                StationEntry current = weatherData.get(change.getKey());
+                if (current != null) {
+                    bytes += log.appendPut(change.getKey(), current.data.toJsonObject(), Math.max(current.lamport, change.getValue()));
+                } else {
+                    bytes += log.appendRemove(change.getKey(), change.getValue());
+                }
             }
+            log.flush();
         }
+        metrics.flush.recordSince(start);
+        metrics.flushBytes.add(bytes);
     }
 
-    private void persistSafely() {
+    // Station data as the persistence layer stores it, without the write stamps
+    private Map<String, JsonObject> stationData() {
+        Map<String, JsonObject> data = new HashMap<>(weatherData.size() * 4 / 3 + 1);
+        weatherData.forEach((id, entry) -> data.put(id, entry.data.toJsonObject()));
+        return data;
+    }
+
+    private void persistSafely(Map<String, Long> changes) {
         try {
-            persistence.save(weatherData);
+            writeChanges(changes);
         } catch (IOException e) {
-            System.err.println("Persistence failed: " + e.getMessage());
+            logger.error("Persistence failed: {}", e.getMessage());
+        }
+    }
+
+    // Makes a PUT as durable as configured before it is acknowledged
+    private void persistChange(String id, long lamportTime) throws IOException {
+        persistChanges(Map.of(id, lamportTime));
+    }
+
+    // One write (or one flush wait) for every station in the map
+    private void persistChanges(Map<String, Long> changed) throws IOException {
+        if (writeBehind == null) {
+            persistSafely(changed);
+            return;
+        }
+
+        List<CompletableFuture<Void>> pending = new ArrayList<>(changed.size());
+        changed.forEach((id, lamport) -> pending.add(writeBehind.markDirty(id, lamport)));
+        if (config.durability == ServerConfig.Durability.SYNC) {
+            try {
+                CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for flush");
+            } catch (ExecutionException e) {
+                throw new IOException("Flush failed: " + e.getCause().getMessage());
+            }
+        }
+    }
+
+    // Entry point shared by every transport: admit, advance the Lamport clock, then handle the request
+    HttpResponse dispatch(HttpRequest request) {
+        metrics.requests.increment();
+        if (inFlight == null) {
+            return dispatchAdmitted(request);
+        }
+        if (!inFlight.tryAcquire()) {
+            return overloaded();
+        }
+        try {
+            return dispatchAdmitted(request);
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    private HttpResponse dispatchAdmitted(HttpRequest request) {
+        long lamportTime = clock.tick(); // local event
+
+        try {
+            // Clock of the cluster node that forwarded this request
+            if (request.getHeader(ClusterRouter.CLOCK_HEADER) != null) {
+                lamportTime = clock.update(clockHeader(request, ClusterRouter.CLOCK_HEADER));
+            }
+            if (request.getHeader("Lamport-Clock") != null) {
+                long clientClock = clockHeader(request, "Lamport-Clock");
+                lamportTime = clock.update(clientClock);
+            }
+        } catch (IllegalArgumentException e) {
+            HttpResponse response = new HttpResponse();
+            badRequest(response, e.getMessage());
+            response.headers.put("Lamport-Clock", String.valueOf(lamportTime));
+            return response;
+        }
+
+        if (replication != null) {
+            HttpResponse passed = replication.route(request);
+            if (passed != null) {
+                return passed;
+            }
+        }
+        if (cluster != null && !ClusterRouter.isForwarded(request)) {
+            HttpResponse routed = cluster.route(request, lamportTime);
+            if (routed != null) {
+                return routed;
+            }
+        }
+        HttpResponse response = processRequest(request, lamportTime);
+        if (replication != null && !replication.isPrimary() && "GET".equals(request.method)) {
+            long staleness = replication.stalenessMs();
+            if (staleness != Long.MAX_VALUE) {
+                response.headers.put("Replica-Staleness", String.valueOf(staleness));
+            }
+        }
+        return response;
+    }
+
+    private static long clockHeader(HttpRequest request, String name) {
+        try {
+            return Long.parseLong(request.getHeader(name).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number");
+        }
+    }
+
+    // Decides whether the connection stays open after this response and says so in the headers
+    boolean applyConnectionHeaders(HttpRequest request, HttpResponse response, int served) {
+        boolean keepAlive = config.keepAlive && request.isKeepAlive() && served < config.maxRequestsPerConnection;
+        if (response.isChunked() && "HTTP/1.0".equals(request.version)) {
+            // HTTP/1.0 has no chunked encoding; the body ends when the connection does
+            response.headers.remove("Transfer-Encoding");
+            keepAlive = false;
+        }
+        if (keepAlive) {
+            response.headers.put("Connection", "keep-alive");
+            response.headers.put("Keep-Alive", "timeout=" + (config.idleTimeoutMs / 1000)
+                    + ", max=" + (config.maxRequestsPerConnection - served));
+        } else {
+            response.headers.put("Connection", "close");
+        }
+        return keepAlive;
+    }
+
+    // Answer to a request that could not be parsed; the connection is closed after it
+    HttpResponse rejected(HttpRequestParser.HttpParseException e) {
+        String statusMessage;
+        switch (e.status) {
+            case 413:
+                statusMessage = "Payload Too Large";
+                break;
+            case 431:
+                statusMessage = "Request Header Fields Too Large";
+                break;
+            case 501:
+                statusMessage = "Not Implemented";
+                break;
+            default:
+                statusMessage = "Bad Request";
+        }
+        HttpResponse response = new HttpResponse();
+        error(response, e.status, statusMessage, e.getMessage()); // the message may quote header values
+        response.headers.put("Connection", "close");
+        return response;
+    }
+
+    private void handleGet(HttpRequest request, HttpResponse response) {
+        String route = request.getRoute();
+        Map<String, String> params;
+        try {
+            params = request.getQueryParams();
+            // GET /weather/ID is shorthand for GET /weather.json?id=ID
+            if (route.startsWith("/weather/")) {
+                params.put("id", HttpRequest.decode(route.substring("/weather/".length())));
+            }
+        } catch (IllegalArgumentException e) {
+            badRequest(response, e.getMessage());
+            return;
+        }
+
+        if (route.equals("/metrics")) {
+            response.statusCode = 200;
+            response.statusMessage = "OK";
+            response.bodyBytes = metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            response.headers.put("Content-Type", "text/plain; version=0.0.4");
+            response.headers.put("Content-Length", String.valueOf(response.bodyBytes.length));
+            return;
+        }
+
+        if (route.equals("/replication/status") && replication != null) {
+            response.statusCode = 200;
+            response.statusMessage = "OK";
+            response.bodyBytes = replication.status(changes.version()).getBytes(StandardCharsets.UTF_8);
+            response.headers.put("Content-Type", "application/json");
+            response.headers.put("Content-Length", String.valueOf(response.bodyBytes.length));
+            return;
+        }
+        if (route.equals("/replication/log") && replication != null) {
+            handleReplicationLog(params, response);
+            return;
+        }
+        if (route.equals(EventHub.PATH)) {
+            Set<String> ids = null;
+            if (params.containsKey("id") || params.containsKey("ids")) {
+                ids = params.containsKey("ids") ? FeedQuery.split(params.get("ids")) : new HashSet<>();
+                if (params.containsKey("id")) {
+                    ids.add(params.get("id"));
+                }
+            }
+            events.subscribe(response, ids, request.getHeader("Last-Event-ID"));
+            return;
+        }
+        if (route.equals(History.PATH) && history.isEnabled()) {
+            handleHistory(params, response);
+            return;
         }
+
+        if (!route.startsWith("/weather/") && !route.equals("/weather.json") && !route.equals("/")) {
+            notFound(response);
+            return;
+        }
+
+        boolean gzip = config.gzip && acceptsGzip(request.getHeader("Accept-Encoding"));
+
+        String since = params.get("since");
+        if (since != null) {
+            handleDelta(since, response);
+            gzipStream(response, gzip);
+            return;
+        }
+
+        // Nothing changed since the client's copy: no body at all
+        if (etag(changes.version()).equals(request.getHeader("If-None-Match"))) {
+            notModified(response, changes.version());
+            return;
+        }
+
+        if (FeedQuery.isFiltered(params)) {
+            handleQuery(route, params, response);
+            gzipStream(response, gzip);
+            return;
+        }
+
+        FeedCache.Feed current = feed.get(this::serializeFeed);
+        response.statusCode = 200;
+        response.statusMessage = "OK";
+        response.headers.put("Content-Type", "application/json");
+        response.headers.put("Vary", "Accept-Encoding");
+        if (gzip && current.body.length >= GZIP_MIN_BYTES) {
+            response.bodyBytes = current.gzipped(); // compressed once per data version
+            response.headers.put("Content-Encoding", "gzip");
+            response.headers.put("Content-Length", String.valueOf(response.bodyBytes.length));
+        } else {
+            response.bodyBytes = current.body;
+            response.headers.put("Content-Length", current.contentLength);
+        }
+        response.headers.put("ETag", etag(current.version));
+    }
+
+    // Compresses a streamed body on its way out; its size is unknown, so no threshold applies
+    private static void gzipStream(HttpResponse response, boolean gzip) {
+        if (response.bodyWriter == null) {
+            return;
+        }
+        response.headers.put("Vary", "Accept-Encoding");
+        if (!gzip) {
+            return;
+        }
+        HttpResponse.BodyWriter plain = response.bodyWriter;
+        response.bodyWriter = out -> {
+            GZIPOutputStream gz = new GZIPOutputStream(out, 8 * 1024);
+            plain.writeTo(gz);
+            gz.finish();
+        };
+        response.headers.put("Content-Encoding", "gzip");
+    }
+
+    // True if Accept-Encoding allows gzip with a non-zero q, by name or else through *
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        double gzip = -1;
+        double any = -1;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] params = coding.split(";");
+            String name = params[0].trim();
+            double q = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (name.equalsIgnoreCase("gzip")) {
+                gzip = q;
+            } else if (name.equals("*")) {
+                any = q;
+            }
+        }
+        return gzip >= 0 ? gzip > 0 : any > 0;
+    }
+
+    private void handleQuery(String route, Map<String, String> params, HttpResponse response) {
+        long version = changes.version();
+        FeedQuery query;
+        try {
+            query = FeedQuery.run(weatherData, sortedIds, params);
+        } catch (IllegalArgumentException e) {
+            badRequest(response, e.getMessage());
+            return;
+        }
+
+        // A single-station route answers with the object itself
+        boolean single = route.startsWith("/weather/");
+        if (single && query.stations.isEmpty()) {
+            notFound(response);
+            return;
+        }
+
+        response.statusCode = 200;
+        response.statusMessage = "OK";
+        response.headers.put("Content-Type", "application/json");
+        if (single) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+            try {
+                writeJson(out, writer -> query.stations.get(0).write(writer, query.fields));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // not thrown by an in-memory stream
+            }
+            response.bodyBytes = out.toByteArray();
+            response.headers.put("Content-Length", String.valueOf(response.bodyBytes.length));
+        } else {
+            response.stream(out -> writeJson(out, writer -> {
+                writer.beginArray();
+                for (WeatherRecord station : query.stations) {
+                    station.write(writer, query.fields);
+                }
+                writer.endArray();
+            }));
+        }
+        response.headers.put("ETag", etag(version));
+        if (query.nextCursor != null) {
+            response.headers.put("Next-Cursor", URLEncoder.encode(query.nextCursor, StandardCharsets.UTF_8));
+        }
+    }
+
+    // Stations changed or removed after the client's version, or everything when it is too far behind
+    private void handleDelta(String sinceParam, HttpResponse response) {
+        long since;
+        try {
+            since = sinceVersion(sinceParam);
+        } catch (NumberFormatException e) {
+            badRequest(response, "since must be a data version");
+            return;
+        }
+
+        long upTo = changes.version();
+        if (since == upTo) {
+            notModified(response, upTo);
+            return;
+        }
+
+        // A version from another run of this server gets everything
+        Collection<String> ids = since < 0 ? null : changes.changedSince(since, upTo);
+
+        response.statusCode = 200;
+        response.statusMessage = "OK";
+        response.headers.put("Content-Type", "application/json");
+        response.stream(out -> writeJson(out, writer -> {
+            writer.beginObject();
+            writer.name("version").value(versionTag(upTo));
+            writer.name("full").value(ids == null);
+            writer.name("changed").beginArray();
+            List<String> removed = new ArrayList<>();
+            if (ids == null) {
+                for (StationEntry entry : weatherData.values()) {
+                    entry.data.write(writer, null);
+                }
+            } else {
+                for (String id : ids) {
+                    StationEntry entry = weatherData.get(id);
+                    if (entry != null) {
+                        entry.data.write(writer, null);
+                    } else {
+                        removed.add(id);
+                    }
+                }
+            }
+            writer.endArray();
+            writer.name("removed").beginArray();
+            for (String id : removed) {
+                writer.value(id);
+            }
+            writer.endArray();
+            writer.endObject();
+        }));
+        response.headers.put("ETag", etag(upTo));
+    }
+
+    /**
+     * The change log a replica copies: every station changed after since, in the order the
+     * changes were applied, with its write stamp and remaining TTL, and the ids removed.
+     * Without since (or when since is older than the kept tombstones) every station is sent
+     * with full set, and the replica drops whatever else it holds. With wait, an up-to-date
+     * replica's request is held until the next change or for that many milliseconds.
+     */
+    private void handleReplicationLog(Map<String, String> params, HttpResponse response) {
+        if (!replication.isPrimary()) {
+            error(response, 503, "Service Unavailable", "not the primary");
+            return;
+        }
+        long since;
+        long wait;
+        try {
+            since = params.containsKey("since") ? Long.parseLong(params.get("since")) : -1;
+            wait = Math.min(Long.parseLong(params.getOrDefault("wait", "0")), 5000);
+        } catch (NumberFormatException e) {
+            badRequest(response, "since and wait must be numbers");
+            return;
+        }
+
+        if (since > changes.version()) {
+            since = -1; // a version from before this server restarted
+        }
+
+        long waitStart = System.nanoTime();
+        if (since >= 0 && wait > 0) {
+            try {
+                changes.awaitAfter(since, wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waitStart);
+
+        long upTo = changes.version();
+        Collection<String> ids = since < 0 ? null : changes.changedSince(since, upTo);
+        long now = System.currentTimeMillis();
+
+        response.statusCode = 200;
+        response.statusMessage = "OK";
+        response.headers.put("Content-Type", "application/json");
+        response.stream(out -> writeJson(out, writer -> {
+            writer.beginObject();
+            writer.name("epoch").value(replication.epoch);
+            writer.name("version").value(upTo);
+            writer.name("full").value(ids == null);
+            writer.name("lamport").value(clock.getTime());
+            writer.name("waitedMs").value(waitedMs);
+            writer.name("entries").beginArray();
+            if (ids == null) {
+                for (Map.Entry<String, StationEntry> station : weatherData.entrySet()) {
+                    writeLogEntry(writer, station.getKey(), station.getValue(), now);
+                }
+            } else {
+                for (String id : ids) {
+                    writeLogEntry(writer, id, weatherData.get(id), now);
+                }
+            }
+            writer.endArray();
+            writer.endObject();
+        }));
+    }
+
+    private static void writeLogEntry(JsonWriter writer, String id, StationEntry entry, long now) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(id);
+        if (entry == null) {
+            writer.name("removed").value(true);
+        } else {
+            writer.name("lamport").value(entry.lamport);
+            writer.name("origin").value(entry.origin);
+            writer.name("ttl").value(Math.max(1, entry.expiresAt - now));
+            writer.name("data");
+            entry.data.write(writer, null);
+        }
+        writer.endObject();
+    }
+
+    // GET /history: aggregates over one station's recent readings, see History
+    private void handleHistory(Map<String, String> params, HttpResponse response) {
+        String answer;
+        try {
+            answer = history.query(params);
+        } catch (IllegalArgumentException e) {
+            badRequest(response, e.getMessage());
+            return;
+        }
+        if (answer == null) {
+            notFound(response);
+            return;
+        }
+        response.statusCode = 200;
+        response.statusMessage = "OK";
+        response.bodyBytes = answer.getBytes(StandardCharsets.UTF_8);
+        response.headers.put("Content-Type", "application/json");
+        response.headers.put("Content-Length", String.valueOf(response.bodyBytes.length));
+    }
+
+    /**
+     * Applies a batch of the primary's change log on a replica. Entries replace the stored
+     * ones without the write-stamp check a PUT gets: the primary has already decided, and
+     * the replica mirrors it. A full log also removes every station it does not list.
+     */
+    private void applyReplicationLog(JsonObject log) throws IOException {
+        long now = System.currentTimeMillis();
+        Set<String> listed = log.get("full").getAsBoolean() ? new HashSet<>() : null;
+        Map<String, Long> changed = new LinkedHashMap<>();
+        for (JsonElement el : log.getAsJsonArray("entries")) {
+            JsonObject item = el.getAsJsonObject();
+            String id = item.get("id").getAsString();
+            if (item.has("removed")) {
+                if (removeReplicated(id)) {
+                    changed.put(id, clock.tick());
+                }
+                continue;
+            }
+            long lamport = item.get("lamport").getAsLong();
+            clock.update(lamport);
+            StationEntry entry = new StationEntry(WeatherRecord.fromJson(item.getAsJsonObject("data")), lamport,
+                    item.get("origin").getAsString(), now + item.get("ttl").getAsLong());
+            weatherData.put(id, entry);
+            sortedIds.add(id);
+            expiry.schedule(id, entry.expiresAt);
+            announce(id, entry);
+            changed.put(id, lamport);
+            if (listed != null) {
+                listed.add(id);
+            }
+        }
+        if (listed != null) {
+            for (String id : new ArrayList<>(weatherData.keySet())) {
+                if (!listed.contains(id) && removeReplicated(id)) {
+                    changed.put(id, clock.tick());
+                }
+            }
+        }
+        clock.update(log.get("lamport").getAsLong());
+        if (!changed.isEmpty()) {
+            persistChanges(changed);
+        }
+    }
+
+    private boolean removeReplicated(String id) {
+        if (weatherData.remove(id) == null) {
+            return false;
+        }
+        sortedIds.remove(id);
+        history.remove(id);
+        announce(id, null);
+        return true;
+    }
+
+    /**
+     * Records a change to a station in the change index and its history, and publishes its
+     * event. Two writers to one station can finish their map update in one order and reach
+     * this in the other, so the change is only announced if it is still the station's current
+     * state, under a lock for the station: a change that has been overtaken is left to the
+     * one that overtook it. Subscribers never see an older reading after a newer one, and
+     * history samples stay in the order the writes were applied.
+     */
+    private void announce(String id, StationEntry entry) {
+        synchronized (announceLocks[Math.floorMod(id.hashCode(), announceLocks.length)]) {
+            if (weatherData.get(id) != entry) {
+                return;
+            }
+            if (entry != null) {
+                changes.recordPut(id);
+                events.publishPut(id, entry);
+                history.record(id, entry.data);
+            } else {
+                changes.recordRemoval(id);
+                events.publishRemoval(id);
+            }
+        }
+    }
+
+    // "EPOCH-VERSION", as sent in ETags and delta versions
+    private String versionTag(long version) {
+        return epoch + "-" + version;
+    }
+
+    // Version of a tag from this run, or -1 for one from another run or a bare number such as since=0
+    private long sinceVersion(String tag) {
+        int dash = tag.lastIndexOf('-');
+        long version = Long.parseLong(tag.substring(dash + 1));
+        return dash > 0 && tag.substring(0, dash).equals(epoch) ? version : -1;
+    }
+
+    private String etag(long version) {
+        return "\"" + versionTag(version) + "\"";
+    }
+
+    private void notModified(HttpResponse response, long version) {
+        response.statusCode = 304;
+        response.statusMessage = "Not Modified";
+        response.headers.put("ETag", etag(version));
+    }
+
+    private static void notFound(HttpResponse response) {
+        error(response, 404, "Not Found", "not found");
+    }
+
+    private static void badRequest(HttpResponse response, String message) {
+        error(response, 400, "Bad Request", message);
+    }
+
+    // Sets the status and a JSON body { "error": message }, measured in bytes
+    static void error(HttpResponse response, int status, String statusMessage, String message) {
+        response.statusCode = status;
+        response.statusMessage = statusMessage;
+        response.bodyBytes = errorBody(message);
+        response.headers.put("Content-Type", "application/json");
+        response.headers.put("Content-Length", String.valueOf(response.bodyBytes.length));
+    }
+
+    // { "error": message } as UTF-8; gson escapes the message, which may quote client input
+    static byte[] errorBody(String message) {
+        JsonObject body = new JsonObject();
+        body.addProperty("error", message);
+        return body.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Result of one write: 201 created, 200 applied, 409 stale; winner is the entry now stored
+    private static final class PutResult {
+        final int status;
+        final StationEntry winner;
+
+        PutResult(int status, StationEntry winner) {
+            this.status = status;
+            this.winner = winner;
+        }
+    }
+
+    /**
+     * Stores one station unless the stored entry has a later write stamp.
+     *
+     * A compare-and-set loop: read the current entry, decide, then swap only if it is still
+     * the same entry. No lock is held while deciding, so writers to a hot station never queue
+     * behind each other; a writer that loses the swap re-reads and decides again. The expiry
+     * thread removes an entry atomically and only while it is still due, so a PUT racing the
+     * deadline either replaces the entry first or recreates the station after.
+     */
+    private PutResult applyPut(String id, JsonObject data, long lamport, String origin, long ttl) {
+        long start = System.nanoTime();
+        StationEntry next = new StationEntry(WeatherRecord.fromJson(data), lamport, origin, System.currentTimeMillis() + ttl);
+        try {
+            while (true) {
+                StationEntry current = weatherData.get(id);
+                int status;
+                if (current == null) {
+                    if (weatherData.putIfAbsent(id, next) != null) {
+                        continue;
+                    }
+                    status = 201;
+                } else if (current.supersedes(lamport, origin)) {
+                    return new PutResult(409, current);
+                } else if (weatherData.replace(id, current, next)) {
+                    status = 200;
+                } else {
+                    continue;
+                }
+
+                sortedIds.add(id);
+                expiry.schedule(id, next.expiresAt);
+                announce(id, next);
+                return new PutResult(status, next);
+            }
+        } finally {
+            metrics.putApply.recordSince(start);
+        }
+    }
+
+    // Write stamp of a PUT: the sender's Lamport time when it sent one, else the server's
+    private static long writeStamp(HttpRequest request, long lamportTime) {
+        String header = request.getHeader("Lamport-Clock");
+        return header != null ? Long.parseLong(header.trim()) : lamportTime;
+    }
+
+    // A JSON array body, or NDJSON (one station object per line) announced by its Content-Type
+    static boolean isBatch(HttpRequest request) {
+        String type = request.getHeader("Content-Type");
+        if (type != null && (type.startsWith("application/x-ndjson") || type.startsWith("application/ndjson"))) {
+            return true;
+        }
+        for (int i = 0; i < request.body.length(); i++) {
+            char c = request.body.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c == '[';
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Applies every record of a batch under the request's single Lamport time and persists
+     * them with one write. Records are independent: a bad one is reported in its result
+     * and does not stop the others.
+     */
+    private void handleBatchPut(HttpRequest request, long ttl, long lamportTime, HttpResponse response) throws IOException {
+        long stamp = writeStamp(request, lamportTime);
+        String origin = request.getHeader("Origin-Id");
+        List<JsonElement> records = batchRecords(request.body);
+
+        JsonArray results = new JsonArray();
+        Map<String, Long> changed = new LinkedHashMap<>();
+        int applied = 0;
+        for (int i = 0; i < records.size(); i++) {
+            JsonElement record = records.get(i);
+            JsonObject result = new JsonObject();
+            result.addProperty("index", i);
+            JsonElement id = record.isJsonObject() ? record.getAsJsonObject().get("id") : null;
+            if (id == null || !id.isJsonPrimitive()) {
+                result.addProperty("status", 400);
+                result.addProperty("error", record.isJsonObject() ? "missing id" : "not a station object");
+            } else {
+                String stationId = id.getAsString();
+                PutResult put = applyPut(stationId, record.getAsJsonObject(), stamp, origin, ttl);
+                result.addProperty("id", stationId);
+                result.addProperty("status", put.status);
+                result.addProperty("lamport", put.winner.lamport);
+                if (put.status == 409) {
+                    result.addProperty("error", "stale write");
+                } else {
+                    changed.put(stationId, lamportTime);
+                    applied++;
+                }
+            }
+            results.add(result);
+        }
+
+        if (!changed.isEmpty()) {
+            persistChanges(changed);
+        }
+
+        JsonObject body = new JsonObject();
+        body.addProperty("ack", applied == records.size());
+        body.addProperty("applied", applied);
+        body.addProperty("rejected", records.size() - applied);
+        body.addProperty("lamport", lamportTime);
+        body.add("results", results);
+
+        response.statusCode = 200;
+        response.statusMessage = "OK";
+        response.bodyBytes = gson.toJson(body).getBytes(StandardCharsets.UTF_8);
+        response.headers.put("Content-Type", "application/json");
+        response.headers.put("Content-Length", String.valueOf(response.bodyBytes.length));
+    }
+
+    // Records of a batch body; an NDJSON line that is not JSON becomes JsonNull and is reported as invalid,
+    // while an array that does not parse fails the whole batch with IllegalArgumentException
+    static List<JsonElement> batchRecords(String body) {
+        List<JsonElement> records = new ArrayList<>();
+        if (body.trim().startsWith("[")) {
+            JsonArray array;
+            try {
+                array = JsonParser.parseString(body).getAsJsonArray();
+            } catch (JsonParseException | IllegalStateException e) {
+                throw new IllegalArgumentException("batch is not a valid JSON array");
+            }
+            for (JsonElement el : array) {
+                records.add(el);
+            }
+        } else {
+            for (String line : body.split("\n")) {
+                if (!line.isBlank()) {
+                    try {
+                        records.add(JsonParser.parseString(line));
+                    } catch (JsonParseException e) {
+                        records.add(JsonNull.INSTANCE);
+                    }
+                }
+            }
+        }
+        return records;
+    }
+
+    // Per-station TTL in milliseconds from the Station-TTL header, or the configured default
+    private long stationTtl(HttpRequest request) {
+        String header = request.getHeader("Station-TTL");
+        if (header == null) {
+            return config.ttlMs;
+        }
+        try {
+            long ttl = Long.parseLong(header.trim());
+            if (ttl > 0) {
+                return ttl;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("Station-TTL must be a positive number of milliseconds");
+    }
+
+    // Encodes straight to bytes; no intermediate JsonArray or String copy of the feed
+    byte[] serializeFeed() {
+        long start = System.nanoTime();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        try {
+            writeJson(out, writer -> {
+                writer.beginArray();
+                for (StationEntry entry : weatherData.values()) {
+                    entry.data.write(writer, null);
+                }
+                writer.endArray();
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // not thrown by an in-memory stream
+        }
+        metrics.feedSerialize.recordSince(start);
+        return out.toByteArray();
+    }
+
+    private interface JsonBody {
+        void write(JsonWriter writer) throws IOException;
+    }
+
+    // Runs body against a JsonWriter on out, flushing but not closing out
+    private void writeJson(OutputStream out, JsonBody body) throws IOException {
+        JsonWriter writer = gson.newJsonWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 8 * 1024));
+        body.write(writer);
+        writer.flush();
+    }
+
+    private HttpResponse overloaded() {
+        HttpResponse response = new HttpResponse();
+        error(response, 503, "Service Unavailable", "server busy");
+        response.headers.put("Retry-After", "1");
+        response.headers.put("Lamport-Clock", String.valueOf(clock.getTime()));
+        return response;
+    }
+
+    private HttpResponse processRequest(HttpRequest request, long lamportTime) {
+        HttpResponse response = new HttpResponse();
+
+        switch (request.method) {
+            case "GET":
+                handleGet(request, response);
+                response.headers.put("Lamport-Clock", String.valueOf(lamportTime));
+                break;
+
+            case "PUT":
+                if (request.body == null || request.body.isEmpty()) {
+                    response.statusCode = 204;
+                    response.statusMessage = "No Content";
+                } else {
+                    try {
+                        long ttl = stationTtl(request);
+                        if (isBatch(request)) {
+                            handleBatchPut(request, ttl, lamportTime, response);
+                        } else {
+                            JsonObject newEntry = gson.fromJson(request.body, JsonObject.class);
+                            String id = newEntry.get("id").getAsString();
+                            PutResult put = applyPut(id, newEntry, writeStamp(request, lamportTime),
+                                    request.getHeader("Origin-Id"), ttl);
+
+                            if (put.status == 409) {
+                                response.statusCode = 409;
+                                response.statusMessage = "Conflict";
+                                JsonObject body = new JsonObject();
+                                body.addProperty("ack", false);
+                                body.addProperty("error", "stale write");
+                                body.addProperty("lamport", put.winner.lamport);
+                                response.bodyBytes = body.toString().getBytes(StandardCharsets.UTF_8);
+                            } else {
+                                persistChange(id, lamportTime);
+                                response.statusCode = put.status;
+                                response.statusMessage = (response.statusCode == 201) ? "Created" : "OK";
+                                response.bodyBytes = "{ \"ack\": true }".getBytes(StandardCharsets.UTF_8);
+                            }
+                            response.headers.put("Station-Lamport", String.valueOf(put.winner.lamport));
+                            response.headers.put("Content-Type", "application/json");
+                            response.headers.put("Content-Length", String.valueOf(response.bodyBytes.length));
+                        }
+                    } catch (IllegalArgumentException e) {
+                        badRequest(response, e.getMessage());
+                    } catch (Exception e) {
+                        logger.error("Error processing PUT request: {}", e.getMessage());
+                        error(response, 500, "Internal Server Error", String.valueOf(e.getMessage()));
+                    }
+                }
+                response.headers.put("Lamport-Clock", String.valueOf(lamportTime));
+                break;
+
+            default:
+                badRequest(response, "unsupported method " + request.method);
+                response.headers.put("Lamport-Clock", String.valueOf(lamportTime));
+        }
+
+        return response;
     }
 
     private class ClientHandler implements Runnable {
@@ -88,33 +1145,54 @@ public class AggregationServer {
         }
 
         public void run() {
-            BufferedReader in = null;
-            PrintWriter out = null;
+            InputStream in = null;
+            OutputStream out = null;
 
+            metrics.activeConnections.increment();
             try {
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                out = new PrintWriter(socket.getOutputStream(), true);
+                socket.setSoTimeout(config.idleTimeoutMs);
+                in = socket.getInputStream();
+                out = new BufferedOutputStream(socket.getOutputStream());
+                HttpRequestParser parser = new HttpRequestParser();
 
-                HttpRequest request = HttpParser.parseRequest(in);
+                int served = 0;
+                while (true) {
+                    HttpRequest request;
+                    try {
+                        request = parser.read(in);
+                    } catch (SocketTimeoutException e) {
+                        break; // idle persistent connection
+                    } catch (HttpRequestParser.HttpParseException e) {
+                        logger.warn("Failed to parse HTTP request: {}", e.getMessage());
+                        metrics.parseErrors.increment();
+                        rejected(e).writeTo(out);
+                        out.flush();
+                        break;
+                    }
 
-                if (request == null) {
-                    System.err.println("Failed to parse HTTP request");
-                    return;
-                }
+                    if (request == null) {
+                        break;
+                    }
+                    metrics.parse.record(parser.takeParseNanos());
 
-                // Update Lamport Clock
-                int lamportTime = clock.tick(); // local event
+                    served++;
+                    HttpResponse response = dispatch(request);
+                    boolean keepAlive = applyConnectionHeaders(request, response, served);
+                    response.writeTo(out);
 
-                if (request.headers.containsKey("Lamport-Clock")) {
-                    int clientClock = Integer.parseInt(request.headers.get("Lamport-Clock"));
-                    lamportTime = clock.update(clientClock);
+                    // Pipelined requests already buffered are answered before flushing
+                    if (!keepAlive || !parser.hasBuffered()) {
+                        out.flush();
+                    }
+                    if (!keepAlive) {
+                        break;
+                    }
                 }
 
-                processRequest(request, out, lamportTime);
-
             } catch (Exception e) {
-                System.err.println("Error in ClientHandler: " + e.getMessage());
+                logger.error("Error in ClientHandler: {}", e.getMessage());
             } finally {
+                metrics.activeConnections.decrement();
                 // Close resources
                 try {
                     if (in != null) {
@@ -125,73 +1203,13 @@ public class AggregationServer {
                     }
                     socket.close();
                 } catch (IOException e) {
-                    System.err.println("Error closing client connection: " + e.getMessage());
+                    logger.error("Error closing client connection: {}", e.getMessage());
                 }
             }
         }
-
-        private void processRequest(HttpRequest request, PrintWriter out, int lamportTime) {
-            HttpResponse response = new HttpResponse();
-
-            switch (request.method) {
-                case "GET":
-                    JsonArray arr = new JsonArray();
-                    weatherData.values().forEach(arr::add);
-
-                    response.statusCode = 200;
-                    response.statusMessage = "OK";
-                    response.body = gson.toJson(arr);
-                    response.headers.put("Content-Type", "application/json");
-                    response.headers.put("Content-Length", String.valueOf(response.body.length()));
-                    response.headers.put("Lamport-Clock", String.valueOf(lamportTime));
-                    break;
-
-                case "PUT":
-                    if (request.body == null || request.body.isEmpty()) {
-                        response.statusCode = 204;
-                        response.statusMessage = "No Content";
-                    } else {
-                        try {
-                            JsonObject newEntry = gson.fromJson(request.body, JsonObject.class);
-                            String id = newEntry.get("id").getAsString();
-
-                            boolean isNew = !weatherData.containsKey(id);
-                            weatherData.put(id, newEntry);
-                            lastUpdate.put(id, System.currentTimeMillis());
-
-                            persistSafely();
-
-                            response.statusCode = isNew ? 201 : 200;
-                            response.statusMessage = (response.statusCode == 201) ? "Created" : "OK";
-                            response.body = "{ \"ack\": true }";
-                            response.headers.put("Content-Type", "application/json");
-                            response.headers.put("Content-Length", String.valueOf(response.body.length()));
-                        } catch (Exception e) {
-                            System.err.println("Error processing PUT request: " + e.getMessage());
-                            response.statusCode = 500;
-                            response.statusMessage = "Internal Server Error";
-                            response.body = "{ \"error\": \"" + e.getMessage() + "\" }";
-                            response.headers.put("Content-Type", "application/json");
-                            response.headers.put("Content-Length", String.valueOf(response.body.length()));
-                        }
-                    }
-                    response.headers.put("Lamport-Clock", String.valueOf(lamportTime));
-                    break;
-
-                default:
-                    response.statusCode = 400;
-                    response.statusMessage = "Bad Request";
-                    response.headers.put("Lamport-Clock", String.valueOf(lamportTime));
-            }
-
-            String responseString = response.buildResponse();
-            out.write(responseString);
-            out.flush();
-        }
     }
 
     public static void main(String[] args) throws IOException {
-        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
-        new AggregationServer(port).start();
+        new AggregationServer(ServerConfig.fromArgs(args)).start();
     }
 }
\ No newline at end of file
@@ -0,0 +1,128 @@
+package Weather.server;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Data version counter plus an index of which station changed at which version.
+ *
+ * Every PUT or expiry records its station id here after applying the change and gets a
+ * new version. Only the latest version per station is kept, so the index holds one entry
+ * per live station plus recent removals (tombstones), and a delta query walks only the
+ * entries newer than the client's version.
+ *
+ * Versions are handed out by one counter and published through a Watermark: a writer
+ * indexes its change first and marks its version done, and the published version moves
+ * over it once every earlier change is indexed too. A reader that sees version V can
+ * therefore rely on every change up to V being in the index. The writer still waits for
+ * its own version to be published before it returns, so a client that reads after its
+ * PUT was answered sees a version (and feed) that includes it.
+ *
+ * Readers can also wait for the next version (replicas long-polling the change log).
+ * Writers only take the monitor to wake them while someone is actually waiting.
+ */
+class ChangeIndex {
+
+    private static final class Tombstone {
+        final String id;
+        final long version;
+        final long removedAt;
+
+        Tombstone(String id, long version, long removedAt) {
+            this.id = id;
+            this.version = version;
+            this.removedAt = removedAt;
+        }
+    }
+
+    private final Watermark versions = new Watermark(1024);
+    private final ConcurrentSkipListMap<Long, String> byVersion = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, Long> versionOf = new ConcurrentHashMap<>();
+    private final Queue<Tombstone> tombstones = new ConcurrentLinkedQueue<>();
+
+    // Deltas from before this version are incomplete because tombstones were pruned
+    private volatile long horizon;
+
+    // Readers blocked in awaitAfter, woken through versionSignal
+    private final Object versionSignal = new Object();
+    private volatile int waiting;
+
+    long version() {
+        return versions.get();
+    }
+
+    // Waits up to timeoutMs for a version after the given one; true if there is one
+    boolean awaitAfter(long version, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (versionSignal) {
+            waiting++;
+            try {
+                while (versions.get() <= version) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    versionSignal.wait(remaining);
+                }
+                return true;
+            } finally {
+                waiting--;
+            }
+        }
+    }
+
+    long recordPut(String id) {
+        return record(id);
+    }
+
+    long recordRemoval(String id) {
+        long version = record(id);
+        tombstones.add(new Tombstone(id, version, System.currentTimeMillis()));
+        return version;
+    }
+
+    // Ids changed after the given version, up to the current one; null when the client must resync in full
+    Collection<String> changedSince(long since, long upTo) {
+        if (since < horizon || since > upTo) {
+            return null;
+        }
+        return byVersion.subMap(since, false, upTo, true).values();
+    }
+
+    // Forgets removals older than the retention; clients further behind than that get a full resync
+    void pruneTombstones(long retentionMs) {
+        long cutoff = System.currentTimeMillis() - retentionMs;
+        Tombstone t;
+        while ((t = tombstones.peek()) != null && t.removedAt < cutoff) {
+            tombstones.poll();
+            long version = t.version;
+            // Only drop the entry if the station has not come back since
+            if (versionOf.remove(t.id, version)) {
+                byVersion.remove(version);
+            }
+            horizon = Math.max(horizon, version);
+        }
+    }
+
+    private long record(String id) {
+        long version = versions.next();
+        versionOf.compute(id, (k, old) -> {
+            if (old != null && old > version) {
+                return old; // a later change to this station is already indexed
+            }
+            if (old != null) {
+                byVersion.remove(old);
+            }
+            byVersion.put(version, id);
+            return version;
+        });
+
+        if (versions.finish(version) && waiting > 0) {
+            synchronized (versionSignal) {
+                versionSignal.notifyAll();
+            }
+        }
+        versions.await(version);
+        return version;
+    }
+}
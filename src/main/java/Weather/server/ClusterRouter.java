@@ -0,0 +1,675 @@
+package Weather.server;
+
+import com.google.gson.*;
+import Weather.util.*;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Spreads the stations over a cluster of aggregation servers and lets any node answer
+ * for all of them.
+ *
+ * Each station belongs to one node, picked by a consistent-hash ring over station ids
+ * (HashRing), and only that node stores it. A node that receives a request it cannot
+ * answer alone:
+ *   - forwards a PUT of one station, or a GET of one station, to the station's owner;
+ *   - splits a batch PUT by owner, sends the parts in parallel and puts the results back
+ *     in the order of the batch;
+ *   - sends the feed, filtered queries and delta queries to every node in parallel and
+ *     merges the answers.
+ * Requests between nodes carry a Cluster-Hop header and are always served locally, so a
+ * request is forwarded at most once even while two nodes disagree about the ring. A node
+ * that is not in its own ring stores nothing and only routes.
+ *
+ * Lamport time crosses every hop: a forwarded request carries this node's clock in
+ * Cluster-Lamport and the original write stamp in Lamport-Clock, and the Lamport-Clock of
+ * every answer is merged into this node's clock before the client is answered.
+ *
+ * Data versions are per node, so merged answers are tagged with the versions of all nodes
+ * in ring order, joined by dots: ETag "A-12.B-7.C-30" (each node's epoch and version), and
+ * since=A-12.B-7.C-30 for the next delta.
+ * The last feed of every node is kept with its ETag and asked for with If-None-Match, so
+ * unchanged nodes answer 304 and the merged feed is only rebuilt when one of them changed.
+ */
+final class ClusterRouter {
+    static final String HOP_HEADER = "Cluster-Hop";
+    static final String CLOCK_HEADER = "Cluster-Lamport";
+
+    private static final Logger logger = AsyncLogger.getLogger(ClusterRouter.class);
+
+    // Headers of a node's answer that are passed on to the client
+    private static final String[] RELAYED_HEADERS = {"Content-Type", "ETag", "Next-Cursor", "Station-Lamport", "Retry-After"};
+
+    /** Serves a request from this node's own stations (AggregationServer.processRequest). */
+    interface LocalHandler {
+        HttpResponse handle(HttpRequest request, long lamportTime);
+    }
+
+    private static final class ShardFeed {
+        final String etag;
+        final String body;
+
+        ShardFeed(String etag, String body) {
+            this.etag = etag;
+            this.body = body;
+        }
+    }
+
+    private static final class MergedFeed {
+        final String etag;
+        final FeedCache.Feed feed;
+
+        MergedFeed(String etag, byte[] body) {
+            this.etag = etag;
+            this.feed = new FeedCache.Feed(0, body);
+        }
+    }
+
+    private final String self;
+    private final HashRing ring;
+    private final Map<String, PeerClient> peers = new HashMap<>();
+    private final LamportClock clock;
+    private final Gson gson;
+    private final Metrics metrics;
+    private final LocalHandler local;
+    private final boolean gzip;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Last feed of each node, and the merged feed built from them
+    private final Map<String, ShardFeed> shardFeeds = new ConcurrentHashMap<>();
+    private volatile MergedFeed merged;
+
+    ClusterRouter(ServerConfig config, LamportClock clock, Gson gson, Metrics metrics, LocalHandler local) {
+        this.self = config.node != null ? config.node : "localhost:" + config.port;
+        this.ring = new HashRing(config.cluster, config.virtualNodes);
+        for (String node : ring.nodes()) {
+            if (!node.equals(self)) {
+                peers.put(node, new PeerClient(node, config.clusterTimeoutMs));
+            }
+        }
+        this.clock = clock;
+        this.gson = gson;
+        this.metrics = metrics;
+        this.local = local;
+        this.gzip = config.gzip;
+    }
+
+    static boolean isForwarded(HttpRequest request) {
+        return request.getHeader(HOP_HEADER) != null;
+    }
+
+    boolean owns(String id) {
+        return ring.owner(id).equals(self);
+    }
+
+    // Answer that needed other nodes, or null when this node can serve the request by itself
+    HttpResponse route(HttpRequest request, long lamportTime) {
+        HttpResponse response;
+        switch (request.method) {
+            case "GET":
+                response = routeGet(request, lamportTime);
+                break;
+            case "PUT":
+                response = routePut(request, lamportTime);
+                break;
+            default:
+                return null;
+        }
+        if (response != null) {
+            response.headers.put("Lamport-Clock", String.valueOf(clock.getTime()));
+        }
+        return response;
+    }
+
+    private HttpResponse routePut(HttpRequest request, long lamportTime) {
+        if (request.body == null || request.body.isEmpty()) {
+            return null;
+        }
+        // The write stamp is fixed here, so it is the same whichever node applies the write
+        String header = request.getHeader("Lamport-Clock");
+        String stamp = header != null ? header.trim() : String.valueOf(lamportTime);
+
+        if (AggregationServer.isBatch(request)) {
+            return routeBatch(request, stamp, lamportTime);
+        }
+        String id;
+        try {
+            id = JsonParser.parseString(request.body).getAsJsonObject().get("id").getAsString();
+        } catch (RuntimeException e) {
+            return null; // malformed; rejected locally like on a single server
+        }
+        String owner = ring.owner(id);
+        if (owner.equals(self)) {
+            return null;
+        }
+        return relay(owner, putRequest(request, stamp, request.body), lamportTime);
+    }
+
+    /**
+     * Splits a batch by owner. Records without an id stay here, so they are reported the
+     * same way as on a single server. A node that cannot be reached fails only its own
+     * records, with status 502 in their results.
+     */
+    private HttpResponse routeBatch(HttpRequest request, String stamp, long lamportTime) {
+        List<JsonElement> records;
+        try {
+            records = AggregationServer.batchRecords(request.body);
+        } catch (RuntimeException e) {
+            return null;
+        }
+
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < records.size(); i++) {
+            JsonElement record = records.get(i);
+            JsonElement id = record.isJsonObject() ? record.getAsJsonObject().get("id") : null;
+            String node = id != null && id.isJsonPrimitive() ? ring.owner(id.getAsString()) : self;
+            groups.computeIfAbsent(node, k -> new ArrayList<>()).add(i);
+        }
+        if (groups.size() == 1 && groups.containsKey(self)) {
+            return null;
+        }
+
+        List<String> nodes = new ArrayList<>(groups.keySet());
+        List<HttpRequest> parts = new ArrayList<>(nodes.size());
+        for (String node : nodes) {
+            JsonArray part = new JsonArray();
+            for (int index : groups.get(node)) {
+                part.add(records.get(index));
+            }
+            parts.add(putRequest(request, stamp, part.toString()));
+        }
+        HttpResponse[] answers = callAll(nodes, parts, lamportTime);
+
+        JsonObject[] results = new JsonObject[records.size()];
+        int applied = 0;
+        for (int k = 0; k < nodes.size(); k++) {
+            List<Integer> indices = groups.get(nodes.get(k));
+            HttpResponse answer = answers[k];
+            if (answer != null && answer.statusCode != 200 && answer.statusCode < 500) {
+                return copy(answer); // the whole request was refused, e.g. a bad Station-TTL
+            }
+            if (answer == null || answer.statusCode != 200 || answer.body == null) {
+                for (int index : indices) {
+                    JsonObject result = new JsonObject();
+                    result.addProperty("index", index);
+                    result.add("id", records.get(index).getAsJsonObject().get("id")); // only records with an id leave this node
+                    result.addProperty("status", 502);
+                    result.addProperty("error", "cluster node " + nodes.get(k) + " unavailable");
+                    results[index] = result;
+                }
+                continue;
+            }
+            JsonObject body = JsonParser.parseString(answer.body).getAsJsonObject();
+            applied += body.get("applied").getAsInt();
+            for (JsonElement el : body.getAsJsonArray("results")) {
+                JsonObject result = el.getAsJsonObject();
+                int index = indices.get(result.get("index").getAsInt());
+                result.addProperty("index", index);
+                results[index] = result;
+            }
+        }
+
+        JsonArray ordered = new JsonArray();
+        for (JsonObject result : results) {
+            ordered.add(result);
+        }
+        JsonObject body = new JsonObject();
+        body.addProperty("ack", applied == records.size());
+        body.addProperty("applied", applied);
+        body.addProperty("rejected", records.size() - applied);
+        body.addProperty("lamport", clock.getTime());
+        body.add("results", ordered);
+        return json(200, "OK", gson.toJson(body).getBytes(StandardCharsets.UTF_8), false);
+    }
+
+    private HttpResponse routeGet(HttpRequest request, long lamportTime) {
+        String route = request.getRoute();
+        Map<String, String> params;
+        String id;
+        try {
+            params = request.getQueryParams();
+            // One station: ask its owner
+            id = route.startsWith("/weather/")
+                    ? HttpRequest.decode(route.substring("/weather/".length()))
+                    : params.containsKey("ids") ? null : params.get("id");
+        } catch (IllegalArgumentException e) {
+            return json(400, "Bad Request", AggregationServer.errorBody(e.getMessage()), false);
+        }
+        if (id != null) {
+            String owner = ring.owner(id);
+            if (owner.equals(self)) {
+                return null;
+            }
+            HttpRequest forward = subRequest("GET", request.path, null);
+            copyHeader(request, forward, "If-None-Match");
+            return relay(owner, forward, lamportTime);
+        }
+        if (!route.equals("/weather.json") && !route.equals("/")) {
+            return null; // /metrics and unknown routes are per node
+        }
+
+        long start = System.nanoTime();
+        try {
+            if (params.containsKey("since")) {
+                return mergeDeltas(params.get("since"), lamportTime);
+            }
+            if (FeedQuery.isFiltered(params)) {
+                return mergeQuery(request, params, lamportTime);
+            }
+            return mergeFeed(request, lamportTime);
+        } finally {
+            metrics.clusterFanOut.recordSince(start);
+        }
+    }
+
+    private HttpResponse mergeFeed(HttpRequest request, long lamportTime) {
+        List<String> nodes = ring.nodes();
+        ShardFeed[] known = new ShardFeed[nodes.size()];
+        List<HttpRequest> requests = new ArrayList<>(nodes.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            HttpRequest shard = subRequest("GET", "/weather.json", null);
+            known[i] = shardFeeds.get(nodes.get(i));
+            if (known[i] != null) {
+                shard.headers.put("If-None-Match", known[i].etag);
+            }
+            requests.add(shard);
+        }
+        HttpResponse[] answers = callAll(nodes, requests, lamportTime);
+
+        List<ShardFeed> parts = new ArrayList<>(nodes.size());
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            HttpResponse answer = answers[i];
+            if (answer != null && answer.statusCode == 304 && known[i] != null) {
+                parts.add(known[i]);
+            } else if (answer != null && answer.statusCode == 200 && answer.headers.get("ETag") != null) {
+                ShardFeed feed = new ShardFeed(answer.headers.get("ETag"), answer.body == null ? "[]" : answer.body);
+                shardFeeds.put(nodes.get(i), feed);
+                parts.add(feed);
+            } else {
+                missing.add(nodes.get(i));
+            }
+        }
+
+        List<String> bodies = new ArrayList<>(parts.size());
+        List<String> etags = new ArrayList<>(parts.size());
+        for (ShardFeed part : parts) {
+            bodies.add(part.body);
+            etags.add(part.etag);
+        }
+        if (!missing.isEmpty()) {
+            return partial(json(200, "OK", concatArrays(bodies), acceptsGzip(request)), missing);
+        }
+
+        String etag = joinTags(etags);
+        if (etag.equals(request.getHeader("If-None-Match"))) {
+            return notModified(etag);
+        }
+        MergedFeed current = merged;
+        if (current == null || !current.etag.equals(etag)) {
+            current = new MergedFeed(etag, concatArrays(bodies));
+            merged = current;
+        }
+
+        HttpResponse response = new HttpResponse();
+        response.statusCode = 200;
+        response.statusMessage = "OK";
+        response.headers.put("Content-Type", "application/json");
+        response.headers.put("Vary", "Accept-Encoding");
+        if (acceptsGzip(request) && current.feed.body.length >= AggregationServer.GZIP_MIN_BYTES) {
+            response.bodyBytes = current.feed.gzipped(); // compressed once per merged version
+            response.headers.put("Content-Encoding", "gzip");
+        } else {
+            response.bodyBytes = current.feed.body;
+        }
+        response.headers.put("Content-Length", String.valueOf(response.bodyBytes.length));
+        response.headers.put("ETag", etag);
+        return response;
+    }
+
+    // Runs the query on every node and merges as FeedQuery would on one: ids in the order asked, pages in id order
+    private HttpResponse mergeQuery(HttpRequest request, Map<String, String> params, long lamportTime) {
+        List<String> nodes = ring.nodes();
+        List<HttpRequest> requests = new ArrayList<>(nodes.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            requests.add(subRequest("GET", request.path, null));
+        }
+        HttpResponse[] answers = callAll(nodes, requests, lamportTime);
+
+        List<JsonObject> stations = new ArrayList<>();
+        List<String> etags = new ArrayList<>(nodes.size());
+        List<String> missing = new ArrayList<>();
+        boolean more = false;
+        for (int i = 0; i < nodes.size(); i++) {
+            HttpResponse answer = answers[i];
+            if (answer == null || answer.statusCode >= 500) {
+                missing.add(nodes.get(i));
+                continue;
+            }
+            if (answer.statusCode != 200) {
+                return copy(answer); // e.g. a bad limit, refused the same way by every node
+            }
+            for (JsonElement el : JsonParser.parseString(answer.body).getAsJsonArray()) {
+                stations.add(el.getAsJsonObject());
+            }
+            etags.add(answer.headers.get("ETag"));
+            more |= answer.headers.get("Next-Cursor") != null;
+        }
+
+        String nextCursor = null;
+        if (params.containsKey("id") || params.containsKey("ids")) {
+            Set<String> ids = new LinkedHashSet<>();
+            if (params.containsKey("id")) {
+                ids.add(params.get("id"));
+            }
+            if (params.containsKey("ids")) {
+                ids.addAll(FeedQuery.split(params.get("ids")));
+            }
+            Map<String, JsonObject> byId = new HashMap<>();
+            for (JsonObject station : stations) {
+                byId.put(station.get("id").getAsString(), station);
+            }
+            stations.clear();
+            for (String id : ids) {
+                if (byId.containsKey(id)) {
+                    stations.add(byId.get(id));
+                }
+            }
+        } else if (params.containsKey("limit")) {
+            // Every node answered with its first page after the cursor; the merged page is the smallest ids of those
+            int limit = FeedQuery.limit(params);
+            stations.sort(Comparator.comparing(station -> station.get("id").getAsString()));
+            if (stations.size() > limit || more) {
+                stations = new ArrayList<>(stations.subList(0, Math.min(limit, stations.size())));
+                nextCursor = stations.get(stations.size() - 1).get("id").getAsString();
+            }
+        }
+
+        JsonArray array = new JsonArray();
+        stations.forEach(array::add);
+        HttpResponse response = json(200, "OK", gson.toJson(array).getBytes(StandardCharsets.UTF_8), acceptsGzip(request));
+        if (nextCursor != null) {
+            response.headers.put("Next-Cursor", URLEncoder.encode(nextCursor, StandardCharsets.UTF_8));
+        }
+        if (!missing.isEmpty()) {
+            return partial(response, missing);
+        }
+        String etag = joinTags(etags);
+        if (etag.equals(request.getHeader("If-None-Match"))) {
+            return notModified(etag);
+        }
+        response.headers.put("ETag", etag);
+        return response;
+    }
+
+    /**
+     * Delta over every node. The client's version is one version per node; when it does
+     * not match the ring (a first poll, or the ring changed) or any node sends everything,
+     * every node is asked for everything so the merged answer can say full.
+     */
+    private HttpResponse mergeDeltas(String sinceParam, long lamportTime) {
+        List<String> nodes = ring.nodes();
+        String[] since = sinceParam.split("\\.", -1);
+        for (String version : since) {
+            try {
+                Long.parseLong(version.substring(version.lastIndexOf('-') + 1)); // a node's EPOCH-VERSION
+            } catch (NumberFormatException e) {
+                return json(400, "Bad Request", AggregationServer.errorBody("since must be a data version"), false);
+            }
+        }
+
+        boolean full = since.length != nodes.size();
+        JsonObject[] deltas = fetchDeltas(nodes, full ? null : since, lamportTime);
+        if (deltas == null) {
+            return unavailable("a cluster node");
+        }
+        if (!full) {
+            for (JsonObject delta : deltas) {
+                full |= delta.get("full").getAsBoolean();
+            }
+            if (full) {
+                deltas = fetchDeltas(nodes, null, lamportTime);
+                if (deltas == null) {
+                    return unavailable("a cluster node");
+                }
+            }
+        }
+
+        List<String> versions = new ArrayList<>(nodes.size());
+        JsonArray changed = new JsonArray();
+        JsonArray removed = new JsonArray();
+        for (JsonObject delta : deltas) {
+            versions.add(delta.get("version").getAsString());
+            changed.addAll(delta.getAsJsonArray("changed"));
+            removed.addAll(delta.getAsJsonArray("removed"));
+        }
+        String version = String.join(".", versions);
+        if (!full && version.equals(sinceParam)) {
+            return notModified("\"" + version + "\"");
+        }
+
+        JsonObject body = new JsonObject();
+        body.addProperty("version", version);
+        body.addProperty("full", full);
+        body.add("changed", changed);
+        body.add("removed", removed);
+        HttpResponse response = json(200, "OK", gson.toJson(body).getBytes(StandardCharsets.UTF_8), false);
+        response.headers.put("ETag", "\"" + version + "\"");
+        return response;
+    }
+
+    // Delta of each node since its version (since == null: since 0); a 304 becomes an unchanged delta. Null if a node failed.
+    private JsonObject[] fetchDeltas(List<String> nodes, String[] since, long lamportTime) {
+        List<HttpRequest> requests = new ArrayList<>(nodes.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            requests.add(subRequest("GET", "/weather.json?since=" + (since == null ? "0" : since[i]), null));
+        }
+        HttpResponse[] answers = callAll(nodes, requests, lamportTime);
+
+        JsonObject[] deltas = new JsonObject[nodes.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            HttpResponse answer = answers[i];
+            if (answer != null && answer.statusCode == 304) {
+                JsonObject delta = new JsonObject();
+                delta.addProperty("version", since == null ? "0" : since[i]);
+                delta.addProperty("full", false);
+                delta.add("changed", new JsonArray());
+                delta.add("removed", new JsonArray());
+                deltas[i] = delta;
+            } else if (answer != null && answer.statusCode == 200 && answer.body != null) {
+                deltas[i] = JsonParser.parseString(answer.body).getAsJsonObject();
+            } else {
+                return null;
+            }
+        }
+        return deltas;
+    }
+
+    // Sends one request per node in parallel, this node's part on the calling thread; null for a node that failed
+    private HttpResponse[] callAll(List<String> nodes, List<HttpRequest> requests, long lamportTime) {
+        HttpResponse[] answers = new HttpResponse[nodes.size()];
+        List<Future<HttpResponse>> pending = new ArrayList<>(nodes.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            String node = nodes.get(i);
+            HttpRequest request = requests.get(i);
+            pending.add(node.equals(self) ? null : executor.submit(() -> call(node, request, lamportTime)));
+        }
+        for (int i = 0; i < nodes.size(); i++) {
+            try {
+                answers[i] = pending.get(i) == null
+                        ? call(self, requests.get(i), lamportTime)
+                        : pending.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | IOException e) {
+                // already counted and logged by call()
+            }
+        }
+        return answers;
+    }
+
+    // Sends a request to a node, or serves it here when the node is this one, and merges the answer's Lamport time
+    private HttpResponse call(String node, HttpRequest request, long lamportTime) throws IOException {
+        if (node.equals(self)) {
+            HttpResponse response = local.handle(request, lamportTime);
+            response.body = bodyText(response);
+            return response;
+        }
+        metrics.clusterForwards.increment();
+        try {
+            HttpResponse response = peers.get(node).send(request);
+            String time = response.headers.get("Lamport-Clock");
+            if (time != null) {
+                clock.update(Long.parseLong(time.trim()));
+            }
+            return response;
+        } catch (IOException e) {
+            metrics.clusterErrors.increment();
+            logger.warn("Cluster node {} failed: {}", node, e.getMessage());
+            throw e;
+        }
+    }
+
+    // The answer of a single node, passed on as it is
+    private HttpResponse relay(String node, HttpRequest request, long lamportTime) {
+        try {
+            return copy(call(node, request, lamportTime));
+        } catch (IOException e) {
+            return unavailable(node);
+        }
+    }
+
+    private HttpRequest subRequest(String method, String path, String body) {
+        HttpRequest request = new HttpRequest();
+        request.method = method;
+        request.path = path;
+        request.version = "HTTP/1.1";
+        request.body = body;
+        request.headers.put(HOP_HEADER, self);
+        request.headers.put(CLOCK_HEADER, String.valueOf(clock.getTime()));
+        return request;
+    }
+
+    private HttpRequest putRequest(HttpRequest original, String stamp, String body) {
+        HttpRequest request = subRequest("PUT", "/weather.json", body);
+        request.headers.put("Content-Type", "application/json");
+        request.headers.put("Lamport-Clock", stamp);
+        copyHeader(original, request, "Origin-Id");
+        copyHeader(original, request, "Station-TTL");
+        return request;
+    }
+
+    private static void copyHeader(HttpRequest from, HttpRequest to, String name) {
+        String value = from.getHeader(name);
+        if (value != null) {
+            to.headers.put(name, value);
+        }
+    }
+
+    private static HttpResponse copy(HttpResponse answer) {
+        HttpResponse response = new HttpResponse();
+        response.statusCode = answer.statusCode;
+        response.statusMessage = answer.statusMessage;
+        for (String name : RELAYED_HEADERS) {
+            if (answer.headers.get(name) != null) {
+                response.headers.put(name, answer.headers.get(name));
+            }
+        }
+        if (answer.statusCode != 304) {
+            response.bodyBytes = answer.body == null ? new byte[0] : answer.body.getBytes(StandardCharsets.UTF_8);
+            response.headers.put("Content-Length", String.valueOf(response.bodyBytes.length));
+        }
+        return response;
+    }
+
+    private static String bodyText(HttpResponse response) {
+        if (response.bodyWriter != null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(8 * 1024);
+            try {
+                response.bodyWriter.writeTo(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // not thrown by an in-memory stream
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        }
+        if (response.bodyBytes != null) {
+            return new String(response.bodyBytes, StandardCharsets.UTF_8);
+        }
+        return response.body;
+    }
+
+    private boolean acceptsGzip(HttpRequest request) {
+        return gzip && AggregationServer.acceptsGzip(request.getHeader("Accept-Encoding"));
+    }
+
+    private static HttpResponse json(int status, String message, byte[] body, boolean gzip) {
+        HttpResponse response = new HttpResponse();
+        response.statusCode = status;
+        response.statusMessage = message;
+        response.headers.put("Content-Type", "application/json");
+        if (gzip && body.length >= AggregationServer.GZIP_MIN_BYTES) {
+            body = FeedCache.gzip(body);
+            response.headers.put("Content-Encoding", "gzip");
+        }
+        if (status == 200) {
+            response.headers.put("Vary", "Accept-Encoding");
+        }
+        response.bodyBytes = body;
+        response.headers.put("Content-Length", String.valueOf(body.length));
+        return response;
+    }
+
+    // Data from the nodes that answered, untagged so it is never mistaken for a complete version
+    private static HttpResponse partial(HttpResponse response, List<String> missing) {
+        response.headers.remove("ETag");
+        response.headers.put("Cluster-Unavailable", String.join(",", missing));
+        return response;
+    }
+
+    private static HttpResponse notModified(String etag) {
+        HttpResponse response = new HttpResponse();
+        response.statusCode = 304;
+        response.statusMessage = "Not Modified";
+        response.headers.put("ETag", etag);
+        return response;
+    }
+
+    private static HttpResponse unavailable(String node) {
+        return json(502, "Bad Gateway", AggregationServer.errorBody(node + " unavailable"), false);
+    }
+
+    // "\"A-12\"", "\"B-7\"" -> "\"A-12.B-7\""
+    private static String joinTags(List<String> etags) {
+        StringBuilder joined = new StringBuilder("\"");
+        for (String etag : etags) {
+            if (joined.length() > 1) {
+                joined.append('.');
+            }
+            joined.append(etag.replace("\"", ""));
+        }
+        return joined.append('"').toString();
+    }
+
+    // Joins JSON arrays as text, without parsing the stations in them
+    private static byte[] concatArrays(List<String> arrays) {
+        StringBuilder out = new StringBuilder("[");
+        for (String array : arrays) {
+            String trimmed = array.trim();
+            String inner = trimmed.substring(1, trimmed.length() - 1).trim();
+            if (!inner.isEmpty()) {
+                if (out.length() > 1) {
+                    out.append(',');
+                }
+                out.append(inner);
+            }
+        }
+        return out.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
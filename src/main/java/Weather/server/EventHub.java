@@ -0,0 +1,233 @@
+package Weather.server;
+
+import Weather.util.HttpResponse;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Live updates pushed to subscribers as Server-Sent Events (GET /events).
+ *
+ * Every applied PUT and every removal is published as one event into a fixed ring of
+ * recent events. Publishing never touches a subscriber: it stores the event, publishes
+ * its sequence number through a Watermark (like ChangeIndex versions) and wakes
+ * subscribers only if one is waiting. Each subscriber's stream reads the ring at its own pace, so a slow
+ * client only delays itself. One that falls a whole ring behind gets a reset event and
+ * continues from the newest event; it should re-read the feed to fill the gap.
+ *
+ * An event is encoded to its SSE frame at most once, by the first subscriber that writes
+ * it, and the same bytes are written to every other subscriber. Nothing is encoded while
+ * nobody is subscribed.
+ *
+ * Frames: "id: SEQ", "event: put" with data {id, lamport, station} or "event: expire"
+ * with data {id}. A reconnecting client sends Last-Event-ID and receives the events it
+ * missed if they are still in the ring. A comment line is sent every HEARTBEAT_MS so a
+ * client that has gone away is noticed even while nothing changes.
+ */
+final class EventHub {
+    static final String PATH = "/events";
+    static final String CONTENT_TYPE = "text/event-stream";
+
+    private static final long HEARTBEAT_MS = 15000;
+    private static final byte[] HEARTBEAT = ": keep-alive\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final class Event {
+        final long seq;
+        final String id;
+        final StationEntry entry; // null for a removal
+        private volatile byte[] frame;
+
+        Event(long seq, String id, StationEntry entry) {
+            this.seq = seq;
+            this.id = id;
+            this.entry = entry;
+        }
+
+        // Two subscribers racing here may both encode; they produce the same bytes
+        byte[] frame() throws IOException {
+            byte[] encoded = frame;
+            if (encoded == null) {
+                encoded = encode();
+                frame = encoded;
+            }
+            return encoded;
+        }
+
+        private byte[] encode() throws IOException {
+            StringWriter data = new StringWriter(256);
+            JsonWriter writer = new JsonWriter(data); // compact: SSE data must not span lines
+            writer.beginObject();
+            writer.name("id").value(id);
+            if (entry != null) {
+                writer.name("lamport").value(entry.lamport);
+                writer.name("station");
+                entry.data.write(writer, null);
+            }
+            writer.endObject();
+            writer.flush();
+            String text = "id: " + seq + "\nevent: " + (entry != null ? "put" : "expire") + "\ndata: " + data + "\n\n";
+            return text.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private final AtomicReferenceArray<Event> ring;
+    private final int mask;
+    private final Watermark published;
+
+    // Events up to this one were not kept because nobody was subscribed
+    private final AtomicLong skippedUpTo = new AtomicLong();
+    private final AtomicInteger subscribers = new AtomicInteger();
+
+    // Streams blocked in awaitAfter, woken through arrived; a lock rather than a monitor
+    // so that waiting does not pin a virtual thread to its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition arrived = lock.newCondition();
+    private volatile int waiting;
+
+    private final Metrics metrics;
+
+    EventHub(int capacity, Metrics metrics) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.published = new Watermark(size);
+        this.metrics = metrics;
+    }
+
+    static boolean isEventStream(HttpResponse response) {
+        String type = response.headers.get("Content-Type");
+        return type != null && type.startsWith(CONTENT_TYPE);
+    }
+
+    void publishPut(String id, StationEntry entry) {
+        publish(id, entry);
+    }
+
+    void publishRemoval(String id) {
+        publish(id, null);
+    }
+
+    private void publish(String id, StationEntry entry) {
+        long seq = published.next();
+        if (subscribers.get() > 0) {
+            ring.set((int) (seq & mask), new Event(seq, id, entry));
+        } else {
+            skippedUpTo.accumulateAndGet(seq, Math::max); // a client resuming from before this has to re-read the feed
+        }
+
+        if (published.finish(seq) && waiting > 0) {
+            lock.lock();
+            try {
+                arrived.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Fills in a 200 response that streams events until the client disconnects.
+     *
+     * @param ids         stations to send events for, or null for all of them
+     * @param lastEventId the client's Last-Event-ID header, or null to start with the next event
+     */
+    void subscribe(HttpResponse response, Set<String> ids, String lastEventId) {
+        Long resumeAfter = null;
+        if (lastEventId != null) {
+            try {
+                resumeAfter = Long.parseLong(lastEventId.trim());
+            } catch (NumberFormatException e) {
+                // not one of ours; start from now
+            }
+        }
+        Long from = resumeAfter;
+
+        response.statusCode = 200;
+        response.statusMessage = "OK";
+        response.headers.put("Content-Type", CONTENT_TYPE);
+        response.headers.put("Cache-Control", "no-cache");
+        response.stream(out -> stream(out, ids, from));
+    }
+
+    private void stream(OutputStream out, Set<String> ids, Long resumeAfter) throws IOException {
+        subscribers.incrementAndGet();
+        metrics.eventSubscribers.increment();
+        try {
+            // Read after subscribing, so every later event is kept for this stream
+            long latest = Math.max(published.get(), skippedUpTo.get());
+            long next = latest + 1;
+            if (resumeAfter != null && resumeAfter > latest) {
+                reset(out, latest); // an id from before this server started
+            } else if (resumeAfter != null) {
+                next = resumeAfter + 1;
+            }
+
+            out.write(HEARTBEAT); // sends the headers now instead of with the first event
+            out.flush();
+            while (true) {
+                long upTo = awaitAfter(next - 1);
+                if (upTo < next) {
+                    out.write(HEARTBEAT);
+                    out.flush();
+                    continue;
+                }
+                boolean behind = next <= skippedUpTo.get() || upTo - next >= ring.length();
+                for (long seq = next; seq <= upTo && !behind; seq++) {
+                    Event event = ring.get((int) (seq & mask));
+                    if (event == null || event.seq != seq) {
+                        behind = true; // overwritten while this client was behind
+                    } else if (ids == null || ids.contains(event.id)) {
+                        out.write(event.frame());
+                    }
+                }
+                if (behind) {
+                    reset(out, upTo);
+                }
+                out.flush();
+                next = upTo + 1;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            metrics.eventSubscribers.decrement();
+            subscribers.decrementAndGet();
+        }
+    }
+
+    // Tells the client it missed events and has to re-read the feed; it continues after upTo
+    private void reset(OutputStream out, long upTo) throws IOException {
+        metrics.eventResets.increment();
+        out.write(("id: " + upTo + "\nevent: reset\ndata: {}\n\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    // Waits up to HEARTBEAT_MS for an event after seq; returns the latest published event
+    private long awaitAfter(long seq) throws InterruptedException {
+        long current = published.get();
+        if (current > seq) {
+            return current;
+        }
+        long remaining = TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_MS);
+        lock.lock();
+        try {
+            waiting++;
+            try {
+                while ((current = published.get()) <= seq && remaining > 0) {
+                    remaining = arrived.awaitNanos(remaining);
+                }
+                return current;
+            } finally {
+                waiting--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
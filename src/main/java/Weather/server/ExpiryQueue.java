@@ -0,0 +1,77 @@
+package Weather.server;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Deadline-ordered expiry index, so the expiry thread only ever touches stations that are due.
+ *
+ * The authoritative deadline lives in each StationEntry; this queue only decides when to
+ * look at a station again. Every PUT moves its station's deadline, but the queue is not
+ * touched unless the new deadline is earlier than the queued one. A queued entry that
+ * comes due for a station whose deadline has moved on is re-queued at the new deadline
+ * instead, so a station updated every few seconds costs one queue operation per TTL
+ * rather than one per PUT.
+ */
+class ExpiryQueue {
+
+    static final class Deadline implements Delayed {
+        final String id;
+        final long at;
+
+        Deadline(String id, long at) {
+            this.id = id;
+            this.at = at;
+        }
+
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(at - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        public int compareTo(Delayed other) {
+            return Long.compare(at, ((Deadline) other).at);
+        }
+    }
+
+    private final DelayQueue<Deadline> queue = new DelayQueue<>();
+
+    // Earliest queued deadline per station
+    private final ConcurrentHashMap<String, Long> queued = new ConcurrentHashMap<>();
+
+    // Makes sure the station is looked at no later than the given time
+    void schedule(String id, long at) {
+        boolean[] add = new boolean[1];
+        queued.compute(id, (k, queuedAt) -> {
+            if (queuedAt != null && queuedAt <= at) {
+                return queuedAt;
+            }
+            add[0] = true;
+            return at;
+        });
+        if (add[0]) {
+            queue.add(new Deadline(id, at));
+        }
+    }
+
+    // True if this is the station's live queue entry; false if an earlier one replaced it
+    boolean claim(Deadline deadline) {
+        return queued.remove(deadline.id, deadline.at);
+    }
+
+    // Waits up to maxWaitMs for the next deadline and returns every deadline due by then
+    List<Deadline> awaitDue(long maxWaitMs) throws InterruptedException {
+        Deadline first = queue.poll(maxWaitMs, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return Collections.emptyList();
+        }
+        List<Deadline> due = new ArrayList<>();
+        due.add(first);
+        queue.drainTo(due);
+        return due;
+    }
+
+    // Entries in the queue, including superseded ones
+    int pending() {
+        return queue.size();
+    }
+}
@@ -0,0 +1,83 @@
+package Weather.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serialized GET body shared by every reader until the data changes.
+ *
+ * Writers apply their change first and then bump the data version (see ChangeIndex).
+ * A reader that finds the cached body tagged with an older version rebuilds it once
+ * (other readers wait for that rebuild instead of serializing in parallel). Because the
+ * version is read before serializing, a body is never tagged newer than the data in it.
+ *
+ * The gzip form of a body is made the first time a client asks for it and then kept with
+ * the body, so compression runs at most once per data version.
+ */
+class FeedCache {
+
+    static final class Feed {
+        final long version;
+        final byte[] body;
+        final String contentLength;
+
+        private volatile byte[] gzipped;
+
+        Feed(long version, byte[] body) {
+            this.version = version;
+            this.body = body;
+            this.contentLength = String.valueOf(body.length);
+        }
+
+        byte[] gzipped() {
+            byte[] compressed = gzipped;
+            if (compressed == null) {
+                synchronized (this) {
+                    compressed = gzipped;
+                    if (compressed == null) {
+                        compressed = gzip(body);
+                        gzipped = compressed;
+                    }
+                }
+            }
+            return compressed;
+        }
+    }
+
+    static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, bytes.length / 8));
+        try (GZIPOutputStream gz = new GZIPOutputStream(out, 8 * 1024)) {
+            gz.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // not thrown by an in-memory stream
+        }
+        return out.toByteArray();
+    }
+
+    private final LongSupplier version;
+    private volatile Feed cached;
+
+    FeedCache(LongSupplier version) {
+        this.version = version;
+    }
+
+    Feed get(Supplier<byte[]> serializer) {
+        Feed feed = cached;
+        if (feed != null && feed.version == version.getAsLong()) {
+            return feed;
+        }
+        synchronized (this) {
+            long current = version.getAsLong();
+            feed = cached;
+            if (feed == null || feed.version != current) {
+                feed = new Feed(current, serializer.get());
+                cached = feed;
+            }
+            return feed;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package Weather.server;
+
+import Weather.util.WeatherRecord;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Filtered reads over the station map, so a consumer that needs a few stations does not
+ * pay for serializing all of them.
+ *
+ * Query parameters on GET /weather.json:
+ *   id=ID              one station (O(1) lookup)
+ *   ids=A,B,C          several stations, in the order given
+ *   fields=F1,F2       only these fields (id is always included)
+ *   limit=N&cursor=ID  a page of at most N stations in id order, starting after cursor;
+ *                      the cursor for the next page is returned in the Next-Cursor header
+ */
+class FeedQuery {
+    static final int MAX_LIMIT = 10000;
+
+    final List<WeatherRecord> stations = new ArrayList<>();
+    Set<String> fields; // null for every field; id is written regardless
+    String nextCursor;
+
+    // True when the parameters ask for less than the whole feed
+    static boolean isFiltered(Map<String, String> params) {
+        return params.containsKey("id") || params.containsKey("ids")
+                || params.containsKey("fields") || params.containsKey("limit");
+    }
+
+    static FeedQuery run(Map<String, StationEntry> data, ConcurrentSkipListSet<String> sortedIds,
+                         Map<String, String> params) {
+        FeedQuery result = new FeedQuery();
+        result.fields = params.containsKey("fields") ? split(params.get("fields")) : null;
+
+        if (params.containsKey("id") || params.containsKey("ids")) {
+            Set<String> ids = new LinkedHashSet<>();
+            if (params.containsKey("id")) {
+                ids.add(params.get("id"));
+            }
+            if (params.containsKey("ids")) {
+                ids.addAll(split(params.get("ids")));
+            }
+            for (String id : ids) {
+                StationEntry entry = data.get(id);
+                if (entry != null) {
+                    result.stations.add(entry.data);
+                }
+            }
+            return result;
+        }
+
+        int limit = limit(params);
+        String cursor = params.get("cursor");
+        NavigableSet<String> range = cursor == null || cursor.isEmpty() ? sortedIds : sortedIds.tailSet(cursor, false);
+
+        String last = null;
+        int count = 0;
+        for (String id : range) {
+            if (limit > 0 && count == limit) {
+                result.nextCursor = last;
+                break;
+            }
+            StationEntry entry = data.get(id);
+            if (entry == null) {
+                continue; // removed since the index was read
+            }
+            result.stations.add(entry.data);
+            last = id;
+            count++;
+        }
+        return result;
+    }
+
+    // Page size asked for, capped at MAX_LIMIT; -1 without a limit. Any cursor is valid: it is only compared to ids
+    static int limit(Map<String, String> params) {
+        String value = params.get("limit");
+        if (value == null) {
+            return -1;
+        }
+        long limit;
+        try {
+            limit = Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            limit = 0;
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be a positive number");
+        }
+        return (int) Math.min(limit, MAX_LIMIT);
+    }
+
+    static Set<String> split(String list) {
+        Set<String> values = new LinkedHashSet<>();
+        for (String value : list.split(",")) {
+            if (!value.trim().isEmpty()) {
+                values.add(value.trim());
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,74 @@
+package Weather.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Consistent-hash ring that maps station ids to cluster nodes.
+ *
+ * Each node is placed on the ring at virtualNodes points (hashes of "node#i"), and a
+ * station belongs to the first point at or after the hash of its id. Adding or removing
+ * a node only moves the stations next to its points; the many points per node keep the
+ * share of each node close to even. Placement depends only on the node names, so every
+ * node given the same list computes the same owners.
+ *
+ * The ring is immutable: two sorted arrays searched with a binary search, safe to read
+ * from any thread without locking.
+ */
+final class HashRing {
+    static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final List<String> nodes;
+    private final long[] points;
+    private final String[] owners;
+
+    HashRing(Collection<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("A ring needs at least one node");
+        }
+        this.nodes = List.copyOf(new TreeSet<>(nodes));
+
+        TreeMap<Long, String> ring = new TreeMap<>();
+        for (String node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                // On the rare collision the smaller name wins, the same on every node
+                ring.merge(hash(node + "#" + i), node, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+            }
+        }
+        points = new long[ring.size()];
+        owners = new String[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, String> point : ring.entrySet()) {
+            points[i] = point.getKey();
+            owners[i++] = point.getValue();
+        }
+    }
+
+    // Every node, sorted by name
+    List<String> nodes() {
+        return nodes;
+    }
+
+    String owner(String key) {
+        int i = Arrays.binarySearch(points, hash(key));
+        if (i < 0) {
+            i = -i - 1; // insertion point: the first point after the hash
+        }
+        return owners[i == points.length ? 0 : i];
+    }
+
+    // 64-bit FNV-1a over the UTF-8 bytes, then a final mix so similar ids spread over the ring
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
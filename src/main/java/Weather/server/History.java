@@ -0,0 +1,275 @@
+package Weather.server;
+
+import Weather.util.WeatherRecord;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Recent readings of each station, for GET /history.
+ *
+ * A station keeps its last `capacity` samples in a ring: the receive time and one double
+ * per tracked numeric field (NaN where the PUT had no plain number for it). Everything is
+ * allocated with the first sample, so a station costs the same from then on, about
+ * capacity * (8 + 48 * fields) bytes, and the history of a removed station is dropped.
+ *
+ * Each PUT also updates, per field, a min tree and a max tree over the ring slots and the
+ * running sum and count of the values before each sample. A query over any time range
+ * finds its first and last sample by binary search on the times and reads min and max
+ * from the trees and the mean from two running sums, in O(log capacity) whatever the
+ * range covers; raw samples are only read to list the last N.
+ *
+ * Query parameters on GET /history:
+ *   id=ID          the station (required)
+ *   fields=F1,F2   only these of the tracked fields
+ *   from=MS&to=MS  time range, epoch milliseconds; defaults to the history window up to now
+ *   last=N         also list the newest N samples of the range
+ */
+final class History {
+    static final String PATH = "/history";
+    static final int MAX_LAST = 1000;
+
+    private final String[] fields;
+    private final int capacity;
+    private final long windowMs;
+    private final Map<String, Series> stations = new ConcurrentHashMap<>();
+
+    History(ServerConfig config) {
+        for (String field : config.historyFields) {
+            if (!WeatherRecord.isNumericField(field)) {
+                throw new IllegalArgumentException("Not a numeric station field: " + field);
+            }
+        }
+        this.fields = config.historyFields.toArray(new String[0]);
+        this.capacity = config.historySamples;
+        this.windowMs = config.historyWindowMs;
+    }
+
+    boolean isEnabled() {
+        return capacity > 0 && fields.length > 0;
+    }
+
+    void record(String id, WeatherRecord data) {
+        if (!isEnabled()) {
+            return;
+        }
+        double[] values = new double[fields.length];
+        for (int f = 0; f < fields.length; f++) {
+            values[f] = data.getNumber(fields[f]);
+        }
+        stations.computeIfAbsent(id, k -> new Series()).add(System.currentTimeMillis(), values);
+    }
+
+    void remove(String id) {
+        stations.remove(id);
+    }
+
+    // JSON answer to a query, or null if the station has no history; bad parameters throw IllegalArgumentException
+    String query(Map<String, String> params) {
+        String id = params.get("id");
+        if (id == null || id.isEmpty()) {
+            throw new IllegalArgumentException("id is required");
+        }
+        List<Integer> wanted = new ArrayList<>();
+        if (params.containsKey("fields")) {
+            List<String> tracked = Arrays.asList(fields);
+            for (String field : FeedQuery.split(params.get("fields"))) {
+                int f = tracked.indexOf(field);
+                if (f < 0) {
+                    throw new IllegalArgumentException("no history kept for " + field);
+                }
+                wanted.add(f);
+            }
+        } else {
+            for (int f = 0; f < fields.length; f++) {
+                wanted.add(f);
+            }
+        }
+        long now = System.currentTimeMillis();
+        long from = Math.max(parseLong(params, "from", 0), now - windowMs);
+        long to = parseLong(params, "to", now);
+        int last = (int) Math.min(parseLong(params, "last", 0), MAX_LAST);
+        if (last < 0) {
+            throw new IllegalArgumentException("last must not be negative");
+        }
+
+        Series series = stations.get(id);
+        if (series == null) {
+            return null;
+        }
+        StringWriter out = new StringWriter(256);
+        try {
+            JsonWriter writer = new JsonWriter(out);
+            writer.beginObject();
+            writer.name("id").value(id);
+            writer.name("from").value(from);
+            writer.name("to").value(to);
+            series.write(writer, from, to, wanted, last);
+            writer.endObject();
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // not thrown by a StringWriter
+        }
+        return out.toString();
+    }
+
+    private static long parseLong(Map<String, String> params, String name, long otherwise) {
+        String value = params.get(name);
+        if (value == null) {
+            return otherwise;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number");
+        }
+    }
+
+    /** One station's samples and the aggregates over them; every method holds the series' lock. */
+    private final class Series {
+        private final long[] times;      // by slot, seq % capacity
+        private final double[][] min;    // per field: tree over the slots, leaves at capacity + slot, +Inf where empty
+        private final double[][] max;    // per field: the same with -Inf
+        private final double[][] sumBefore;  // per field and slot: sum of the field over all samples before it
+        private final long[][] countBefore;  // per field and slot: samples before it that had the field
+        private final double[] sum;      // per field: sum over every sample so far
+        private final long[] count;
+        private long next;               // seq of the next sample; the ring holds next - capacity .. next - 1
+
+        Series() {
+            int fieldCount = fields.length;
+            times = new long[capacity];
+            min = new double[fieldCount][2 * capacity];
+            max = new double[fieldCount][2 * capacity];
+            sumBefore = new double[fieldCount][capacity];
+            countBefore = new long[fieldCount][capacity];
+            sum = new double[fieldCount];
+            count = new long[fieldCount];
+            for (int f = 0; f < fieldCount; f++) {
+                Arrays.fill(min[f], Double.POSITIVE_INFINITY);
+                Arrays.fill(max[f], Double.NEGATIVE_INFINITY);
+            }
+        }
+
+        synchronized void add(long time, double[] values) {
+            int slot = (int) (next % capacity);
+            // Times stay ordered for the binary search even if the wall clock steps back
+            times[slot] = next == 0 ? time : Math.max(time, times[(int) ((next - 1) % capacity)]);
+            for (int f = 0; f < values.length; f++) {
+                double value = values[f];
+                boolean present = !Double.isNaN(value);
+                sumBefore[f][slot] = sum[f];
+                countBefore[f][slot] = count[f];
+                if (present) {
+                    sum[f] += value;
+                    count[f]++;
+                }
+                set(min[f], slot, present ? value : Double.POSITIVE_INFINITY, true);
+                set(max[f], slot, present ? value : Double.NEGATIVE_INFINITY, false);
+            }
+            next++;
+        }
+
+        synchronized void write(JsonWriter out, long from, long to, List<Integer> wanted, int last) throws IOException {
+            long oldest = Math.max(0, next - capacity);
+            long lo = firstAfter(oldest, from - 1);
+            long hi = firstAfter(lo, to); // samples lo .. hi - 1 are in the range
+            out.name("samples").value(Math.max(0, hi - lo));
+
+            out.name("fields").beginObject();
+            for (int f : wanted) {
+                out.name(fields[f]).beginObject();
+                long n = hi > lo ? countUpTo(f, hi) - countBefore[f][slot(lo)] : 0;
+                out.name("count").value(n);
+                if (n > 0) {
+                    out.name("min").value(range(min[f], lo, hi, true));
+                    out.name("max").value(range(max[f], lo, hi, false));
+                    out.name("mean").value((sumUpTo(f, hi) - sumBefore[f][slot(lo)]) / n);
+                }
+                out.endObject();
+            }
+            out.endObject();
+
+            if (last > 0) {
+                out.name("last").beginArray();
+                for (long seq = Math.max(lo, hi - last); seq < hi; seq++) {
+                    int slot = slot(seq);
+                    out.beginObject();
+                    out.name("time").value(times[slot]);
+                    for (int f : wanted) {
+                        double value = min[f][capacity + slot];
+                        if (value != Double.POSITIVE_INFINITY) {
+                            out.name(fields[f]).value(value);
+                        }
+                    }
+                    out.endObject();
+                }
+                out.endArray();
+            }
+        }
+
+        private int slot(long seq) {
+            return (int) (seq % capacity);
+        }
+
+        // First seq from lo on whose time is after the given one (next if none)
+        private long firstAfter(long lo, long time) {
+            long hi = next;
+            while (lo < hi) {
+                long mid = (lo + hi) >>> 1;
+                if (times[slot(mid)] <= time) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        private double sumUpTo(int f, long seq) {
+            return seq == next ? sum[f] : sumBefore[f][slot(seq)];
+        }
+
+        private long countUpTo(int f, long seq) {
+            return seq == next ? count[f] : countBefore[f][slot(seq)];
+        }
+
+        private void set(double[] tree, int slot, double value, boolean isMin) {
+            int i = capacity + slot;
+            tree[i] = value;
+            for (i >>= 1; i > 0; i >>= 1) {
+                tree[i] = isMin ? Math.min(tree[2 * i], tree[2 * i + 1]) : Math.max(tree[2 * i], tree[2 * i + 1]);
+            }
+        }
+
+        // Min or max over samples lo .. hi - 1, which may wrap around the end of the ring
+        private double range(double[] tree, long lo, long hi, boolean isMin) {
+            int start = slot(lo);
+            long length = hi - lo;
+            if (start + length <= capacity) {
+                return slots(tree, start, (int) (start + length), isMin);
+            }
+            double head = slots(tree, start, capacity, isMin);
+            double tail = slots(tree, 0, (int) (start + length - capacity), isMin);
+            return isMin ? Math.min(head, tail) : Math.max(head, tail);
+        }
+
+        // Over slots l .. r - 1
+        private double slots(double[] tree, int l, int r, boolean isMin) {
+            double result = isMin ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+            for (l += capacity, r += capacity; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1) {
+                    result = isMin ? Math.min(result, tree[l++]) : Math.max(result, tree[l++]);
+                }
+                if ((r & 1) == 1) {
+                    result = isMin ? Math.min(result, tree[--r]) : Math.max(result, tree[--r]);
+                }
+            }
+            return result;
+        }
+    }
+}
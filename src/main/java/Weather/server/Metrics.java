@@ -0,0 +1,156 @@
+package Weather.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Server counters and latency histograms, served on GET /metrics in Prometheus text format.
+ *
+ * Recording never locks: a counter is one LongAdder add and a timing is a LongAdder add on
+ * its bucket and on the running sum. Buckets are powers of two of nanoseconds from about
+ * 1 microsecond to 8.6 seconds, so finding one is a leading-zero count, not a search.
+ * Reading (a scrape) sums the adders and may see a recording half applied, which is fine
+ * for monitoring.
+ */
+final class Metrics {
+
+    private abstract static class Metric {
+        final String name;
+        final String help;
+
+        Metric(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        abstract String type();
+
+        abstract void writeSamples(StringBuilder out);
+    }
+
+    static final class Counter extends Metric {
+        private final LongAdder value = new LongAdder();
+
+        Counter(String name, String help) {
+            super(name, help);
+        }
+
+        void increment() {
+            value.increment();
+        }
+
+        void add(long n) {
+            value.add(n);
+        }
+
+        String type() {
+            return "counter";
+        }
+
+        void writeSamples(StringBuilder out) {
+            out.append(name).append(' ').append(value.sum()).append('\n');
+        }
+    }
+
+    /** Current value of something the server already tracks, or an up/down count. */
+    static final class Gauge extends Metric {
+        private final LongSupplier value;
+
+        Gauge(String name, String help, LongSupplier value) {
+            super(name, help);
+            this.value = value;
+        }
+
+        String type() {
+            return "gauge";
+        }
+
+        void writeSamples(StringBuilder out) {
+            out.append(name).append(' ').append(value.getAsLong()).append('\n');
+        }
+    }
+
+    /** Histogram of durations recorded in nanoseconds and exported in seconds. */
+    static final class Timer extends Metric {
+        private static final int FIRST_SHIFT = 10; // first bucket: up to 2^10 ns
+        private static final int BOUNDS = 24;      // last bucket: up to 2^33 ns, then +Inf
+
+        private final LongAdder[] buckets = new LongAdder[BOUNDS + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        Timer(String name, String help) {
+            super(name, help);
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        // Records the time since start, a System.nanoTime() reading
+        void recordSince(long start) {
+            record(System.nanoTime() - start);
+        }
+
+        void record(long nanos) {
+            int i = nanos <= 1L << FIRST_SHIFT ? 0 : 64 - Long.numberOfLeadingZeros(nanos - 1) - FIRST_SHIFT;
+            buckets[Math.min(i, BOUNDS)].increment();
+            sumNanos.add(Math.max(0, nanos));
+        }
+
+        String type() {
+            return "histogram";
+        }
+
+        void writeSamples(StringBuilder out) {
+            long cumulative = 0;
+            for (int i = 0; i < BOUNDS; i++) {
+                cumulative += buckets[i].sum();
+                out.append(name).append("_bucket{le=\"").append((1L << (FIRST_SHIFT + i)) / 1e9).append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            cumulative += buckets[BOUNDS].sum();
+            out.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+            out.append(name).append("_sum ").append(sumNanos.sum() / 1e9).append('\n');
+            out.append(name).append("_count ").append(cumulative).append('\n');
+        }
+    }
+
+    private final List<Metric> all = new ArrayList<>();
+
+    final Counter requests = add(new Counter("weather_requests_total", "Requests dispatched"));
+    final Counter parseErrors = add(new Counter("weather_parse_errors_total", "Requests rejected as malformed or oversized"));
+    final Timer parse = add(new Timer("weather_request_parse_seconds", "Time spent parsing a request, excluding socket reads"));
+    final Timer feedSerialize = add(new Timer("weather_feed_serialize_seconds", "Time spent encoding the full GET feed"));
+    final Timer putApply = add(new Timer("weather_put_apply_seconds", "Time spent applying one station of a PUT, excluding persistence"));
+    final Timer flush = add(new Timer("weather_persist_flush_seconds", "Time spent writing changes to the store"));
+    final Counter flushBytes = add(new Counter("weather_persist_bytes_total", "Bytes written to the store"));
+    final Timer expirySweep = add(new Timer("weather_expiry_sweep_seconds", "Time spent removing expired stations in one sweep"));
+    final Counter clusterForwards = add(new Counter("weather_cluster_forwards_total", "Requests sent to other cluster nodes"));
+    final Counter clusterErrors = add(new Counter("weather_cluster_errors_total", "Requests to other cluster nodes that failed"));
+    final Timer clusterFanOut = add(new Timer("weather_cluster_fanout_seconds", "Time spent answering a GET from every cluster node"));
+    final Counter eventResets = add(new Counter("weather_event_resets_total", "Event subscribers told to re-read the feed after falling behind"));
+    final LongAdder activeConnections = new LongAdder();
+    final LongAdder eventSubscribers = new LongAdder();
+
+    Metrics(LongSupplier stations) {
+        add(new Gauge("weather_active_connections", "Open client connections", activeConnections::sum));
+        add(new Gauge("weather_stations", "Stations currently held", stations));
+        add(new Gauge("weather_event_subscribers", "Open GET /events streams", eventSubscribers::sum));
+    }
+
+    private <M extends Metric> M add(M metric) {
+        all.add(metric);
+        return metric;
+    }
+
+    String scrape() {
+        StringBuilder out = new StringBuilder(8 * 1024);
+        for (Metric metric : all) {
+            out.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+            out.append("# TYPE ").append(metric.name).append(' ').append(metric.type()).append('\n');
+            metric.writeSamples(out);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,411 @@
+package Weather.server;
+
+import Weather.util.*;
+import org.slf4j.Logger;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking front end for the AggregationServer.
+ *
+ * One acceptor thread hands accepted channels round-robin to a small fixed set of
+ * selector event loops. The loops only move bytes; a complete request is handed to a
+ * bounded worker pool for dispatch so that a slow PUT (disk I/O) never stalls the
+ * other connections sharing its loop. The response is handed back to the owning loop
+ * to be written.
+ *
+ * Connections are persistent: pipelined requests are answered one at a time in arrival
+ * order, and each loop closes connections that stay idle past the configured timeout.
+ *
+ * A response whose body is already in memory goes to the loop in one buffer, so a slow
+ * reader never holds a worker. A streamed body is written into a ResponseStream on a
+ * thread of its own, which passes it to the loop in fixed-size buffers and blocks once
+ * MAX_QUEUED_BUFFERS are waiting for the socket. It therefore never sits in memory as a
+ * whole, however large it is or however slowly the client reads.
+ */
+class NioTransport {
+    private static final Logger logger = AsyncLogger.getLogger(NioTransport.class);
+    private static final int BUFFER_BYTES = 16 * 1024;
+    private static final int MAX_QUEUED_BUFFERS = 4;
+
+    private final ServerConfig config;
+    private final AggregationServer server;
+    private final EventLoop[] loops;
+    private final ExecutorService workers;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    NioTransport(ServerConfig config, AggregationServer server) {
+        this.config = config;
+        this.server = server;
+        this.loops = new EventLoop[config.ioThreads];
+        this.workers = Executors.newFixedThreadPool(config.workerThreads, daemonFactory("nio-worker"));
+    }
+
+    // Runs the acceptor on the calling thread; never returns normally
+    void run() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop();
+            Thread t = new Thread(loops[i], "nio-io-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(config.port), 1024);
+            logger.info("AggregationServer (nio, {} I/O threads) running on port {}", loops.length, config.port);
+
+            while (true) {
+                try {
+                    SocketChannel channel = server.accept();
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)].register(channel);
+                } catch (IOException e) {
+                    logger.error("Error accepting client connection: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static ThreadFactory daemonFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private long lastSweep = System.currentTimeMillis();
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(this, channel, key));
+                } catch (IOException e) {
+                    closeQuietly(channel);
+                }
+            });
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    selector.select(1000);
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection conn = (Connection) key.attachment();
+                        if (!key.isValid() || conn == null) {
+                            continue;
+                        }
+                        try {
+                            if (key.isReadable()) {
+                                conn.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                conn.onWritable();
+                            }
+                        } catch (IOException | CancelledKeyException e) {
+                            conn.close();
+                        }
+                    }
+
+                    sweepIdle();
+                } catch (IOException e) {
+                    logger.error("Error in NIO event loop: {}", e.getMessage());
+                }
+            }
+        }
+
+        private void sweepIdle() {
+            long now = System.currentTimeMillis();
+            if (now - lastSweep < 1000) {
+                return;
+            }
+            lastSweep = now;
+            for (SelectionKey key : selector.keys()) {
+                Connection conn = (Connection) key.attachment();
+                if (conn != null && !conn.busy && conn.outQueue.isEmpty() && now - conn.lastActive > config.idleTimeoutMs) {
+                    conn.close();
+                }
+            }
+        }
+    }
+
+    private final class Connection {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+
+        private ByteBuffer in = ByteBuffer.allocate(8 * 1024);
+        private final HttpRequestParser parser = new HttpRequestParser();
+        private final Deque<ByteBuffer> outQueue = new ArrayDeque<>();
+        private final Semaphore outPermits = new Semaphore(MAX_QUEUED_BUFFERS);
+        private boolean responseDone; // the last buffer of the current response is queued
+        private boolean streaming; // the current response comes from a ResponseStream, its buffers hold permits
+        private boolean busy;   // a request is with a worker, wait for its response
+        private boolean keepAlive = true;
+        private volatile boolean closed;
+        private int served;
+        private long lastActive = System.currentTimeMillis();
+
+        Connection(EventLoop loop, SocketChannel channel, SelectionKey key) {
+            this.loop = loop;
+            this.channel = channel;
+            this.key = key;
+            server.metrics.activeConnections.increment();
+        }
+
+        void onReadable() throws IOException {
+            if (!in.hasRemaining()) {
+                try {
+                    grow();
+                } catch (HttpRequestParser.HttpParseException e) {
+                    reject(e);
+                    return;
+                }
+            }
+            int n = channel.read(in);
+            if (n < 0) {
+                close();
+                return;
+            }
+            lastActive = System.currentTimeMillis();
+            if (!busy) {
+                tryDispatch();
+            }
+        }
+
+        void onWritable() throws IOException {
+            ByteBuffer head;
+            while ((head = outQueue.peek()) != null) {
+                channel.write(head);
+                if (head.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                outQueue.poll();
+                if (streaming) {
+                    outPermits.release();
+                }
+            }
+            if (!responseDone) {
+                key.interestOps(0); // the worker is still producing the response
+                return;
+            }
+
+            responseDone = false;
+            streaming = false;
+            lastActive = System.currentTimeMillis();
+            if (!keepAlive) {
+                close();
+                return;
+            }
+
+            // Ready for the next request, which may already be buffered (pipelining)
+            busy = false;
+            key.interestOps(SelectionKey.OP_READ);
+            tryDispatch();
+        }
+
+        // Answers a request that cannot be parsed the way the blocking transports do, then closes
+        private void reject(HttpRequestParser.HttpParseException e) {
+            logger.warn("Failed to parse HTTP request: {}", e.getMessage());
+            server.metrics.parseErrors.increment();
+            busy = true;
+            keepAlive = false;
+            enqueue(ByteBuffer.wrap(server.rejected(e).toBytes()), true);
+        }
+
+        // The parser consumes bodies as they arrive, so the buffer only ever has to hold one header line
+        private void grow() throws HttpRequestParser.HttpParseException {
+            if (in.capacity() > HttpRequestParser.DEFAULT_MAX_HEADER_BYTES) {
+                throw new HttpRequestParser.HttpParseException(431, "Request header too large");
+            }
+            ByteBuffer bigger = ByteBuffer.allocate(in.capacity() * 2);
+            in.flip();
+            bigger.put(in);
+            in = bigger;
+        }
+
+        private void tryDispatch() throws IOException {
+            HttpRequest request;
+            in.flip();
+            try {
+                request = parser.parse(in);
+            } catch (HttpRequestParser.HttpParseException e) {
+                reject(e);
+                return;
+            } finally {
+                in.compact();
+            }
+            if (request == null) {
+                return;
+            }
+            server.metrics.parse.record(parser.takeParseNanos());
+
+            busy = true;
+            served++;
+            key.interestOps(0);
+            workers.execute(() -> {
+                HttpResponse response;
+                try {
+                    response = server.dispatch(request);
+                    keepAlive = server.applyConnectionHeaders(request, response, served);
+                } catch (Exception e) {
+                    logger.error("Error in NIO worker: {}", e.getMessage());
+                    loop.execute(this::close);
+                    return;
+                }
+                if (response.bodyWriter == null) {
+                    // Already in memory: the loop takes it in one step and the worker moves on
+                    ByteBuffer all = ByteBuffer.wrap(response.toBytes());
+                    loop.execute(() -> enqueue(all, true));
+                } else {
+                    // Writes as fast as the client reads (an event stream for as long as it listens),
+                    // so it must not hold one of the workers
+                    String name = EventHub.isEventStream(response) ? "nio-events" : "nio-stream";
+                    Thread.ofVirtual().name(name).start(() -> stream(response));
+                }
+            });
+        }
+
+        private void stream(HttpResponse response) {
+            try {
+                ResponseStream stream = new ResponseStream();
+                response.writeTo(stream);
+                stream.close();
+            } catch (Exception e) {
+                if (!closed) {
+                    logger.error("Error in NIO worker: {}", e.getMessage());
+                }
+                loop.execute(this::close);
+            }
+        }
+
+        // Loop thread: queues a buffer of the current response (if any) and writes what it can
+        private void enqueue(ByteBuffer buf, boolean last) {
+            if (closed) {
+                return;
+            }
+            if (buf != null) {
+                outQueue.add(buf);
+            }
+            if (last) {
+                responseDone = true;
+            }
+            try {
+                onWritable();
+            } catch (IOException | CancelledKeyException e) {
+                close();
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            server.metrics.activeConnections.decrement();
+            key.cancel();
+            closeQuietly(channel);
+            outQueue.clear();
+            outPermits.release(MAX_QUEUED_BUFFERS); // unblock a worker still writing
+        }
+
+        /** Writer side of a streamed response: hands full buffers to the loop, waiting while too many are queued. */
+        private final class ResponseStream extends OutputStream {
+            private ByteBuffer buf = ByteBuffer.allocate(BUFFER_BYTES);
+
+            @Override
+            public void write(int b) throws IOException {
+                if (!buf.hasRemaining()) {
+                    push(false);
+                }
+                buf.put((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    if (!buf.hasRemaining()) {
+                        push(false);
+                    }
+                    int n = Math.min(len, buf.remaining());
+                    buf.put(b, off, n);
+                    off += n;
+                    len -= n;
+                }
+            }
+
+            // Hands over what is buffered now instead of when the buffer fills (e.g. an event)
+            @Override
+            public void flush() throws IOException {
+                if (buf != null && buf.position() > 0) {
+                    push(false);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (buf != null) {
+                    push(true);
+                }
+            }
+
+            private void push(boolean last) throws IOException {
+                ByteBuffer full = buf.position() > 0 ? buf.flip() : null;
+                if (full != null) {
+                    try {
+                        outPermits.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+                if (closed) {
+                    throw new IOException("Connection closed");
+                }
+                loop.execute(() -> {
+                    streaming = true;
+                    enqueue(full, last);
+                });
+                buf = last ? null : ByteBuffer.allocate(BUFFER_BYTES);
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable c) {
+        try {
+            c.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
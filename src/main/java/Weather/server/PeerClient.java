@@ -0,0 +1,131 @@
+package Weather.server;
+
+import Weather.util.HttpParser;
+import Weather.util.HttpRequest;
+import Weather.util.HttpResponse;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * HTTP client for one other node of the cluster, with a pool of keep-alive connections.
+ *
+ * A request borrows an idle connection (or opens one), and the connection goes back to
+ * the pool once the response has been read, unless the node said it would close it. A
+ * pooled connection may have been closed by the node's idle timeout in the meantime, so a
+ * request that fails on one is retried once on a fresh connection. Requests sent here
+ * are safe to repeat: a PUT carries its write stamp, and applying it twice stores the
+ * same entry.
+ */
+final class PeerClient {
+    private static final int MAX_IDLE = 32;
+
+    private static final class Connection {
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    final String address;
+    private final String host;
+    private final int port;
+    private final int timeoutMs;
+    private final Queue<Connection> idle = new ConcurrentLinkedQueue<>();
+
+    PeerClient(String address, int timeoutMs) {
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Cluster node must be host:port: " + address);
+        }
+        this.address = address;
+        this.host = address.substring(0, colon);
+        this.port = Integer.parseInt(address.substring(colon + 1));
+        this.timeoutMs = timeoutMs;
+    }
+
+    HttpResponse send(HttpRequest request) throws IOException {
+        byte[] message = encode(request);
+        Connection pooled = idle.poll();
+        if (pooled != null) {
+            try {
+                return exchange(pooled, message);
+            } catch (IOException e) {
+                // most likely closed by the node while idle; fall through to a fresh connection
+            }
+        }
+        return exchange(open(), message);
+    }
+
+    private HttpResponse exchange(Connection connection, byte[] message) throws IOException {
+        HttpResponse response;
+        try {
+            connection.out.write(message);
+            connection.out.flush();
+            response = HttpParser.parseResponse(connection.in);
+            if (response == null) {
+                throw new EOFException("Connection closed by " + address);
+            }
+        } catch (IOException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+
+        if ("close".equalsIgnoreCase(response.headers.get("Connection")) || idle.size() >= MAX_IDLE) {
+            connection.close();
+        } else {
+            idle.offer(connection);
+        }
+        return response;
+    }
+
+    private Connection open() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeoutMs);
+            socket.setSoTimeout(timeoutMs);
+            socket.setTcpNoDelay(true);
+            return new Connection(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private byte[] encode(HttpRequest request) {
+        byte[] body = request.body == null ? new byte[0] : request.body.getBytes(StandardCharsets.UTF_8);
+        StringBuilder head = new StringBuilder(256);
+        head.append(request.method).append(' ').append(request.path).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(address).append("\r\n");
+        for (Map.Entry<String, String> header : request.headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (body.length > 0) {
+            head.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        head.append("\r\n");
+
+        byte[] headBytes = head.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] message = new byte[headBytes.length + body.length];
+        System.arraycopy(headBytes, 0, message, 0, headBytes.length);
+        System.arraycopy(body, 0, message, headBytes.length, body.length);
+        return message;
+    }
+}
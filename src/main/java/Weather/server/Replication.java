@@ -0,0 +1,297 @@
+package Weather.server;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import Weather.util.*;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Primary/replica roles of a replication group.
+ *
+ * The group is a list of servers in priority order. One of them is the primary and takes
+ * every write; the others are replicas that copy it and serve reads themselves. A replica
+ * long-polls the primary's change log (GET /replication/log): every station changed
+ * since the last poll, in the order the primary applied the changes, each with its write
+ * stamp and remaining TTL. Entries are applied as they are, so a replica holds exactly
+ * the primary's data, and the replica's Lamport clock is advanced past every stamp and
+ * past the primary's clock, so writes it takes after a promotion order after all of them.
+ *
+ * A PUT sent to a replica is passed on to the primary. A GET with a Max-Staleness header
+ * (milliseconds) is served locally only if the replica's copy is at most that old, and is
+ * otherwise passed on too. The age counts from the moment the last poll's answer was
+ * taken on the primary, so an idle but healthy replica stays close to zero.
+ *
+ * Promotion: a server with no primary asks every other member for its role. It follows a
+ * primary if it finds one. Otherwise, if no member before it in the list answers, it
+ * waits promoteAfterMs and, if that is still so, becomes the primary itself; members
+ * later in the list find it on their next round. A replica that loses its primary for
+ * promoteAfterMs starts this election again. There is no fencing: a primary cut off from
+ * the others keeps taking writes until it is restarted, when it finds the new primary
+ * and resynchronizes from it.
+ */
+final class Replication {
+    static final String MAX_STALENESS_HEADER = "Max-Staleness";
+
+    private static final Logger logger = AsyncLogger.getLogger(Replication.class);
+    private static final long POLL_WAIT_MS = 1000;
+    private static final long RETRY_MS = 100;
+
+    // Request headers that describe the client's connection, not the request, and are not passed on
+    private static final Set<String> LOCAL_HEADERS = Set.of("host", "connection", "keep-alive", "content-length",
+            "accept-encoding", "max-staleness");
+
+    interface Target {
+        // Applies one answer of the primary's change log
+        void applyLog(JsonObject log) throws IOException;
+    }
+
+    // Identifies this run of the server; versions from another run mean nothing here
+    final String epoch = UUID.randomUUID().toString();
+
+    private final String self;
+    private final List<String> group;
+    private final Map<String, PeerClient> peers = new HashMap<>();
+    private final long promoteAfterNanos;
+    private final LamportClock clock;
+    private final Target target;
+
+    private volatile boolean primary;
+    private volatile String following;  // primary this replica copies, null while electing
+    private volatile long syncedAt;     // System.nanoTime() the copy was last known current, 0 = never
+
+    // Touched by the replication thread only
+    private String version;             // primary's version applied here, null when a full copy is needed
+    private String primaryEpoch;        // epoch of the primary that version belongs to
+    private long lastContact;
+    private long electingSince;
+
+    Replication(ServerConfig config, LamportClock clock, Target target) {
+        this.self = config.node != null ? config.node : "localhost:" + config.port;
+        this.group = List.copyOf(config.group);
+        for (String node : group) {
+            if (!node.equals(self)) {
+                peers.put(node, new PeerClient(node, (int) POLL_WAIT_MS + config.clusterTimeoutMs));
+            }
+        }
+        this.promoteAfterNanos = TimeUnit.MILLISECONDS.toNanos(config.promoteAfterMs);
+        this.clock = clock;
+        this.target = target;
+    }
+
+    void start() {
+        Thread thread = new Thread(this::run, "replication");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    boolean isPrimary() {
+        return primary;
+    }
+
+    // Milliseconds since the copy was last known to match the primary; 0 on the primary
+    long stalenessMs() {
+        if (primary) {
+            return 0;
+        }
+        long synced = syncedAt;
+        return synced == 0 ? Long.MAX_VALUE : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - synced);
+    }
+
+    String status(long version) {
+        JsonObject status = new JsonObject();
+        status.addProperty("node", self);
+        status.addProperty("role", primary ? "primary" : "replica");
+        status.addProperty("primary", primary ? self : following);
+        status.addProperty("version", version);
+        if (!primary && syncedAt != 0) {
+            status.addProperty("stalenessMs", stalenessMs());
+        }
+        return status.toString();
+    }
+
+    // Answer from the primary for a request a replica does not serve itself, or null to serve it here
+    HttpResponse route(HttpRequest request) {
+        String route = request.getRoute();
+        if (primary || route.startsWith("/replication/") || route.equals("/metrics") || route.equals(EventHub.PATH)) {
+            return null;
+        }
+        if ("PUT".equals(request.method)) {
+            return forward(request);
+        }
+        String bound = request.getHeader(MAX_STALENESS_HEADER);
+        if ("GET".equals(request.method) && bound != null) {
+            long maxMs;
+            try {
+                maxMs = Long.parseLong(bound.trim());
+            } catch (NumberFormatException e) {
+                return null; // ignored like any malformed optional header
+            }
+            long synced = syncedAt;
+            if (synced == 0 || System.nanoTime() - synced > TimeUnit.MILLISECONDS.toNanos(maxMs)) {
+                return forward(request);
+            }
+        }
+        return null;
+    }
+
+    private HttpResponse forward(HttpRequest request) {
+        String to = following;
+        if (to == null) {
+            return noPrimary();
+        }
+        HttpRequest copy = new HttpRequest();
+        copy.method = request.method;
+        copy.path = request.path;
+        copy.version = "HTTP/1.1";
+        copy.body = request.body;
+        request.headers.forEach((name, value) -> {
+            if (!LOCAL_HEADERS.contains(name.toLowerCase())) {
+                copy.headers.put(name, value);
+            }
+        });
+        copy.headers.put(ClusterRouter.CLOCK_HEADER, String.valueOf(clock.getTime()));
+
+        HttpResponse answer;
+        try {
+            answer = peers.get(to).send(copy);
+        } catch (IOException e) {
+            logger.warn("Could not pass request on to primary {}: {}", to, e.getMessage());
+            return noPrimary();
+        }
+        String time = answer.headers.get("Lamport-Clock");
+        if (time != null) {
+            clock.update(Long.parseLong(time.trim()));
+        }
+
+        HttpResponse response = new HttpResponse();
+        response.statusCode = answer.statusCode;
+        response.statusMessage = answer.statusMessage;
+        answer.headers.forEach((name, value) -> {
+            String key = name.toLowerCase();
+            if (!key.equals("connection") && !key.equals("keep-alive") && !key.equals("transfer-encoding")
+                    && !key.equals("content-encoding") && !key.equals("content-length")) {
+                response.headers.put(name, value);
+            }
+        });
+        if (answer.statusCode != 304) {
+            response.bodyBytes = answer.body == null ? new byte[0] : answer.body.getBytes(StandardCharsets.UTF_8);
+            response.headers.put("Content-Length", String.valueOf(response.bodyBytes.length));
+        }
+        response.headers.put("Lamport-Clock", String.valueOf(clock.getTime()));
+        return response;
+    }
+
+    private static HttpResponse noPrimary() {
+        HttpResponse response = new HttpResponse();
+        AggregationServer.error(response, 503, "Service Unavailable", "no primary available");
+        response.headers.put("Retry-After", "1");
+        return response;
+    }
+
+    private void run() {
+        try {
+            while (!primary) {
+                if (following == null) {
+                    elect();
+                    if (following == null && !primary) {
+                        Thread.sleep(RETRY_MS * 2);
+                    }
+                } else {
+                    poll();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void elect() {
+        int me = group.indexOf(self);
+        boolean earlierAnswered = false;
+        for (int i = 0; i < group.size(); i++) {
+            String node = group.get(i);
+            if (node.equals(self)) {
+                continue;
+            }
+            JsonObject status = probe(node);
+            if (status == null) {
+                continue;
+            }
+            if ("primary".equals(status.get("role").getAsString())) {
+                logger.info("Replicating from primary {}", node);
+                following = node;
+                version = null; // versions are per server; start with a full copy
+                lastContact = System.nanoTime();
+                electingSince = 0;
+                return;
+            }
+            earlierAnswered |= i < me;
+        }
+
+        if (earlierAnswered) {
+            electingSince = 0; // a member before this one takes over
+            return;
+        }
+        long now = System.nanoTime();
+        if (electingSince == 0) {
+            electingSince = now;
+        } else if (now - electingSince >= promoteAfterNanos) {
+            logger.warn("No primary in the replication group; {} is now the primary", self);
+            primary = true;
+        }
+    }
+
+    private JsonObject probe(String node) {
+        try {
+            HttpResponse response = peers.get(node).send(request("/replication/status"));
+            return response.statusCode == 200 ? JsonParser.parseString(response.body).getAsJsonObject() : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private void poll() throws InterruptedException {
+        long start = System.nanoTime();
+        String path = "/replication/log?wait=" + POLL_WAIT_MS + (version == null ? "" : "&since=" + version);
+        try {
+            HttpResponse response = peers.get(following).send(request(path));
+            if (response.statusCode != 200 || response.body == null) {
+                throw new IOException("answered " + response.statusCode); // e.g. no longer the primary
+            }
+            JsonObject log = JsonParser.parseString(response.body).getAsJsonObject();
+            String epoch = log.get("epoch").getAsString();
+            if (version != null && !epoch.equals(primaryEpoch)) {
+                version = null; // the primary restarted, so the delta was taken against the wrong version
+                return;
+            }
+            target.applyLog(log);
+            primaryEpoch = epoch;
+            version = log.get("version").getAsString();
+            lastContact = System.nanoTime();
+            // The answer reflects the primary at least this long after the poll was sent
+            syncedAt = start + TimeUnit.MILLISECONDS.toNanos(log.get("waitedMs").getAsLong());
+        } catch (IOException | RuntimeException e) {
+            if (System.nanoTime() - lastContact >= promoteAfterNanos) {
+                logger.warn("Lost primary {}: {}", following, e.getMessage());
+                following = null;
+                version = null;
+            } else {
+                Thread.sleep(RETRY_MS);
+            }
+        }
+    }
+
+    private HttpRequest request(String path) {
+        HttpRequest request = new HttpRequest();
+        request.method = "GET";
+        request.path = path;
+        request.version = "HTTP/1.1";
+        request.headers.put(ClusterRouter.CLOCK_HEADER, String.valueOf(clock.getTime()));
+        return request;
+    }
+}
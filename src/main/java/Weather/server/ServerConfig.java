@@ -0,0 +1,227 @@
+package Weather.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Startup options for the AggregationServer.
+ *
+ * Parsed from the command line as: {@code <port> [--key=value ...]}
+ */
+public class ServerConfig {
+    public static final int DEFAULT_PORT = 4567;
+
+    public enum Transport {
+        THREAD,  // one platform thread per accepted socket
+        VIRTUAL, // one virtual thread per accepted socket
+        NIO      // selector event loops with a small fixed pool of I/O threads
+    }
+
+    public enum Store {
+        JSON, // weather.json, rewritten in full
+        LOG   // append-only segments plus periodic snapshots (LogStructuredStore)
+    }
+
+    public enum SnapshotFormat {
+        JSON,  // pretty-printed JSON array
+        BINARY // BinarySnapshot, memory-mapped on startup
+    }
+
+    public enum PersistMode {
+        IMMEDIATE,   // rewrite the store inside every PUT
+        WRITE_BEHIND // coalesce changes and flush them on a background thread
+    }
+
+    public enum Durability {
+        ASYNC, // acknowledge a PUT before its flush
+        SYNC   // acknowledge a PUT only after the flush that covers it (group commit)
+    }
+
+    public int port = DEFAULT_PORT;
+    public Transport transport = Transport.THREAD;
+
+    // Requests allowed in flight at once across all connections; extra requests get a 503 (0 = unlimited)
+    public int maxInFlight = 0;
+
+    // Response encoding: gzip for clients that accept it, and JSON without indentation
+    public boolean gzip = true;
+    public boolean compactJson = false;
+
+    // Stations are removed this long after their last PUT unless the PUT sends its own Station-TTL
+    public long ttlMs = 30000;
+
+    // Removed stations are reported to delta clients for this long; clients further behind resync in full
+    public long tombstoneRetentionMs = 10 * 60 * 1000;
+
+    // Persistent connections: idle ones are closed after idleTimeoutMs, all after maxRequestsPerConnection
+    public boolean keepAlive = true;
+    public int idleTimeoutMs = 30000;
+    public int maxRequestsPerConnection = 1000;
+
+    // Persistence
+    public Store store = Store.JSON;
+    public String logDir = "weather-log";
+    public long segmentBytes = 8L * 1024 * 1024;
+    public boolean fsync = false;
+    public SnapshotFormat snapshotFormat = SnapshotFormat.JSON;
+    public PersistMode persistMode = PersistMode.IMMEDIATE;
+    public Durability durability = Durability.ASYNC;
+    public long flushWindowMs = 200;
+    public int flushBatch = 1000;
+
+    // Sharding: every node of the cluster as host:port, the same list on each node (empty = no cluster)
+    public List<String> cluster = new ArrayList<>();
+    // This node's entry in cluster (and in group), localhost:<port> by default; a node not in cluster only routes
+    public String node;
+    public int virtualNodes = HashRing.DEFAULT_VIRTUAL_NODES;
+    public int clusterTimeoutMs = 2000;
+
+    // Replication: the group's servers as host:port in priority order (empty = no replication);
+    // a replica promotes itself after the primary has been gone for promoteAfterMs
+    public List<String> group = new ArrayList<>();
+    public long promoteAfterMs = 3000;
+
+    // Recent events kept for GET /events; a subscriber further behind is told to re-read the feed
+    public int eventBuffer = 4096;
+
+    // History per station for GET /history: the last historySamples readings of these numeric
+    // fields, queried over at most historyWindowMs. Off (0) by default: each station would cost
+    // about historySamples * (8 + 48 * fields) bytes, far more than the station itself
+    public List<String> historyFields = new ArrayList<>(List.of("air_temp", "apparent_t", "rel_hum", "press", "wind_spd_kmh"));
+    public int historySamples = 0;
+    public long historyWindowMs = 60 * 60 * 1000;
+
+    // NIO transport sizing
+    public int ioThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    public int workerThreads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    public ServerConfig() {
+    }
+
+    public ServerConfig(int port) {
+        this.port = port;
+    }
+
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig config = new ServerConfig();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                config.port = Integer.parseInt(arg);
+                continue;
+            }
+
+            String[] kv = arg.substring(2).split("=", 2);
+            String key = kv[0];
+            String value = kv.length > 1 ? kv[1] : "true";
+
+            switch (key) {
+                case "port":
+                    config.port = Integer.parseInt(value);
+                    break;
+                case "transport":
+                    config.transport = Transport.valueOf(value.toUpperCase());
+                    break;
+                case "max-in-flight":
+                    config.maxInFlight = Integer.parseInt(value);
+                    break;
+                case "gzip":
+                    config.gzip = Boolean.parseBoolean(value);
+                    break;
+                case "compact-json":
+                    config.compactJson = Boolean.parseBoolean(value);
+                    break;
+                case "ttl-ms":
+                    config.ttlMs = Long.parseLong(value);
+                    break;
+                case "tombstone-retention-ms":
+                    config.tombstoneRetentionMs = Long.parseLong(value);
+                    break;
+                case "keep-alive":
+                    config.keepAlive = Boolean.parseBoolean(value);
+                    break;
+                case "idle-timeout-ms":
+                    config.idleTimeoutMs = Integer.parseInt(value);
+                    break;
+                case "max-requests-per-connection":
+                    config.maxRequestsPerConnection = Integer.parseInt(value);
+                    break;
+                case "store":
+                    config.store = Store.valueOf(value.toUpperCase());
+                    break;
+                case "log-dir":
+                    config.logDir = value;
+                    break;
+                case "segment-bytes":
+                    config.segmentBytes = Long.parseLong(value);
+                    break;
+                case "fsync":
+                    config.fsync = Boolean.parseBoolean(value);
+                    break;
+                case "snapshot-format":
+                    config.snapshotFormat = SnapshotFormat.valueOf(value.toUpperCase());
+                    break;
+                case "persist-mode":
+                    config.persistMode = PersistMode.valueOf(value.toUpperCase().replace('-', '_'));
+                    break;
+                case "durability":
+                    config.durability = Durability.valueOf(value.toUpperCase());
+                    break;
+                case "flush-window-ms":
+                    config.flushWindowMs = Long.parseLong(value);
+                    break;
+                case "flush-batch":
+                    config.flushBatch = Integer.parseInt(value);
+                    break;
+                case "cluster":
+                    config.cluster = new ArrayList<>();
+                    for (String node : value.split(",")) {
+                        if (!node.isBlank()) {
+                            config.cluster.add(node.trim());
+                        }
+                    }
+                    break;
+                case "node":
+                    config.node = value;
+                    break;
+                case "virtual-nodes":
+                    config.virtualNodes = Integer.parseInt(value);
+                    break;
+                case "cluster-timeout-ms":
+                    config.clusterTimeoutMs = Integer.parseInt(value);
+                    break;
+                case "group":
+                    config.group = new ArrayList<>();
+                    for (String node : value.split(",")) {
+                        if (!node.isBlank()) {
+                            config.group.add(node.trim());
+                        }
+                    }
+                    break;
+                case "promote-after-ms":
+                    config.promoteAfterMs = Long.parseLong(value);
+                    break;
+                case "event-buffer":
+                    config.eventBuffer = Integer.parseInt(value);
+                    break;
+                case "history-fields":
+                    config.historyFields = new ArrayList<>(FeedQuery.split(value));
+                    break;
+                case "history-samples":
+                    config.historySamples = Integer.parseInt(value);
+                    break;
+                case "history-window-ms":
+                    config.historyWindowMs = Long.parseLong(value);
+                    break;
+                case "io-threads":
+                    config.ioThreads = Integer.parseInt(value);
+                    break;
+                case "worker-threads":
+                    config.workerThreads = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        return config;
+    }
+}
@@ -0,0 +1,32 @@
+package Weather.server;
+
+import Weather.util.WeatherRecord;
+
+/**
+ * A station's current data together with the write that produced it.
+ *
+ * Entries are immutable and replaced whole, so a compare-and-set on the station map swaps
+ * the data, its Lamport time and its deadline in one step. Writes are ordered by Lamport
+ * time and then by origin id; a write that orders before the stored one is stale.
+ */
+final class StationEntry {
+    final WeatherRecord data;
+    final long lamport;
+    final String origin;
+    final long expiresAt;
+
+    StationEntry(WeatherRecord data, long lamport, String origin, long expiresAt) {
+        this.data = data;
+        this.lamport = lamport;
+        this.origin = origin == null ? "" : origin;
+        this.expiresAt = expiresAt;
+    }
+
+    // True if a write stamped (lamport, origin) must not replace this entry
+    boolean supersedes(long lamport, String origin) {
+        if (this.lamport != lamport) {
+            return this.lamport > lamport;
+        }
+        return this.origin.compareTo(origin == null ? "" : origin) > 0;
+    }
+}
@@ -0,0 +1,69 @@
+package Weather.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Publication watermark over numbers that are handed out in order but finished in any order.
+ *
+ * A writer takes the next number, does its work and marks the number done. The watermark
+ * then moves over every done number with no gap before it, on whichever thread finds it
+ * done first: a writer that finishes early leaves its flag for the one it waits on to step
+ * over, instead of each writer having to be scheduled in turn to publish its own number.
+ * A reader that sees watermark W can rely on the work behind every number up to W.
+ *
+ * Flags live in a ring, so at most {@code capacity} numbers can be outstanding; a writer
+ * further ahead than that waits for its slot before it is handed a number.
+ */
+final class Watermark {
+    private final AtomicLong assigned = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLongArray done; // by slot, n & mask: the last number finished there
+    private final int mask;
+
+    Watermark(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.done = new AtomicLongArray(size);
+        this.mask = size - 1;
+    }
+
+    long get() {
+        return published.get();
+    }
+
+    long next() {
+        long n = assigned.incrementAndGet();
+        // The slot still holds number n - size until that one is published
+        for (int spins = 0; n - published.get() > done.length(); spins++) {
+            pause(spins);
+        }
+        return n;
+    }
+
+    // Marks n done and publishes what can be; true if this call moved the watermark
+    boolean finish(long n) {
+        done.set((int) (n & mask), n);
+        boolean moved = false;
+        long p;
+        while (done.get((int) (((p = published.get()) + 1) & mask)) == p + 1) {
+            moved |= published.compareAndSet(p, p + 1);
+        }
+        return moved;
+    }
+
+    // Waits until n is published, i.e. the work behind every number before it is done too
+    void await(long n) {
+        for (int spins = 0; published.get() < n; spins++) {
+            pause(spins);
+        }
+    }
+
+    // The gaps are a couple of map operations long, so spin briefly before yielding
+    private static void pause(int spins) {
+        if (spins < 100) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+    }
+}
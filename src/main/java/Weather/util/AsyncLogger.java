@@ -0,0 +1,217 @@
+package Weather.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+import org.slf4j.event.Level;
+import org.slf4j.helpers.AbstractLogger;
+import org.slf4j.spi.LoggingEventBuilder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SLF4J logger that never does console I/O on the calling thread.
+ *
+ * A call is checked against the level of the backing logger (slf4j-simple), then against a
+ * per-message limit: each message pattern of a logger may be logged at most ratePerSecond
+ * times a second, and what goes over is only counted. An accepted event is put in a bounded
+ * queue that one daemon thread drains into the backing logger; when the queue is full the
+ * event is dropped and counted instead of blocking the caller. Both counts are reported as
+ * log lines of their own once logging resumes, so a flood shows up as one summary line.
+ *
+ * Use parameterized messages ({@code "Failed: {}"}) so that messages of one kind share a
+ * pattern and are limited together.
+ *
+ * Tuning: -Dweather.log.capacity (queued events, default 8192) and -Dweather.log.rate
+ * (per pattern and second, default 20).
+ */
+public class AsyncLogger extends AbstractLogger {
+    private static final long serialVersionUID = 1L;
+    private static final int CAPACITY = Integer.getInteger("weather.log.capacity", 8192);
+    private static final int RATE = Integer.getInteger("weather.log.rate", 20);
+
+    private static final class Event {
+        final Logger target;
+        final Level level;
+        final String pattern;
+        final Object[] arguments;
+        final Throwable throwable;
+
+        Event(Logger target, Level level, String pattern, Object[] arguments, Throwable throwable) {
+            this.target = target;
+            this.level = level;
+            this.pattern = pattern;
+            this.arguments = arguments;
+            this.throwable = throwable;
+        }
+    }
+
+    private static final BlockingQueue<Event> queue = new ArrayBlockingQueue<>(CAPACITY);
+    private static final LongAdder dropped = new LongAdder();
+    private static final Logger self = LoggerFactory.getLogger(AsyncLogger.class);
+
+    static {
+        Thread writer = new Thread(AsyncLogger::drain, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(AsyncLogger::flush));
+    }
+
+    /** Fixed one-second window of accepted calls for one pattern. */
+    private static final class Limiter {
+        private final AtomicLong window = new AtomicLong();
+        private final AtomicLong accepted = new AtomicLong();
+        private final LongAdder suppressed = new LongAdder();
+
+        // True if the call may be logged; over the limit it is counted as suppressed instead
+        boolean tryAcquire(int limit) {
+            long now = System.nanoTime() / TimeUnit.SECONDS.toNanos(1);
+            long current = window.get();
+            if (current != now && window.compareAndSet(current, now)) {
+                accepted.set(0);
+            }
+            if (accepted.incrementAndGet() <= limit) {
+                return true;
+            }
+            suppressed.increment();
+            return false;
+        }
+    }
+
+    // AbstractLogger is Serializable, but a logger is never serialized here; transient keeps lint quiet
+    private final transient Logger delegate;
+    private final int ratePerSecond;
+    private final transient ConcurrentHashMap<String, Limiter> limiters = new ConcurrentHashMap<>();
+
+    public static AsyncLogger getLogger(Class<?> type) {
+        return new AsyncLogger(LoggerFactory.getLogger(type), RATE);
+    }
+
+    public AsyncLogger(Logger delegate, int ratePerSecond) {
+        this.delegate = delegate;
+        this.ratePerSecond = ratePerSecond;
+        this.name = delegate.getName();
+    }
+
+    @Override
+    protected void handleNormalizedLoggingCall(Level level, Marker marker, String pattern, Object[] arguments, Throwable throwable) {
+        String key = pattern == null ? "" : pattern;
+        Limiter limiter = limiters.computeIfAbsent(key, k -> new Limiter());
+        if (!limiter.tryAcquire(ratePerSecond)) {
+            return;
+        }
+        long skipped = limiter.suppressed.sumThenReset();
+        if (skipped > 0) {
+            offer(new Event(delegate, Level.WARN, "Suppressed {} more messages like \"{}\"", new Object[]{skipped, key}, null));
+        }
+        offer(new Event(delegate, level, pattern, arguments, throwable));
+    }
+
+    private static void offer(Event event) {
+        if (!queue.offer(event)) {
+            dropped.increment();
+        }
+    }
+
+    private static void drain() {
+        while (true) {
+            try {
+                write(queue.take());
+                writeDropped();
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                // a failing argument toString() must not stop the writer
+            }
+        }
+    }
+
+    // Writes whatever is queued on the calling thread; run at shutdown so the last events are not lost
+    public static void flush() {
+        Event event;
+        while ((event = queue.poll()) != null) {
+            write(event);
+        }
+        writeDropped();
+    }
+
+    private static void writeDropped() {
+        long lost = dropped.sumThenReset();
+        if (lost > 0) {
+            self.warn("Log queue full, dropped {} events", lost);
+        }
+    }
+
+    private static void write(Event event) {
+        LoggingEventBuilder builder = event.target.atLevel(event.level);
+        if (event.arguments != null) {
+            for (Object argument : event.arguments) {
+                builder = builder.addArgument(argument);
+            }
+        }
+        if (event.throwable != null) {
+            builder = builder.setCause(event.throwable);
+        }
+        builder.log(event.pattern);
+    }
+
+    @Override
+    protected String getFullyQualifiedCallerName() {
+        return AsyncLogger.class.getName();
+    }
+
+    @Override
+    public boolean isTraceEnabled() {
+        return delegate.isTraceEnabled();
+    }
+
+    @Override
+    public boolean isTraceEnabled(Marker marker) {
+        return delegate.isTraceEnabled(marker);
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return delegate.isDebugEnabled();
+    }
+
+    @Override
+    public boolean isDebugEnabled(Marker marker) {
+        return delegate.isDebugEnabled(marker);
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return delegate.isInfoEnabled();
+    }
+
+    @Override
+    public boolean isInfoEnabled(Marker marker) {
+        return delegate.isInfoEnabled(marker);
+    }
+
+    @Override
+    public boolean isWarnEnabled() {
+        return delegate.isWarnEnabled();
+    }
+
+    @Override
+    public boolean isWarnEnabled(Marker marker) {
+        return delegate.isWarnEnabled(marker);
+    }
+
+    @Override
+    public boolean isErrorEnabled() {
+        return delegate.isErrorEnabled();
+    }
+
+    @Override
+    public boolean isErrorEnabled(Marker marker) {
+        return delegate.isErrorEnabled(marker);
+    }
+}
@@ -0,0 +1,296 @@
+package Weather.util;
+
+import com.google.gson.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Compact binary snapshot of the station map, read through a MappedByteBuffer.
+ *
+ * Layout (fixed-width integers big-endian, lengths and counts as varints):
+ *   records   per station: field count, then per field key number, type tag and value
+ *   id heap   per station: length-prefixed UTF-8 id
+ *   keys      every distinct field name once, numbered in order
+ *   index     count fixed-width slots sorted by id: id offset, record offset, record length, Lamport time
+ *   footer    index offset, keys offset, count, max Lamport time, version, magic
+ *
+ * Opening a snapshot only maps the file and reads the footer and field names; no record
+ * is decoded until asked for. get(id) binary-searches the index in place, and decodeAll()
+ * decodes every record in parallel. Field values are stored with their JSON type so decoding never
+ * goes through the JSON parser, except for nested objects and arrays.
+ */
+public class BinarySnapshot {
+    private static final int MAGIC = 0x574E5350; // "WNSP"
+    private static final int VERSION = 1;
+    private static final int SLOT_BYTES = 8 + 8 + 4 + 8;
+    private static final int FOOTER_BYTES = 8 + 8 + 4 + 8 + 4 + 4;
+
+    private static final byte TYPE_STRING = 0;
+    private static final byte TYPE_NUMBER = 1;
+    private static final byte TYPE_TRUE = 2;
+    private static final byte TYPE_FALSE = 3;
+    private static final byte TYPE_NULL = 4;
+    private static final byte TYPE_JSON = 5;
+
+    private static final Gson GSON = new Gson();
+
+    private final MappedByteBuffer buffer;
+    private final long indexOffset;
+    private final int count;
+    private final long maxLamport;
+    private final String[] keys;
+
+    private BinarySnapshot(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        int footer = buffer.limit() - FOOTER_BYTES;
+        if (footer < 0 || buffer.getInt(footer + 32) != MAGIC) {
+            throw new IOException("Not a binary weather snapshot");
+        }
+        if (buffer.getInt(footer + 28) != VERSION) {
+            throw new IOException("Unsupported snapshot version " + buffer.getInt(footer + 28));
+        }
+        this.indexOffset = buffer.getLong(footer);
+        this.count = buffer.getInt(footer + 16);
+        this.maxLamport = buffer.getLong(footer + 20);
+
+        ByteBuffer in = at((int) buffer.getLong(footer + 8));
+        this.keys = new String[readVarint(in)];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = readString(in);
+        }
+    }
+
+    public static BinarySnapshot open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot larger than 2 GB: " + file);
+            }
+            // The mapping stays valid after the channel is closed
+            return new BinarySnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public long getMaxLamport() {
+        return maxLamport;
+    }
+
+    public String id(int i) {
+        return readString(at((int) buffer.getLong(slot(i))));
+    }
+
+    public long lamport(int i) {
+        return buffer.getLong(slot(i) + 20);
+    }
+
+    public JsonObject decode(int i) {
+        return decodeRecord(at((int) buffer.getLong(slot(i) + 8)));
+    }
+
+    // Binary search over the sorted index; decodes only the matching record
+    public JsonObject get(String id) {
+        int i = indexOf(id);
+        return i < 0 ? null : decode(i);
+    }
+
+    public int indexOf(String id) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = id(mid).compareTo(id);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public Map<String, JsonObject> decodeAll() {
+        Map<String, JsonObject> map = new ConcurrentHashMap<>(Math.max(16, count * 4 / 3));
+        IntStream.range(0, count).parallel().forEach(i -> map.put(id(i), decode(i)));
+        return map;
+    }
+
+    private int slot(int i) {
+        return (int) indexOffset + i * SLOT_BYTES;
+    }
+
+    // Independent cursor over the mapping, so decoding is safe from many threads
+    private ByteBuffer at(int pos) {
+        return buffer.duplicate().position(pos);
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[readVarint(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private JsonObject decodeRecord(ByteBuffer in) {
+        JsonObject obj = new JsonObject();
+        int fields = readVarint(in);
+        for (int f = 0; f < fields; f++) {
+            String key = keys[readVarint(in)];
+            byte type = in.get();
+            switch (type) {
+                case TYPE_STRING:
+                    obj.addProperty(key, readString(in));
+                    break;
+                case TYPE_NUMBER:
+                    obj.add(key, WeatherRecord.number(readString(in)));
+                    break;
+                case TYPE_TRUE:
+                case TYPE_FALSE:
+                    obj.addProperty(key, type == TYPE_TRUE);
+                    break;
+                case TYPE_NULL:
+                    obj.add(key, JsonNull.INSTANCE);
+                    break;
+                default:
+                    obj.add(key, GSON.fromJson(readString(in), JsonElement.class));
+            }
+        }
+        return obj;
+    }
+
+    /**
+     * Streams records to disk as they are added; the id heap, sorted index and footer
+     * are written on close.
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final long maxLamport;
+        private final List<String> ids = new ArrayList<>();
+        private final Map<String, Integer> keyNumbers = new LinkedHashMap<>();
+        private final List<long[]> slots = new ArrayList<>(); // record offset, record length, Lamport time
+        private long written;
+
+        public Writer(File file, long maxLamport) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+            this.maxLamport = maxLamport;
+        }
+
+        public void add(String id, long lamport, JsonObject data) throws IOException {
+            long start = written;
+            writeVarint(data.size());
+            for (Map.Entry<String, JsonElement> field : data.entrySet()) {
+                writeVarint(keyNumbers.computeIfAbsent(field.getKey(), k -> keyNumbers.size()));
+                JsonElement value = field.getValue();
+                if (value.isJsonNull()) {
+                    writeByte(TYPE_NULL);
+                } else if (value.isJsonPrimitive()) {
+                    JsonPrimitive p = value.getAsJsonPrimitive();
+                    if (p.isBoolean()) {
+                        writeByte(p.getAsBoolean() ? TYPE_TRUE : TYPE_FALSE);
+                    } else {
+                        writeByte(p.isNumber() ? TYPE_NUMBER : TYPE_STRING);
+                        writeString(p.getAsString());
+                    }
+                } else {
+                    writeByte(TYPE_JSON);
+                    writeString(GSON.toJson(value));
+                }
+            }
+            ids.add(id);
+            slots.add(new long[]{start, written - start, lamport});
+        }
+
+        public void close() throws IOException {
+            try {
+                long[] idOffsets = new long[ids.size()];
+                for (int i = 0; i < ids.size(); i++) {
+                    idOffsets[i] = written;
+                    writeString(ids.get(i));
+                }
+
+                Integer[] order = new Integer[ids.size()];
+                for (int i = 0; i < order.length; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, Comparator.comparing(ids::get));
+
+                long keysOffset = written;
+                writeVarint(keyNumbers.size());
+                for (String key : keyNumbers.keySet()) {
+                    writeString(key);
+                }
+
+                long indexOffset = written;
+                for (int i : order) {
+                    long[] slot = slots.get(i);
+                    writeLong(idOffsets[i]);
+                    writeLong(slot[0]);
+                    writeInt((int) slot[1]);
+                    writeLong(slot[2]);
+                }
+
+                writeLong(indexOffset);
+                writeLong(keysOffset);
+                writeInt(ids.size());
+                writeLong(maxLamport);
+                writeInt(VERSION);
+                writeInt(MAGIC);
+            } finally {
+                out.close();
+            }
+        }
+
+        private void writeByte(int b) throws IOException {
+            out.writeByte(b);
+            written += 1;
+        }
+
+        private void writeInt(int v) throws IOException {
+            out.writeInt(v);
+            written += 4;
+        }
+
+        private void writeLong(long v) throws IOException {
+            out.writeLong(v);
+            written += 8;
+        }
+
+        private void writeVarint(int v) throws IOException {
+            while ((v & ~0x7F) != 0) {
+                writeByte((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            writeByte(v);
+        }
+
+        private void writeString(String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            out.write(bytes);
+            written += bytes.length;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package Weather.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HTTP/1.1 chunked transfer encoding over another stream.
+ *
+ * Bytes are collected in a fixed buffer and written as one chunk whenever it fills, so
+ * a body of any size goes out with constant memory. A chunk never ends in the middle of
+ * a UTF-8 character, which keeps the chunks decodable by readers that count characters.
+ * close() writes the terminating chunk but leaves the underlying stream open for the
+ * next response on the connection.
+ */
+public class ChunkedOutputStream extends OutputStream {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    private final OutputStream out;
+    private final byte[] buf;
+    private int count;
+    private boolean closed;
+
+    public ChunkedOutputStream(OutputStream out) {
+        this(out, 16 * 1024);
+    }
+
+    public ChunkedOutputStream(OutputStream out, int chunkSize) {
+        this.out = out;
+        this.buf = new byte[chunkSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buf.length) {
+            writeChunk();
+        }
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == buf.length) {
+                writeChunk();
+            }
+            int n = Math.min(len, buf.length - count);
+            System.arraycopy(b, off, buf, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    // Sends what is buffered as a chunk; a zero-length chunk would end the body, so none is sent
+    @Override
+    public void flush() throws IOException {
+        if (count > 0) {
+            writeChunk(count);
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (count > 0) {
+            writeChunk(count);
+        }
+        out.write(LAST_CHUNK);
+    }
+
+    // Writes the full buffer, holding back a trailing partial UTF-8 sequence for the next chunk
+    private void writeChunk() throws IOException {
+        int cut = count;
+        int lead = count - 1;
+        while (lead > 0 && count - lead < 4 && (buf[lead] & 0xC0) == 0x80) {
+            lead--;
+        }
+        if ((buf[lead] & 0xC0) == 0xC0 && count - lead < sequenceLength(buf[lead])) {
+            cut = lead;
+        }
+        if (cut == 0) {
+            cut = count; // not UTF-8 text, nothing to keep together
+        }
+        writeChunk(cut);
+    }
+
+    private void writeChunk(int length) throws IOException {
+        out.write(Integer.toHexString(length).getBytes(StandardCharsets.US_ASCII));
+        out.write(CRLF);
+        out.write(buf, 0, length);
+        out.write(CRLF);
+        System.arraycopy(buf, length, buf, 0, count - length);
+        count -= length;
+    }
+
+    private static int sequenceLength(byte lead) {
+        if ((lead & 0xE0) == 0xC0) {
+            return 2;
+        }
+        if ((lead & 0xF0) == 0xE0) {
+            return 3;
+        }
+        return 4;
+    }
+}
@@ -1,9 +1,15 @@
 package Weather.util;
 
-import java.io.BufferedReader;
-import java.io.IOException;
+import org.slf4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
 
 public class HttpParser {
+    private static final Logger logger = AsyncLogger.getLogger(HttpParser.class);
+
+    // Reads a request from a character stream; servers use the byte-level HttpRequestParser instead
     public static HttpRequest parseRequest(BufferedReader in) throws IOException {
         HttpRequest request = new HttpRequest();
 
@@ -14,7 +20,7 @@ public class HttpParser {
 
         String[] parts = line.split(" ");
         if (parts.length < 3) {
-            System.err.println("Invalid HTTP request line: " + line);
+            logger.warn("Invalid HTTP request line: {}", line);
             return null;
         }
 
@@ -31,21 +37,172 @@ public class HttpParser {
         }
 
         // Read body if Content-Length is present
-        if (request.headers.containsKey("Content-Length")) {
+        String contentLength = request.getHeader("Content-Length");
+        if (contentLength != null) {
             try {
-                int length = Integer.parseInt(request.headers.get("Content-Length"));
-                if (length > 0) {
-                    char[] buf = new char[length];
-                    int bytesRead = in.read(buf, 0, length);
-                    if (bytesRead > 0) {
-                        request.body = new String(buf, 0, bytesRead);
-                    }
-                }
+                request.body = readBody(in, Integer.parseInt(contentLength));
             } catch (NumberFormatException e) {
-                System.err.println("Invalid Content-Length: " + request.headers.get("Content-Length"));
+                logger.warn("Invalid Content-Length: {}", contentLength);
             }
         }
 
         return request;
     }
-}
\ No newline at end of file
+
+    public static HttpResponse parseResponse(BufferedReader in) throws IOException {
+        String line = in.readLine();
+        if (line == null || line.isEmpty()) {
+            return null;
+        }
+
+        String[] parts = line.split(" ", 3);
+        if (parts.length < 2) {
+            logger.warn("Invalid HTTP status line: {}", line);
+            return null;
+        }
+
+        HttpResponse response = new HttpResponse();
+        response.version = parts[0];
+        response.statusCode = Integer.parseInt(parts[1]);
+        response.statusMessage = parts.length > 2 ? parts[2] : "";
+
+        while ((line = in.readLine()) != null && !line.isEmpty()) {
+            String[] headerParts = line.split(":", 2);
+            if (headerParts.length == 2) {
+                response.headers.put(headerParts[0].trim(), headerParts[1].trim());
+            }
+        }
+
+        if ("chunked".equalsIgnoreCase(response.headers.get("Transfer-Encoding"))) {
+            response.body = readChunked(in);
+            return response;
+        }
+        String contentLength = response.headers.get("Content-Length");
+        if (contentLength != null) {
+            response.body = readBody(in, Integer.parseInt(contentLength));
+        }
+        return response;
+    }
+
+    /**
+     * Reads a response from a byte stream. Bodies are read by byte count, so this also
+     * handles compressed responses: a gzip Content-Encoding is decoded before the body is
+     * turned into text. Pass a buffered stream; it is read a byte at a time up to the body.
+     */
+    public static HttpResponse parseResponse(InputStream in) throws IOException {
+        String line = readLine(in);
+        if (line == null || line.isEmpty()) {
+            return null;
+        }
+
+        String[] parts = line.split(" ", 3);
+        if (parts.length < 2) {
+            logger.warn("Invalid HTTP status line: {}", line);
+            return null;
+        }
+
+        HttpResponse response = new HttpResponse();
+        response.version = parts[0];
+        response.statusCode = Integer.parseInt(parts[1]);
+        response.statusMessage = parts.length > 2 ? parts[2] : "";
+
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            String[] headerParts = line.split(":", 2);
+            if (headerParts.length == 2) {
+                response.headers.put(headerParts[0].trim(), headerParts[1].trim());
+            }
+        }
+
+        byte[] body;
+        if ("chunked".equalsIgnoreCase(response.headers.get("Transfer-Encoding"))) {
+            ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+            while (true) {
+                String size = readLine(in);
+                if (size == null) {
+                    throw new EOFException("Connection closed inside a chunked body");
+                }
+                int semicolon = size.indexOf(';');
+                int length = Integer.parseInt((semicolon < 0 ? size : size.substring(0, semicolon)).trim(), 16);
+                if (length == 0) {
+                    while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    }
+                    break;
+                }
+                chunks.write(in.readNBytes(length));
+                readLine(in);
+            }
+            body = chunks.toByteArray();
+        } else if (response.headers.get("Content-Length") != null) {
+            int length = Integer.parseInt(response.headers.get("Content-Length"));
+            body = in.readNBytes(length);
+            if (body.length < length) {
+                throw new EOFException("Connection closed inside the body");
+            }
+        } else {
+            return response;
+        }
+
+        if ("gzip".equalsIgnoreCase(response.headers.get("Content-Encoding"))) {
+            try (InputStream gz = new GZIPInputStream(new ByteArrayInputStream(body))) {
+                body = gz.readAllBytes();
+            }
+        }
+        response.body = body.length > 0 ? new String(body, StandardCharsets.UTF_8) : null;
+        return response;
+    }
+
+    // Header line as ISO-8859-1 without its CRLF, or null at end of stream
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                int end = line.length();
+                return end > 0 && line.charAt(end - 1) == '\r' ? line.substring(0, end - 1) : line.toString();
+            }
+            line.append((char) b);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    private static String readChunked(BufferedReader in) throws IOException {
+        StringBuilder body = new StringBuilder();
+        while (true) {
+            String line = in.readLine();
+            if (line == null) {
+                throw new EOFException("Connection closed inside a chunked body");
+            }
+            int semicolon = line.indexOf(';');
+            int size = Integer.parseInt((semicolon < 0 ? line : line.substring(0, semicolon)).trim(), 16);
+            if (size == 0) {
+                // Skip trailers up to the blank line that ends the body
+                while ((line = in.readLine()) != null && !line.isEmpty()) {
+                }
+                return body.toString();
+            }
+            String chunk = readBody(in, size);
+            if (chunk != null) {
+                body.append(chunk);
+            }
+            in.readLine(); // CRLF after the chunk data
+        }
+    }
+
+    // Reads characters until their UTF-8 encoding adds up to length bytes, the unit Content-Length counts in
+    private static String readBody(BufferedReader in, int length) throws IOException {
+        if (length <= 0) {
+            return null;
+        }
+        StringBuilder body = new StringBuilder(length);
+        int bytes = 0;
+        while (bytes < length) {
+            int c = in.read();
+            if (c < 0) {
+                break;
+            }
+            body.append((char) c);
+            bytes += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate((char) c) ? 2 : 3;
+        }
+        return body.length() > 0 ? body.toString() : null;
+    }
+}
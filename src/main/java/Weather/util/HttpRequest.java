@@ -1,14 +1,63 @@
 package Weather.util;
 
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 public class HttpRequest {
     public String method;
     public String path;
     public String version;
-    public Map<String, String> headers = new HashMap<>();
+    public Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
     public String body;
 
+    // Header names are case-insensitive
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    // Path without the query string
+    public String getRoute() {
+        int q = path.indexOf('?');
+        return q < 0 ? path : path.substring(0, q);
+    }
+
+    // Decoded query parameters; the last value wins when a name repeats. A malformed
+    // escape such as %zz throws IllegalArgumentException, to be answered with 400
+    public Map<String, String> getQueryParams() {
+        Map<String, String> params = new HashMap<>();
+        int q = path.indexOf('?');
+        if (q < 0) {
+            return params;
+        }
+        for (String pair : path.substring(q + 1).split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            String[] kv = pair.split("=", 2);
+            params.put(decode(kv[0]), kv.length > 1 ? decode(kv[1]) : "");
+        }
+        return params;
+    }
+
+    // Percent-decoded URL component, with a fixed message instead of the decoder's
+    public static String decode(String component) {
+        try {
+            return URLDecoder.decode(component, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("malformed URL escape");
+        }
+    }
+
+    // HTTP/1.1 connections persist unless the client asks to close; HTTP/1.0 ones only on request
+    public boolean isKeepAlive() {
+        String connection = getHeader("Connection");
+        if ("HTTP/1.0".equals(version)) {
+            return connection != null && connection.equalsIgnoreCase("keep-alive");
+        }
+        return connection == null || !connection.equalsIgnoreCase("close");
+    }
+
     @Override
     public String toString() {
         return method + " " + path + " " + "\n" + headers + "\n" + body;
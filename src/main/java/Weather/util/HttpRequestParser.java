@@ -0,0 +1,334 @@
+package Weather.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Incremental HTTP/1.1 request parser working on bytes.
+ *
+ * parse() consumes what it can from a ByteBuffer (in read mode) and returns the request
+ * once it is complete, or null if it needs more input; call it again with the same buffer
+ * after reading more. An incomplete header line is left in the buffer, a partial body is
+ * consumed and kept here, so a caller only has to compact its buffer between reads.
+ *
+ * Content-Length counts bytes and the body is decoded as UTF-8 once all of it has
+ * arrived. Well-known header names are matched byte-wise against a table and stored under
+ * their canonical spelling, so the only strings made per header are the values.
+ * Oversized or malformed input raises an HttpParseException carrying the status to send.
+ */
+public class HttpRequestParser {
+    public static final int DEFAULT_MAX_HEADER_BYTES = 64 * 1024;
+    public static final int DEFAULT_MAX_BODY_BYTES = 16 * 1024 * 1024;
+
+    private static final String[] KNOWN_HEADERS = {
+            "Host", "Content-Length", "Content-Type", "Connection", "Lamport-Clock", "If-None-Match",
+            "Accept-Encoding", "Content-Encoding", "Transfer-Encoding", "Station-TTL", "Origin-Id", "User-Agent", "Accept"
+    };
+    private static final byte[][] KNOWN_HEADER_BYTES = new byte[KNOWN_HEADERS.length][];
+    private static final String[] KNOWN_METHODS = {"GET", "PUT", "POST", "DELETE", "HEAD"};
+
+    static {
+        for (int i = 0; i < KNOWN_HEADERS.length; i++) {
+            KNOWN_HEADER_BYTES[i] = KNOWN_HEADERS[i].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    /** Malformed or oversized request; status is the HTTP status to answer with. */
+    public static class HttpParseException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public final int status;
+
+        public HttpParseException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private enum State { REQUEST_LINE, HEADERS, BODY }
+
+    private final int maxHeaderBytes;
+    private final int maxBodyBytes;
+
+    private State state = State.REQUEST_LINE;
+    private HttpRequest request;
+    private int headerBytes;
+    private byte[] body;
+    private int bodyRead;
+
+    // Time spent in parse() for the request in progress
+    private long parseNanos;
+
+    // Read buffer for read(InputStream), allocated on first use
+    private ByteBuffer streamBuffer;
+
+    public HttpRequestParser() {
+        this(DEFAULT_MAX_HEADER_BYTES, DEFAULT_MAX_BODY_BYTES);
+    }
+
+    public HttpRequestParser(int maxHeaderBytes, int maxBodyBytes) {
+        this.maxHeaderBytes = maxHeaderBytes;
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    public HttpRequest parse(ByteBuffer buf) throws HttpParseException {
+        long start = System.nanoTime();
+        try {
+            return parseBuffered(buf);
+        } finally {
+            parseNanos += System.nanoTime() - start;
+        }
+    }
+
+    // Time spent inside parse() since the last call, socket reads excluded; read it once a request is complete
+    public long takeParseNanos() {
+        long nanos = parseNanos;
+        parseNanos = 0;
+        return nanos;
+    }
+
+    private HttpRequest parseBuffered(ByteBuffer buf) throws HttpParseException {
+        while (true) {
+            switch (state) {
+                case REQUEST_LINE:
+                case HEADERS: {
+                    int eol = indexOf(buf, (byte) '\n');
+                    if (eol < 0) {
+                        if (headerBytes + buf.remaining() > maxHeaderBytes) {
+                            throw new HttpParseException(431, "Request header too large");
+                        }
+                        return null;
+                    }
+                    int start = buf.position();
+                    int end = eol > start && buf.get(eol - 1) == '\r' ? eol - 1 : eol;
+                    headerBytes += eol + 1 - start;
+                    if (headerBytes > maxHeaderBytes) {
+                        throw new HttpParseException(431, "Request header too large");
+                    }
+                    buf.position(eol + 1);
+
+                    if (state == State.REQUEST_LINE) {
+                        if (end == start) {
+                            headerBytes = 0;
+                            continue; // tolerate blank lines between pipelined requests
+                        }
+                        requestLine(buf, start, end);
+                        state = State.HEADERS;
+                    } else if (end > start) {
+                        header(buf, start, end);
+                    } else if (startBody()) {
+                        return finish();
+                    }
+                    break;
+                }
+                case BODY: {
+                    int n = Math.min(buf.remaining(), body.length - bodyRead);
+                    buf.get(body, bodyRead, n);
+                    bodyRead += n;
+                    if (bodyRead < body.length) {
+                        return null;
+                    }
+                    request.body = new String(body, StandardCharsets.UTF_8);
+                    return finish();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the next request from a blocking stream, keeping any bytes after it for the
+     * following call. Returns null on a clean end of stream between requests.
+     */
+    public HttpRequest read(InputStream in) throws IOException {
+        if (streamBuffer == null) {
+            streamBuffer = ByteBuffer.allocate(8 * 1024).flip();
+        }
+        while (true) {
+            HttpRequest parsed = parse(streamBuffer);
+            if (parsed != null) {
+                return parsed;
+            }
+            streamBuffer.compact();
+            if (!streamBuffer.hasRemaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(streamBuffer.capacity() * 2);
+                bigger.put(streamBuffer.flip());
+                streamBuffer = bigger;
+            }
+            int n = in.read(streamBuffer.array(), streamBuffer.position(), streamBuffer.remaining());
+            streamBuffer.flip();
+            if (n < 0) {
+                if (state == State.REQUEST_LINE && headerBytes == 0 && !streamBuffer.hasRemaining()) {
+                    return null;
+                }
+                throw new HttpParseException(400, "Connection closed mid-request");
+            }
+            streamBuffer.limit(streamBuffer.limit() + n);
+        }
+    }
+
+    // True if read(InputStream) already holds bytes of a further request
+    public boolean hasBuffered() {
+        return streamBuffer != null && streamBuffer.hasRemaining();
+    }
+
+    // Forgets a partially parsed request
+    public void reset() {
+        state = State.REQUEST_LINE;
+        request = null;
+        headerBytes = 0;
+        body = null;
+        bodyRead = 0;
+        parseNanos = 0;
+    }
+
+    private void requestLine(ByteBuffer buf, int start, int end) throws HttpParseException {
+        int sp1 = indexOf(buf, start, end, (byte) ' ');
+        int sp2 = sp1 < 0 ? -1 : indexOf(buf, sp1 + 1, end, (byte) ' ');
+        if (sp1 <= start || sp2 <= sp1 + 1) {
+            throw new HttpParseException(400, "Invalid request line");
+        }
+        request = new HttpRequest();
+        request.method = method(buf, start, sp1);
+        request.path = string(buf, sp1 + 1, sp2, StandardCharsets.UTF_8);
+        request.version = version(buf, sp2 + 1, end);
+    }
+
+    private void header(ByteBuffer buf, int start, int end) throws HttpParseException {
+        int colon = indexOf(buf, start, end, (byte) ':');
+        if (colon <= start) {
+            throw new HttpParseException(400, "Invalid header line");
+        }
+        int nameEnd = colon;
+        while (nameEnd > start && buf.get(nameEnd - 1) == ' ') {
+            nameEnd--;
+        }
+        int valueStart = colon + 1;
+        while (valueStart < end && (buf.get(valueStart) == ' ' || buf.get(valueStart) == '\t')) {
+            valueStart++;
+        }
+        int valueEnd = end;
+        while (valueEnd > valueStart && (buf.get(valueEnd - 1) == ' ' || buf.get(valueEnd - 1) == '\t')) {
+            valueEnd--;
+        }
+
+        String name = knownHeader(buf, start, nameEnd);
+        if (name == null) {
+            name = string(buf, start, nameEnd, StandardCharsets.ISO_8859_1);
+        }
+        request.headers.put(name, string(buf, valueStart, valueEnd, StandardCharsets.ISO_8859_1));
+    }
+
+    // Called at the blank line; returns true if the request has no body
+    private boolean startBody() throws HttpParseException {
+        String encoding = request.getHeader("Transfer-Encoding");
+        if (encoding != null && !encoding.equalsIgnoreCase("identity")) {
+            throw new HttpParseException(501, "Transfer-Encoding " + encoding + " is not supported");
+        }
+        String header = request.getHeader("Content-Length");
+        if (header == null) {
+            return true;
+        }
+        long length = -1;
+        try {
+            length = Long.parseLong(header);
+        } catch (NumberFormatException ignored) {
+        }
+        if (length < 0) {
+            throw new HttpParseException(400, "Invalid Content-Length");
+        }
+        if (length > maxBodyBytes) {
+            throw new HttpParseException(413, "Request body too large");
+        }
+        if (length == 0) {
+            return true;
+        }
+        body = new byte[(int) length];
+        bodyRead = 0;
+        state = State.BODY;
+        return false;
+    }
+
+    private HttpRequest finish() {
+        HttpRequest done = request;
+        reset();
+        return done;
+    }
+
+    private static String method(ByteBuffer buf, int start, int end) {
+        for (String known : KNOWN_METHODS) {
+            if (matches(buf, start, end, known)) {
+                return known;
+            }
+        }
+        return string(buf, start, end, StandardCharsets.US_ASCII);
+    }
+
+    private static String version(ByteBuffer buf, int start, int end) {
+        if (matches(buf, start, end, "HTTP/1.1")) {
+            return "HTTP/1.1";
+        }
+        if (matches(buf, start, end, "HTTP/1.0")) {
+            return "HTTP/1.0";
+        }
+        return string(buf, start, end, StandardCharsets.US_ASCII);
+    }
+
+    private static String knownHeader(ByteBuffer buf, int start, int end) {
+        int length = end - start;
+        for (int i = 0; i < KNOWN_HEADER_BYTES.length; i++) {
+            byte[] known = KNOWN_HEADER_BYTES[i];
+            if (known.length != length) {
+                continue;
+            }
+            int j = 0;
+            while (j < length && toLower(buf.get(start + j)) == toLower(known[j])) {
+                j++;
+            }
+            if (j == length) {
+                return KNOWN_HEADERS[i];
+            }
+        }
+        return null;
+    }
+
+    private static boolean matches(ByteBuffer buf, int start, int end, String ascii) {
+        if (end - start != ascii.length()) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            if (buf.get(start + i) != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte toLower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + 32) : b;
+    }
+
+    private static int indexOf(ByteBuffer buf, byte b) {
+        return indexOf(buf, buf.position(), buf.limit(), b);
+    }
+
+    private static int indexOf(ByteBuffer buf, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String string(ByteBuffer buf, int start, int end, Charset charset) {
+        if (buf.hasArray()) {
+            return new String(buf.array(), buf.arrayOffset() + start, end - start, charset);
+        }
+        byte[] bytes = new byte[end - start];
+        buf.get(start, bytes);
+        return new String(bytes, charset);
+    }
+}
@@ -1,25 +1,98 @@
 package Weather.util;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
 public class HttpResponse {
+
+    /** Produces a body directly onto the connection, see {@link #stream}. */
+    public interface BodyWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
     public String version = "HTTP/1.1";
     public int statusCode;
     public String statusMessage;
     public Map<String, String> headers = new HashMap<>();
     public String body;
 
+    // Pre-encoded body, sent as-is instead of body when set (e.g. a cached feed)
+    public byte[] bodyBytes;
+
+    // Body written while the response is sent, never held in memory as a whole
+    public BodyWriter bodyWriter;
+
+    // Sends the body with chunked transfer encoding as the writer produces it
+    public void stream(BodyWriter writer) {
+        bodyWriter = writer;
+        headers.remove("Content-Length");
+        headers.put("Transfer-Encoding", "chunked");
+    }
+
+    public boolean isChunked() {
+        return "chunked".equals(headers.get("Transfer-Encoding"));
+    }
+
     public String buildResponse() {
+        if (bodyWriter != null) {
+            return new String(toBytes(), StandardCharsets.UTF_8);
+        }
+        StringBuilder sb = new StringBuilder(buildHead());
+        if (bodyBytes != null) {
+            sb.append(new String(bodyBytes, StandardCharsets.UTF_8));
+        } else if (body != null) {
+            sb.append(body);
+        }
+        return sb.toString();
+    }
+
+    public byte[] toBytes() {
+        if (bodyWriter != null) {
+            ByteArrayOutputStream all = new ByteArrayOutputStream();
+            try {
+                writeTo(all);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return all.toByteArray();
+        }
+        byte[] head = buildHead().getBytes(StandardCharsets.UTF_8);
+        byte[] payload = bodyBytes != null ? bodyBytes
+                : body != null ? body.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        byte[] all = new byte[head.length + payload.length];
+        System.arraycopy(head, 0, all, 0, head.length);
+        System.arraycopy(payload, 0, all, head.length, payload.length);
+        return all;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buildHead().getBytes(StandardCharsets.UTF_8));
+        if (bodyWriter != null) {
+            if (isChunked()) {
+                ChunkedOutputStream chunked = new ChunkedOutputStream(out);
+                bodyWriter.writeTo(chunked);
+                chunked.close();
+            } else {
+                bodyWriter.writeTo(out); // delimited by closing the connection
+            }
+        } else if (bodyBytes != null) {
+            out.write(bodyBytes);
+        } else if (body != null) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private String buildHead() {
         StringBuilder sb = new StringBuilder();
         sb.append(version).append(" ").append(statusCode).append(" ").append(statusMessage).append("\r\n");
         for (Map.Entry<String, String> entry : headers.entrySet()) {
             sb.append(entry.getKey()).append(": ").append(entry.getValue()).append("\r\n");
         }
         sb.append("\r\n");
-        if (body != null) {
-            sb.append(body);
-        }
         return sb.toString();
     }
 }
@@ -1,22 +1,33 @@
 package Weather.util;
 
-public class LamportClock {
-    private int time;
+import java.util.concurrent.atomic.AtomicLong;
 
-    public LamportClock() {
-        this.time = 0;
-    }
+/**
+ * Lamport clock safe for concurrent use without a lock.
+ *
+ * tick() is a single atomic increment. update() retries a compare-and-set until it has
+ * moved the clock to max(local, received) + 1, so every caller still gets a distinct,
+ * strictly increasing time, but threads never queue on a monitor. Times are longs, so
+ * the clock does not wrap in the lifetime of a server.
+ */
+public class LamportClock {
+    private final AtomicLong time = new AtomicLong();
 
-    public synchronized int tick() {
-        return ++time; // This is a local event
+    public long tick() {
+        return time.incrementAndGet(); // This is a local event
     }
 
-    public synchronized int update(int receivedTime) {
-        time = Math.max(time, receivedTime) + 1;
-        return time;
+    public long update(long receivedTime) {
+        while (true) {
+            long current = time.get();
+            long next = Math.max(current, receivedTime) + 1;
+            if (time.compareAndSet(current, next)) {
+                return next;
+            }
+        }
     }
 
-    public synchronized int getTime() {
-        return time;
+    public long getTime() {
+        return time.get();
     }
 }
@@ -0,0 +1,357 @@
+package Weather.util;
+
+import com.google.gson.*;
+import com.google.gson.stream.*;
+import org.slf4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * Log-structured alternative to rewriting weather.json on every change.
+ *
+ * Every PUT or expiry is appended to the active segment as one framed record
+ * (length, CRC32, op, Lamport time, id, JSON body), so an update costs the size of the
+ * record rather than the size of the whole data set. When the active segment passes
+ * segmentBytes a new one is started and a snapshot is written in the background; the
+ * segments it covers are then deleted. Recovery loads the newest snapshot and replays the
+ * segments after it, so it never reads more than about two segments of log.
+ *
+ * The store holds no copy of the data: it only remembers the Lamport time of each
+ * station's last record. A snapshot takes the stations' data from the caller (the
+ * server's own records) as it is when the snapshot is written, which may be newer than
+ * the start of the new segment. Replaying that segment in order over it still ends at
+ * each station's last record, and anything newer was not logged yet either way.
+ *
+ * Directory layout:
+ *   snapshot-N.json  state covering every segment below N (or snapshot-N.snap, a BinarySnapshot)
+ *   segment-N.log    records appended after snapshot N was started
+ */
+public class LogStructuredStore implements Closeable {
+    private static final Logger logger = AsyncLogger.getLogger(LogStructuredStore.class);
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+
+    private final File dir;
+    private final long segmentBytes;
+    private final boolean fsync;
+    private final boolean binarySnapshots;
+    private final Function<String, JsonObject> records; // a station's current data for snapshots, null once gone
+    private final Gson gson = new Gson();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "log-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Lamport time of each live station's last record
+    private final Map<String, Long> lamports = new HashMap<>();
+    private long maxLamport;
+    private boolean isNew; // recover() found no snapshot or segment
+    private long segmentSeq;
+    private long segmentSize;
+    private FileOutputStream segmentFile;
+    private DataOutputStream segment;
+
+    public LogStructuredStore(File dir, long segmentBytes, boolean fsync, Function<String, JsonObject> records) {
+        this(dir, segmentBytes, fsync, false, records);
+    }
+
+    public LogStructuredStore(File dir, long segmentBytes, boolean fsync, boolean binarySnapshots,
+                              Function<String, JsonObject> records) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.fsync = fsync;
+        this.binarySnapshots = binarySnapshots;
+        this.records = records;
+    }
+
+    // Rebuilds the data from the newest snapshot plus the log after it, then opens a fresh segment.
+    // The map is the caller's to keep; the store does not hold on to it
+    public synchronized Map<String, JsonObject> recover() throws IOException {
+        Files.createDirectories(dir.toPath());
+        lamports.clear();
+        maxLamport = 0;
+        Map<String, JsonObject> data = new HashMap<>();
+
+        // Either format can be read, so switching formats keeps the existing data
+        long jsonSeq = newest("snapshot-", ".json");
+        long binarySeq = newest("snapshot-", ".snap");
+        long snapshotSeq = Math.max(jsonSeq, binarySeq);
+        if (binarySeq >= 0 && binarySeq >= jsonSeq) {
+            readBinarySnapshot(file("snapshot-", binarySeq, ".snap"), data);
+        } else if (jsonSeq >= 0) {
+            readSnapshot(file("snapshot-", jsonSeq, ".json"), data);
+        }
+
+        long lastSeq = Math.max(snapshotSeq, 0);
+        List<Long> segments = sequences("segment-", ".log");
+        isNew = snapshotSeq < 0 && segments.isEmpty();
+        for (long seq : segments) {
+            if (seq >= Math.max(snapshotSeq, 0)) {
+                replay(file("segment-", seq, ".log"), data);
+            }
+            lastSeq = Math.max(lastSeq, seq);
+        }
+
+        // Never append after a possibly torn tail
+        openSegment(lastSeq + 1);
+        return data;
+    }
+
+    // Highest Lamport time seen in the recovered or appended records
+    public synchronized long getMaxLamport() {
+        return maxLamport;
+    }
+
+    // True if the directory held no log at all before recover(); an emptied store still has its files
+    public synchronized boolean isNew() {
+        return isNew;
+    }
+
+    // Both appends return the bytes the record adds to the log
+    public synchronized long appendPut(String id, JsonObject data, long lamport) throws IOException {
+        long bytes = append(OP_PUT, id, lamport, gson.toJson(data).getBytes(StandardCharsets.UTF_8));
+        lamports.put(id, lamport);
+        return bytes;
+    }
+
+    public synchronized long appendRemove(String id, long lamport) throws IOException {
+        long bytes = append(OP_REMOVE, id, lamport, new byte[0]);
+        lamports.remove(id);
+        return bytes;
+    }
+
+    // Pushes appended records to the OS (and to disk when fsync is on); call once per batch
+    public synchronized void flush() throws IOException {
+        segment.flush();
+        if (fsync) {
+            segmentFile.getFD().sync();
+        }
+        if (segmentSize >= segmentBytes) {
+            roll();
+        }
+    }
+
+    // Starts a new segment and snapshots everything before it
+    public synchronized Future<?> compact() throws IOException {
+        segment.flush();
+        return roll();
+    }
+
+    public synchronized void close() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (segment != null) {
+            segment.flush();
+            if (fsync) {
+                segmentFile.getFD().sync();
+            }
+            segment.close();
+            segment = null;
+        }
+    }
+
+    private long append(byte op, String id, long lamport, byte[] body) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(body.length + id.length() + 16);
+        DataOutputStream payload = new DataOutputStream(buf);
+        payload.writeByte(op);
+        payload.writeLong(lamport);
+        payload.writeUTF(id);
+        payload.write(body);
+        byte[] bytes = buf.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        segment.writeInt(bytes.length);
+        segment.writeInt((int) crc.getValue());
+        segment.write(bytes);
+
+        segmentSize += 8 + bytes.length;
+        maxLamport = Math.max(maxLamport, lamport);
+        return 8 + bytes.length;
+    }
+
+    private Future<?> roll() throws IOException {
+        segment.close();
+        long snapshotSeq = segmentSeq + 1;
+        openSegment(snapshotSeq);
+
+        // The stations the new segment starts from; their data is read while the snapshot is written
+        Map<String, Long> copy = new HashMap<>(lamports);
+        long lamport = maxLamport;
+        return compactor.submit(() -> {
+            try {
+                writeSnapshot(copy, lamport, snapshotSeq);
+                deleteBefore(snapshotSeq);
+            } catch (IOException e) {
+                logger.error("Log compaction failed: {}", e.getMessage());
+            }
+        });
+    }
+
+    private void openSegment(long seq) throws IOException {
+        segmentSeq = seq;
+        segmentSize = 0;
+        segmentFile = new FileOutputStream(file("segment-", seq, ".log"), true);
+        segment = new DataOutputStream(new BufferedOutputStream(segmentFile, 64 * 1024));
+    }
+
+    private void writeSnapshot(Map<String, Long> entries, long lamport, long seq) throws IOException {
+        if (binarySnapshots) {
+            File target = file("snapshot-", seq, ".snap");
+            File temp = new File(target.getPath() + ".tmp");
+            try (BinarySnapshot.Writer writer = new BinarySnapshot.Writer(temp, lamport)) {
+                for (Map.Entry<String, Long> e : entries.entrySet()) {
+                    JsonObject data = records.apply(e.getKey());
+                    if (data != null) {
+                        writer.add(e.getKey(), e.getValue(), data);
+                    }
+                }
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return;
+        }
+
+        File target = file("snapshot-", seq, ".json");
+        File temp = new File(target.getPath() + ".tmp");
+        try (JsonWriter writer = new JsonWriter(new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)))) {
+            writer.beginObject();
+            writer.name("lamport").value(lamport);
+            writer.name("entries").beginArray();
+            for (Map.Entry<String, Long> e : entries.entrySet()) {
+                JsonObject data = records.apply(e.getKey());
+                if (data == null) {
+                    continue; // removed since; its remove record is in the new segment
+                }
+                writer.beginObject();
+                writer.name("id").value(e.getKey());
+                writer.name("lamport").value(e.getValue());
+                writer.name("data");
+                gson.toJson(data, writer);
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void readSnapshot(File snapshot, Map<String, JsonObject> data) throws IOException {
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(snapshot), StandardCharsets.UTF_8))) {
+            JsonObject root = gson.fromJson(reader, JsonObject.class);
+            maxLamport = Math.max(maxLamport, root.get("lamport").getAsLong());
+            for (JsonElement el : root.getAsJsonArray("entries")) {
+                JsonObject obj = el.getAsJsonObject();
+                String id = obj.get("id").getAsString();
+                lamports.put(id, obj.get("lamport").getAsLong());
+                data.put(id, obj.getAsJsonObject("data"));
+            }
+        }
+    }
+
+    private void readBinarySnapshot(File snapshot, Map<String, JsonObject> data) throws IOException {
+        BinarySnapshot snap = BinarySnapshot.open(snapshot);
+        maxLamport = Math.max(maxLamport, snap.getMaxLamport());
+        Map<String, JsonObject> decoded = snap.decodeAll();
+        for (int i = 0; i < snap.size(); i++) {
+            String id = snap.id(i);
+            lamports.put(id, snap.lamport(i));
+            data.put(id, decoded.get(id));
+        }
+    }
+
+    // Applies records in log order; stops at the first torn or corrupt record
+    private void replay(File log, Map<String, JsonObject> data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(log)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+
+                int expectedCrc = in.readInt();
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                if ((int) crc.getValue() != expectedCrc) {
+                    logger.warn("Corrupt record in {}, ignoring the rest of the segment", log.getName());
+                    return;
+                }
+
+                DataInputStream payload = new DataInputStream(new ByteArrayInputStream(bytes));
+                byte op = payload.readByte();
+                long lamport = payload.readLong();
+                String id = payload.readUTF();
+                maxLamport = Math.max(maxLamport, lamport);
+
+                Long current = lamports.get(id);
+                if (current != null && current > lamport) {
+                    continue; // the snapshot already holds a later write
+                }
+                if (op == OP_PUT) {
+                    String json = new String(bytes, bytes.length - payload.available(), payload.available(), StandardCharsets.UTF_8);
+                    lamports.put(id, lamport);
+                    data.put(id, gson.fromJson(json, JsonObject.class));
+                } else if (op == OP_REMOVE) {
+                    lamports.remove(id);
+                    data.remove(id);
+                }
+            }
+        } catch (EOFException e) {
+            logger.warn("Torn record at the end of {}, ignoring it", log.getName());
+        }
+    }
+
+    private void deleteBefore(long seq) {
+        for (long s : sequences("segment-", ".log")) {
+            if (s < seq) {
+                file("segment-", s, ".log").delete();
+            }
+        }
+        for (String suffix : new String[]{".json", ".snap"}) {
+            for (long s : sequences("snapshot-", suffix)) {
+                if (s < seq) {
+                    file("snapshot-", s, suffix).delete();
+                }
+            }
+        }
+    }
+
+    private File file(String prefix, long seq, String suffix) {
+        return new File(dir, String.format("%s%016d%s", prefix, seq, suffix));
+    }
+
+    private long newest(String prefix, String suffix) {
+        List<Long> all = sequences(prefix, suffix);
+        return all.isEmpty() ? -1 : all.get(all.size() - 1);
+    }
+
+    private List<Long> sequences(String prefix, String suffix) {
+        List<Long> result = new ArrayList<>();
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(prefix) && name.endsWith(suffix)) {
+                    result.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+}
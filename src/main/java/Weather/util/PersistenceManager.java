@@ -7,19 +7,42 @@ import java.util.*;
 
 public class PersistenceManager {
     private final File storageFile;
-    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    private final boolean binary;
+    private final Gson gson;
 
     public PersistenceManager(String filename) {
+        this(filename, false);
+    }
+
+    // binary: store a BinarySnapshot instead of a JSON array
+    public PersistenceManager(String filename, boolean binary) {
+        this(filename, binary, true);
+    }
+
+    // pretty: indent the JSON file; compact files are smaller and faster to rewrite
+    public PersistenceManager(String filename, boolean binary, boolean pretty) {
         this.storageFile = new File(filename);
+        this.binary = binary;
+        this.gson = pretty ? new GsonBuilder().setPrettyPrinting().create() : new Gson();
     }
 
-    // Save aggregated data atomically
-    public synchronized void save(Map<String, JsonObject> data) throws IOException {
+    // Save aggregated data atomically; returns the size of the file written
+    public synchronized long save(Map<String, JsonObject> data) throws IOException {
         File tempFile = new File(storageFile.getAbsoluteFile() + ".tmp");
-        try (Writer writer = new FileWriter(tempFile)) {
-            gson.toJson(data.values(), writer);
+        if (binary) {
+            try (BinarySnapshot.Writer writer = new BinarySnapshot.Writer(tempFile, 0)) {
+                for (Map.Entry<String, JsonObject> entry : data.entrySet()) {
+                    writer.add(entry.getKey(), 0, entry.getValue());
+                }
+            }
+        } else {
+            try (Writer writer = new FileWriter(tempFile)) {
+                gson.toJson(data.values(), writer);
+            }
         }
+        long bytes = tempFile.length();
         Files.move(tempFile.toPath(), storageFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return bytes;
     }
 
     // Load existing JSON data if available
@@ -28,6 +51,9 @@ public class PersistenceManager {
         if (!storageFile.exists()) {
             return map;
         }
+        if (binary) {
+            return BinarySnapshot.open(storageFile).decodeAll();
+        }
 
         try (Reader reader = new FileReader(storageFile)) {
             JsonArray arr = gson.fromJson(reader, JsonArray.class);
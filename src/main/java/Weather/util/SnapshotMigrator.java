@@ -0,0 +1,41 @@
+package Weather.util;
+
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Converts a weather.json file into a BinarySnapshot and checks the result.
+ *
+ * Usage: SnapshotMigrator [weather.json] [weather.snap]
+ */
+public class SnapshotMigrator {
+
+    public static void main(String[] args) throws Exception {
+        String source = args.length > 0 ? args[0] : "weather.json";
+        String target = args.length > 1 ? args[1] : "weather.snap";
+
+        if (!new File(source).exists()) {
+            System.err.println("Error: File does not exist: " + source);
+            return;
+        }
+
+        long start = System.nanoTime();
+        Map<String, JsonObject> data = new PersistenceManager(source).load();
+        new PersistenceManager(target, true).save(data);
+        long written = System.nanoTime();
+
+        // Read it back before anyone points a server at it
+        BinarySnapshot snapshot = BinarySnapshot.open(new File(target));
+        Map<String, JsonObject> decoded = snapshot.decodeAll();
+        if (!decoded.equals(data)) {
+            System.err.println("Error: " + target + " does not match " + source);
+            System.exit(1);
+        }
+
+        System.out.printf("Migrated %d entries from %s to %s (%d -> %d bytes) in %d ms%n",
+                data.size(), source, target, new File(source).length(), new File(target).length(),
+                (written - start) / 1_000_000);
+    }
+}
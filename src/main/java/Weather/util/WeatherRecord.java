@@ -0,0 +1,288 @@
+package Weather.util;
+
+import com.google.gson.*;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One station's reading in a fixed schema instead of a JSON tree.
+ *
+ * The known fields (those of the weather.txt format) have a slot each: numeric ones in a
+ * double[], text ones in a String[], with text that takes few distinct values (state,
+ * cloud, ...) shared between records. Anything else, and any known field whose value does
+ * not fit its slot, goes to an overflow array of names and raw JSON values. A record is a
+ * handful of objects where a JsonObject of the same station is well over a hundred.
+ *
+ * Values come back exactly as they were sent: a number is only stored as a double if
+ * printing the double gives back the same text (so "15.0", "13" and "-34.9" are stored,
+ * "-34.90" and "1e3" are kept as text), and whether it was quoted in the JSON is kept too.
+ * Fields are written in schema order followed by the overflow. Records are immutable.
+ */
+public final class WeatherRecord {
+
+    private static final String[] FIELDS = {
+            "id", "name", "state", "time_zone", "lat", "lon", "local_date_time", "local_date_time_full",
+            "air_temp", "apparent_t", "cloud", "dewpt", "press", "rel_hum", "wind_dir", "wind_spd_kmh", "wind_spd_kt"
+    };
+    private static final boolean[] NUMERIC = {
+            false, false, false, false, true, true, false, true,
+            true, true, false, true, true, true, false, true, true
+    };
+    // Text fields whose values repeat across stations and are worth sharing
+    private static final boolean[] POOLED = {
+            false, false, true, true, false, false, false, false,
+            false, false, true, false, false, false, true, false, false
+    };
+    private static final int[] SLOT = new int[FIELDS.length]; // index into numbers or texts
+    private static final Map<String, Integer> FIELD_INDEX = new HashMap<>();
+    private static final int NUMBER_SLOTS;
+    private static final int TEXT_SLOTS;
+
+    static {
+        int numbers = 0;
+        int texts = 0;
+        for (int i = 0; i < FIELDS.length; i++) {
+            SLOT[i] = NUMERIC[i] ? numbers++ : texts++;
+            FIELD_INDEX.put(FIELDS[i], i);
+        }
+        NUMBER_SLOTS = numbers;
+        TEXT_SLOTS = texts;
+    }
+
+    // Shared text values; stops growing at MAX_POOLED so odd input cannot fill the heap
+    private static final int MAX_POOLED = 4096;
+    private static final Map<String, String> POOL = new ConcurrentHashMap<>();
+
+    private final double[] numbers;
+    private final String[] texts;
+    private final int present;  // bit per field: the slot holds a value
+    private final int quoted;   // bit per numeric field: sent as a JSON string
+    private final int integral; // bit per numeric field: printed without a decimal point
+    private final String[] overflow; // name, raw JSON value, name, ...; null when empty
+
+    private WeatherRecord(double[] numbers, String[] texts, int present, int quoted, int integral, String[] overflow) {
+        this.numbers = numbers;
+        this.texts = texts;
+        this.present = present;
+        this.quoted = quoted;
+        this.integral = integral;
+        this.overflow = overflow;
+    }
+
+    public static WeatherRecord fromJson(JsonObject json) {
+        double[] numbers = new double[NUMBER_SLOTS];
+        String[] texts = new String[TEXT_SLOTS];
+        int present = 0;
+        int quoted = 0;
+        int integral = 0;
+        List<String> overflow = null;
+
+        for (Map.Entry<String, JsonElement> member : json.entrySet()) {
+            Integer index = FIELD_INDEX.get(member.getKey());
+            JsonElement value = member.getValue();
+            JsonPrimitive primitive = value.isJsonPrimitive() ? value.getAsJsonPrimitive() : null;
+            if (index != null && primitive != null) {
+                int i = index;
+                if (NUMERIC[i] && (primitive.isNumber() || primitive.isString())) {
+                    String text = primitive.getAsString();
+                    boolean whole = isIntegralText(text);
+                    double parsed = parse(text);
+                    if (!Double.isNaN(parsed) && format(parsed, whole).equals(text)) {
+                        numbers[SLOT[i]] = parsed;
+                        present |= 1 << i;
+                        quoted |= primitive.isString() ? 1 << i : 0;
+                        integral |= whole ? 1 << i : 0;
+                        continue;
+                    }
+                } else if (!NUMERIC[i] && primitive.isString()) {
+                    String text = primitive.getAsString();
+                    texts[SLOT[i]] = POOLED[i] ? pool(text) : text;
+                    present |= 1 << i;
+                    continue;
+                }
+            }
+            if (overflow == null) {
+                overflow = new ArrayList<>(4);
+            }
+            overflow.add(member.getKey());
+            overflow.add(value.toString());
+        }
+        return new WeatherRecord(numbers, texts, present, quoted, integral,
+                overflow == null ? null : overflow.toArray(new String[0]));
+    }
+
+    // True for the known fields that are stored as numbers, see getNumber
+    public static boolean isNumericField(String field) {
+        Integer index = FIELD_INDEX.get(field);
+        return index != null && NUMERIC[index];
+    }
+
+    public String id() {
+        return getText("id");
+    }
+
+    // Value of a known text field, or null if the record has none
+    public String getText(String field) {
+        Integer index = FIELD_INDEX.get(field);
+        if (index == null || NUMERIC[index] || (present & 1 << index) == 0) {
+            return null;
+        }
+        return texts[SLOT[index]];
+    }
+
+    // Value of a known numeric field, or NaN if the record has none that is a plain number
+    public double getNumber(String field) {
+        Integer index = FIELD_INDEX.get(field);
+        if (index == null || !NUMERIC[index] || (present & 1 << index) == 0) {
+            return Double.NaN;
+        }
+        return numbers[SLOT[index]];
+    }
+
+    public JsonObject toJsonObject() {
+        JsonObject json = new JsonObject();
+        for (int i = 0; i < FIELDS.length; i++) {
+            if ((present & 1 << i) == 0) {
+                continue;
+            }
+            if (!NUMERIC[i]) {
+                json.addProperty(FIELDS[i], texts[SLOT[i]]);
+            } else if ((quoted & 1 << i) != 0) {
+                json.addProperty(FIELDS[i], numberText(i));
+            } else {
+                json.add(FIELDS[i], number(numberText(i)));
+            }
+        }
+        if (overflow != null) {
+            for (int i = 0; i < overflow.length; i += 2) {
+                json.add(overflow[i], JsonParser.parseString(overflow[i + 1]));
+            }
+        }
+        return json;
+    }
+
+    /** Writes the record as a JSON object; with fields set, only those fields and id. */
+    public void write(JsonWriter out, Set<String> fields) throws IOException {
+        out.beginObject();
+        for (int i = 0; i < FIELDS.length; i++) {
+            if ((present & 1 << i) == 0 || !wanted(FIELDS[i], fields)) {
+                continue;
+            }
+            out.name(FIELDS[i]);
+            if (!NUMERIC[i]) {
+                out.value(texts[SLOT[i]]);
+            } else if ((quoted & 1 << i) != 0) {
+                out.value(numberText(i));
+            } else {
+                out.jsonValue(numberText(i));
+            }
+        }
+        if (overflow != null) {
+            for (int i = 0; i < overflow.length; i += 2) {
+                if (wanted(overflow[i], fields)) {
+                    out.name(overflow[i]).jsonValue(overflow[i + 1]);
+                }
+            }
+        }
+        out.endObject();
+    }
+
+    private static boolean wanted(String field, Set<String> fields) {
+        return fields == null || field.equals("id") || fields.contains(field);
+    }
+
+    private String numberText(int field) {
+        return format(numbers[SLOT[field]], (integral & 1 << field) != 0);
+    }
+
+    private static boolean isIntegralText(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '.' || c == 'e' || c == 'E') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // A JSON number with the text it was sent as, e.g. "-34.90" rather than -34.9
+    static JsonPrimitive number(String text) {
+        return new JsonPrimitive(new NumberText(text));
+    }
+
+    // gson writes a Number it does not know by its toString(), so the text goes out unchanged
+    private static final class NumberText extends Number {
+        private static final long serialVersionUID = 1L;
+
+        private final String text;
+
+        NumberText(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int intValue() {
+            return (int) longValue();
+        }
+
+        @Override
+        public long longValue() {
+            return new BigDecimal(text).longValue();
+        }
+
+        @Override
+        public float floatValue() {
+            return Float.parseFloat(text);
+        }
+
+        @Override
+        public double doubleValue() {
+            return Double.parseDouble(text);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    // Integral values print as longs; doubles hold those exactly up to 2^53
+    private static String format(double value, boolean integral) {
+        if (integral && value == Math.rint(value) && Math.abs(value) < 0x1p53) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    private static double parse(String text) {
+        if (text.isEmpty() || text.length() > 24) {
+            return Double.NaN;
+        }
+        try {
+            double value = Double.parseDouble(text);
+            return Double.isInfinite(value) ? Double.NaN : value;
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static String pool(String text) {
+        String shared = POOL.get(text);
+        if (shared != null) {
+            return shared;
+        }
+        if (POOL.size() >= MAX_POOLED) {
+            return text;
+        }
+        shared = POOL.putIfAbsent(text, text);
+        return shared != null ? shared : text;
+    }
+}
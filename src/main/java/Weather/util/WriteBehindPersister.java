@@ -0,0 +1,110 @@
+package Weather.util;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Coalesces changed station ids and flushes them on a dedicated thread.
+ *
+ * A flush is triggered once the oldest pending change is flushWindowMs old or maxBatch
+ * ids are pending, whichever comes first, so many PUTs share one write. Every change
+ * gets the future of the flush that will cover it; waiting on it gives group commit.
+ * Each id is kept with the Lamport time of its latest change so the flush can stamp
+ * the records it writes.
+ */
+public class WriteBehindPersister {
+    private static final Logger logger = AsyncLogger.getLogger(WriteBehindPersister.class);
+
+    public interface Flusher {
+        void flush(Map<String, Long> dirty) throws IOException;
+    }
+
+    private static class Batch {
+        final Map<String, Long> ids = new HashMap<>();
+        final CompletableFuture<Void> flushed = new CompletableFuture<>();
+        long firstMarked;
+    }
+
+    private final Flusher flusher;
+    private final long flushWindowMs;
+    private final int maxBatch;
+    private final Thread thread;
+
+    private Batch current = new Batch();
+    private boolean running = true;
+
+    public WriteBehindPersister(Flusher flusher, long flushWindowMs, int maxBatch) {
+        this.flusher = flusher;
+        this.flushWindowMs = flushWindowMs;
+        this.maxBatch = maxBatch;
+        this.thread = new Thread(this::run, "write-behind");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    // Returns the future of the flush that will include this change
+    public synchronized CompletableFuture<Void> markDirty(String id, long lamport) {
+        if (!running) {
+            return CompletableFuture.failedFuture(new IOException("Persister is closed"));
+        }
+        if (current.ids.isEmpty()) {
+            current.firstMarked = System.currentTimeMillis();
+            notifyAll();
+        }
+        current.ids.merge(id, lamport, Math::max);
+        if (current.ids.size() >= maxBatch) {
+            notifyAll();
+        }
+        return current.flushed;
+    }
+
+    // Flushes whatever is pending and stops the flush thread
+    public void close() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            Batch batch;
+            synchronized (this) {
+                try {
+                    while (running && current.ids.isEmpty()) {
+                        wait();
+                    }
+                    long deadline = current.firstMarked + flushWindowMs;
+                    long now;
+                    while (running && current.ids.size() < maxBatch && (now = System.currentTimeMillis()) < deadline) {
+                        wait(deadline - now);
+                    }
+                } catch (InterruptedException e) {
+                    running = false;
+                }
+                if (current.ids.isEmpty() && !running) {
+                    current.flushed.complete(null);
+                    return;
+                }
+                batch = current;
+                current = new Batch();
+            }
+
+            try {
+                flusher.flush(batch.ids);
+                batch.flushed.complete(null);
+            } catch (Exception e) {
+                logger.error("Write-behind flush failed: {}", e.getMessage());
+                batch.flushed.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+import org.junit.*;
+import Weather.util.AsyncLogger;
+import org.slf4j.Marker;
+import org.slf4j.event.Level;
+import org.slf4j.helpers.AbstractLogger;
+import org.slf4j.helpers.MessageFormatter;
+
+import java.util.*;
+
+public class AsyncLoggerTest {
+
+    /** Backing logger that keeps the formatted messages it is given. */
+    private static class RecordingLogger extends AbstractLogger {
+        final List<String> lines = Collections.synchronizedList(new ArrayList<>());
+
+        RecordingLogger() {
+            this.name = "recording";
+        }
+
+        protected void handleNormalizedLoggingCall(Level level, Marker marker, String pattern, Object[] arguments, Throwable throwable) {
+            lines.add(level + " " + MessageFormatter.basicArrayFormat(pattern, arguments));
+        }
+
+        protected String getFullyQualifiedCallerName() {
+            return null;
+        }
+
+        public boolean isTraceEnabled() { return false; }
+        public boolean isTraceEnabled(Marker marker) { return false; }
+        public boolean isDebugEnabled() { return false; }
+        public boolean isDebugEnabled(Marker marker) { return false; }
+        public boolean isInfoEnabled() { return true; }
+        public boolean isInfoEnabled(Marker marker) { return true; }
+        public boolean isWarnEnabled() { return true; }
+        public boolean isWarnEnabled(Marker marker) { return true; }
+        public boolean isErrorEnabled() { return true; }
+        public boolean isErrorEnabled(Marker marker) { return true; }
+    }
+
+    @Test
+    public void testMessagesAreWrittenInOrderWithArguments() throws Exception {
+        RecordingLogger target = new RecordingLogger();
+        AsyncLogger logger = new AsyncLogger(target, 100);
+
+        logger.info("Recovered {} entries from {}.", 3, "weather-log");
+        logger.error("Persistence failed: {}", "disk full");
+        logger.debug("not enabled {}", 1);
+
+        awaitLines(target, 2);
+        Assert.assertEquals(Arrays.asList("INFO Recovered 3 entries from weather-log.", "ERROR Persistence failed: disk full"),
+                target.lines);
+    }
+
+    @Test
+    public void testFloodOfOneMessageIsRateLimited() throws Exception {
+        RecordingLogger target = new RecordingLogger();
+        AsyncLogger logger = new AsyncLogger(target, 5);
+
+        for (int i = 0; i < 1000; i++) {
+            logger.warn("Failed to parse HTTP request: {}", "bad line " + i);
+        }
+        logger.info("Other message {}", 1); // has a limit of its own
+
+        awaitLines(target, 6);
+        Thread.sleep(200);
+        long parseLines = target.lines.stream().filter(l -> l.startsWith("WARN Failed to parse")).count();
+        Assert.assertTrue("at most two windows' worth: " + parseLines, parseLines >= 5 && parseLines <= 10);
+        Assert.assertTrue(target.lines.contains("INFO Other message 1"));
+
+        // The first message of a later window reports what was suppressed before it
+        Thread.sleep(1100);
+        int before = target.lines.size();
+        logger.warn("Failed to parse HTTP request: {}", "after");
+        awaitLines(target, before + 2);
+        String summary = target.lines.get(target.lines.size() - 2);
+        Assert.assertTrue(summary, summary.startsWith("WARN Suppressed ") && summary.contains("Failed to parse HTTP request"));
+        Assert.assertEquals("WARN Failed to parse HTTP request: after", target.lines.get(target.lines.size() - 1));
+    }
+
+    private static void awaitLines(RecordingLogger target, int count) throws InterruptedException {
+        for (int i = 0; i < 200 && target.lines.size() < count; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue("expected " + count + " lines, got " + target.lines, target.lines.size() >= count);
+    }
+}
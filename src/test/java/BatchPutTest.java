@@ -0,0 +1,103 @@
+import org.junit.*;
+import Weather.server.AggregationServer;
+import Weather.util.HttpParser;
+import Weather.util.HttpResponse;
+import com.google.gson.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+
+public class BatchPutTest {
+    private static final int PORT = 5686;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        Thread serverThread = new Thread(() -> {
+            try {
+                new AggregationServer(PORT).start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        try { Thread.sleep(2000); } catch (InterruptedException ignored) {}
+    }
+
+    @Test
+    public void testJsonArrayBatchReportsEachRecord() throws Exception {
+        String batch = "[ { \"id\": \"B1\", \"air_temp\": \"10.1\" }, { \"id\": \"B2\", \"name\": \"Bärenstein\" },"
+                + " { \"name\": \"no id\" }, 42 ]";
+        HttpResponse response = send("PUT /weather.json", "application/json", batch);
+
+        Assert.assertEquals(200, response.statusCode);
+        JsonObject result = JsonParser.parseString(response.body).getAsJsonObject();
+        Assert.assertEquals(2, result.get("applied").getAsInt());
+        Assert.assertEquals(2, result.get("rejected").getAsInt());
+        Assert.assertFalse(result.get("ack").getAsBoolean());
+        Assert.assertEquals("Batch is stamped with the request's Lamport time",
+                response.headers.get("Lamport-Clock"), result.get("lamport").getAsString());
+
+        JsonArray results = result.getAsJsonArray("results");
+        Assert.assertEquals(201, results.get(0).getAsJsonObject().get("status").getAsInt());
+        Assert.assertEquals("B2", results.get(1).getAsJsonObject().get("id").getAsString());
+        Assert.assertEquals(400, results.get(2).getAsJsonObject().get("status").getAsInt());
+        Assert.assertEquals(400, results.get(3).getAsJsonObject().get("status").getAsInt());
+
+        HttpResponse b2 = send("GET /weather/B2", null, null);
+        Assert.assertEquals("Bärenstein", JsonParser.parseString(b2.body).getAsJsonObject().get("name").getAsString());
+    }
+
+    @Test
+    public void testNdjsonBatch() throws Exception {
+        String ndjson = "{ \"id\": \"N1\", \"air_temp\": \"1.0\" }\n{ \"id\": \"N2\", \"air_temp\": \"2.0\" }\n\n{ broken\n";
+        HttpResponse response = send("PUT /weather.json", "application/x-ndjson", ndjson);
+
+        JsonObject result = JsonParser.parseString(response.body).getAsJsonObject();
+        Assert.assertEquals(2, result.get("applied").getAsInt());
+        Assert.assertEquals(1, result.get("rejected").getAsInt());
+        Assert.assertEquals(200, send("GET /weather/N2", null, null).statusCode);
+
+        // Re-sending updates rather than creates
+        HttpResponse again = send("PUT /weather.json", "application/x-ndjson", "{ \"id\": \"N1\", \"air_temp\": \"1.5\" }\n");
+        JsonObject record = JsonParser.parseString(again.body).getAsJsonObject().getAsJsonArray("results").get(0).getAsJsonObject();
+        Assert.assertEquals(200, record.get("status").getAsInt());
+    }
+
+    @Test
+    public void testMalformedArrayIsABadRequest() throws Exception {
+        HttpResponse response = send("PUT /weather.json", "application/json", "[ { \"id\": \"M1\" }, ");
+        Assert.assertEquals(400, response.statusCode);
+        Assert.assertEquals("batch is not a valid JSON array",
+                JsonParser.parseString(response.body).getAsJsonObject().get("error").getAsString());
+        Assert.assertEquals(404, send("GET /weather/M1", null, null).statusCode);
+
+        Assert.assertEquals(400, send("PUT /weather.json", "application/json", "[ 1 ] [ 2 ]").statusCode);
+    }
+
+    private static HttpResponse send(String requestLine, String contentType, String body) throws IOException {
+        try (Socket socket = new Socket("localhost", PORT);
+             OutputStream out = socket.getOutputStream();
+             InputStream in = new BufferedInputStream(socket.getInputStream())) {
+
+            StringBuilder request = new StringBuilder(requestLine).append(" HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n");
+            byte[] bytes = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+            if (body != null) {
+                request.append("Content-Type: ").append(contentType).append("\r\n")
+                        .append("Content-Length: ").append(bytes.length).append("\r\n");
+            }
+            request.append("\r\n");
+            out.write(request.toString().getBytes(StandardCharsets.US_ASCII));
+            out.write(bytes);
+            out.flush();
+            return HttpParser.parseResponse(in);
+        }
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        new File("weather.json").delete();
+    }
+}
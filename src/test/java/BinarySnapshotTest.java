@@ -0,0 +1,65 @@
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import Weather.util.BinarySnapshot;
+import Weather.util.PersistenceManager;
+import com.google.gson.*;
+
+import java.io.*;
+import java.util.*;
+
+public class BinarySnapshotTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testRoundTripKeepsValuesAndTypes() throws Exception {
+        JsonObject station = JsonParser.parseString("{ \"id\": \"IDS60901\", \"name\": \"Adelaide (West Terrace /  ngayirdapira)\","
+                + " \"air_temp\": 13.3, \"rel_hum\": \"67\", \"raining\": false, \"note\": null,"
+                + " \"extra\": { \"levels\": [1, 2, 3] } }").getAsJsonObject();
+
+        File file = tmp.newFile("weather.snap");
+        try (BinarySnapshot.Writer writer = new BinarySnapshot.Writer(file, 42)) {
+            writer.add("IDS60901", 7, station);
+        }
+
+        BinarySnapshot snapshot = BinarySnapshot.open(file);
+        Assert.assertEquals(1, snapshot.size());
+        Assert.assertEquals(42, snapshot.getMaxLamport());
+        Assert.assertEquals(7, snapshot.lamport(0));
+        Assert.assertEquals(station, snapshot.get("IDS60901"));
+    }
+
+    @Test
+    public void testLookupByIdWithoutDecodingAll() throws Exception {
+        File file = tmp.newFile("weather.snap");
+        try (BinarySnapshot.Writer writer = new BinarySnapshot.Writer(file, 0)) {
+            // Added out of order; the index is sorted on close
+            for (int i = 999; i >= 0; i--) {
+                JsonObject obj = new JsonObject();
+                obj.addProperty("id", "S" + i);
+                obj.addProperty("air_temp", String.valueOf(i));
+                writer.add("S" + i, i, obj);
+            }
+        }
+
+        BinarySnapshot snapshot = BinarySnapshot.open(file);
+        Assert.assertEquals("500", snapshot.get("S500").get("air_temp").getAsString());
+        Assert.assertNull(snapshot.get("missing"));
+        Assert.assertEquals(1000, snapshot.decodeAll().size());
+    }
+
+    @Test
+    public void testPersistenceManagerBinaryFormat() throws Exception {
+        Map<String, JsonObject> data = new HashMap<>();
+        for (int i = 0; i < 50; i++) {
+            JsonObject obj = new JsonObject();
+            obj.addProperty("id", "P" + i);
+            obj.addProperty("air_temp", String.valueOf(i * 0.5));
+            data.put("P" + i, obj);
+        }
+
+        File file = new File(tmp.getRoot(), "weather.snap");
+        new PersistenceManager(file.getPath(), true).save(data);
+        Assert.assertEquals(data, new PersistenceManager(file.getPath(), true).load());
+    }
+}
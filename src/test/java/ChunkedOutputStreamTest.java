@@ -0,0 +1,39 @@
+import org.junit.*;
+import Weather.util.ChunkedOutputStream;
+import Weather.util.HttpParser;
+import Weather.util.HttpResponse;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+public class ChunkedOutputStreamTest {
+
+    @Test
+    public void testRoundTripKeepsMultibyteCharactersWhole() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            text.append("Zürich ").append(i).append(" – 北京 🌧 ");
+        }
+
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        wire.write("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        // A chunk size that is not a multiple of any character length forces splits inside characters
+        ChunkedOutputStream chunked = new ChunkedOutputStream(wire, 37);
+        chunked.write(text.toString().getBytes(StandardCharsets.UTF_8));
+        chunked.close();
+        wire.write("HTTP/1.1 204 No Content\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(wire.toByteArray()), StandardCharsets.UTF_8));
+        HttpResponse response = HttpParser.parseResponse(in);
+        Assert.assertEquals(text.toString(), response.body);
+        Assert.assertEquals("The next response on the connection is intact", 204, HttpParser.parseResponse(in).statusCode);
+    }
+
+    @Test
+    public void testEmptyBodyIsOnlyTheLastChunk() throws Exception {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        new ChunkedOutputStream(wire).close();
+        Assert.assertEquals("0\r\n\r\n", wire.toString(StandardCharsets.US_ASCII));
+    }
+}
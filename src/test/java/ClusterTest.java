@@ -0,0 +1,189 @@
+import org.junit.*;
+import Weather.server.AggregationServer;
+import Weather.server.ServerConfig;
+import Weather.util.HttpParser;
+import Weather.util.HttpResponse;
+import com.google.gson.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+public class ClusterTest {
+    private static final int[] PORTS = {5689, 5690, 5691};
+    private static final String CLUSTER = "--cluster=localhost:5689,localhost:5690,localhost:5691";
+
+    @BeforeClass
+    public static void startCluster() throws Exception {
+        for (int port : PORTS) {
+            ServerConfig config = ServerConfig.fromArgs(new String[]{String.valueOf(port), CLUSTER});
+            Thread serverThread = new Thread(() -> {
+                try {
+                    new AggregationServer(config).start();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            serverThread.setDaemon(true);
+            serverThread.start();
+        }
+
+        try { Thread.sleep(2000); } catch (InterruptedException ignored) {}
+    }
+
+    @Test
+    public void testEachStationIsStoredOnOneNodeAndReadableFromAny() throws Exception {
+        for (int i = 0; i < 30; i++) {
+            String body = "{ \"id\": \"CLA" + i + "\", \"name\": \"Sharded " + i + "\", \"air_temp\": \"" + i + ".5\" }";
+            HttpResponse put = send(PORTS[i % 3], "PUT /weather.json", "Content-Type: application/json\r\n", body);
+            Assert.assertEquals(put.body, 201, put.statusCode);
+        }
+
+        // Asked as a peer (Cluster-Hop), a node answers with its own stations only
+        Map<String, Integer> holders = new HashMap<>();
+        int nodesUsed = 0;
+        for (int port : PORTS) {
+            Set<String> local = ids(send(port, "GET /weather.json", "Cluster-Hop: test\r\n", null).body, "CLA");
+            local.forEach(id -> holders.merge(id, 1, Integer::sum));
+            nodesUsed += local.isEmpty() ? 0 : 1;
+        }
+        Assert.assertEquals(30, holders.size());
+        Assert.assertTrue("every station on exactly one node", holders.values().stream().allMatch(n -> n == 1));
+        Assert.assertTrue("stations spread over the nodes", nodesUsed >= 2);
+
+        for (int port : PORTS) {
+            Assert.assertEquals(holders.keySet(), ids(send(port, "GET /weather.json", "", null).body, "CLA"));
+            HttpResponse one = send(port, "GET /weather/CLA7", "", null);
+            Assert.assertEquals(200, one.statusCode);
+            Assert.assertEquals("7.5", JsonParser.parseString(one.body).getAsJsonObject().get("air_temp").getAsString());
+        }
+    }
+
+    @Test
+    public void testBatchIsSplitByOwnerAndResultsKeepBatchOrder() throws Exception {
+        JsonArray batch = new JsonArray();
+        for (int i = 0; i < 12; i++) {
+            JsonObject station = new JsonObject();
+            station.addProperty("id", "CLB" + i);
+            station.addProperty("name", "Batch " + i);
+            batch.add(station);
+        }
+        batch.add(new JsonObject()); // no id
+        HttpResponse response = send(PORTS[1], "PUT /weather.json", "Content-Type: application/json\r\n", batch.toString());
+        Assert.assertEquals(200, response.statusCode);
+
+        JsonObject result = JsonParser.parseString(response.body).getAsJsonObject();
+        Assert.assertEquals(12, result.get("applied").getAsInt());
+        Assert.assertEquals(1, result.get("rejected").getAsInt());
+        JsonArray results = result.getAsJsonArray("results");
+        for (int i = 0; i < 12; i++) {
+            JsonObject record = results.get(i).getAsJsonObject();
+            Assert.assertEquals(i, record.get("index").getAsInt());
+            Assert.assertEquals("CLB" + i, record.get("id").getAsString());
+            Assert.assertEquals(201, record.get("status").getAsInt());
+        }
+        Assert.assertEquals(400, results.get(12).getAsJsonObject().get("status").getAsInt());
+
+        Assert.assertEquals(12, ids(send(PORTS[2], "GET /weather.json", "", null).body, "CLB").size());
+    }
+
+    @Test
+    public void testLamportTimeCrossesTheHop() throws Exception {
+        // Sent to every node, so for at least two of them the station lives elsewhere
+        for (int port : PORTS) {
+            String body = "{ \"id\": \"CLL1\", \"name\": \"Lamport\" }";
+            HttpResponse put = send(port, "PUT /weather.json", "Lamport-Clock: " + (100000 + port) + "\r\n", body);
+            Assert.assertTrue(put.statusCode == 200 || put.statusCode == 201);
+            Assert.assertEquals("the sender's stamp is kept", String.valueOf(100000 + port), put.headers.get("Station-Lamport"));
+            Assert.assertTrue(Long.parseLong(put.headers.get("Lamport-Clock")) > 100000 + port);
+        }
+        // Whichever node stores the station has seen the forwarded clocks
+        for (int port : PORTS) {
+            HttpResponse local = send(port, "GET /weather.json?id=CLL1", "Cluster-Hop: test\r\n", null);
+            if (ids(local.body, "CLL1").size() == 1) {
+                Assert.assertTrue(Long.parseLong(local.headers.get("Lamport-Clock")) > 100000 + PORTS[2]);
+            }
+        }
+    }
+
+    @Test
+    public void testPagingMergesNodesInIdOrder() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            String body = "{ \"id\": \"CLP" + (char) ('a' + i) + "\" }";
+            send(PORTS[0], "PUT /weather.json", "", body);
+        }
+        List<String> seen = new ArrayList<>();
+        String cursor = "CLP";
+        while (cursor != null) {
+            HttpResponse page = send(PORTS[2], "GET /weather.json?limit=6&fields=id&cursor=" + cursor, "", null);
+            Assert.assertEquals(200, page.statusCode);
+            JsonArray stations = JsonParser.parseString(page.body).getAsJsonArray();
+            Assert.assertTrue(stations.size() <= 6);
+            for (JsonElement el : stations) {
+                seen.add(el.getAsJsonObject().get("id").getAsString());
+            }
+            String next = page.headers.get("Next-Cursor");
+            cursor = next != null && next.startsWith("CLP") ? URLDecoder.decode(next, "UTF-8") : null;
+        }
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            expected.add("CLP" + (char) ('a' + i));
+        }
+        Assert.assertEquals(expected, seen.subList(0, Math.min(20, seen.size())));
+
+        Assert.assertEquals(400, send(PORTS[2], "GET /weather.json?limit=x", "", null).statusCode);
+        Assert.assertEquals(400, send(PORTS[2], "GET /weather/%zz", "", null).statusCode);
+    }
+
+    @Test
+    public void testMergedVersionsDriveConditionalAndDeltaGets() throws Exception {
+        send(PORTS[0], "PUT /weather.json", "", "{ \"id\": \"CLD1\", \"name\": \"Delta\" }");
+
+        HttpResponse full = send(PORTS[1], "GET /weather.json", "", null);
+        String etag = full.headers.get("ETag");
+        Assert.assertEquals("one version per node", 3, etag.replace("\"", "").split("\\.").length);
+        Assert.assertEquals(304, send(PORTS[2], "GET /weather.json", "If-None-Match: " + etag + "\r\n", null).statusCode);
+
+        JsonObject first = JsonParser.parseString(send(PORTS[0], "GET /weather.json?since=0", "", null).body).getAsJsonObject();
+        Assert.assertTrue(first.get("full").getAsBoolean());
+        String version = first.get("version").getAsString();
+
+        send(PORTS[2], "PUT /weather.json", "", "{ \"id\": \"CLD2\", \"name\": \"Delta two\" }");
+        HttpResponse delta = send(PORTS[1], "GET /weather.json?since=" + version, "", null);
+        Assert.assertEquals(200, delta.statusCode);
+        JsonObject changes = JsonParser.parseString(delta.body).getAsJsonObject();
+        Assert.assertFalse(changes.get("full").getAsBoolean());
+        Assert.assertTrue(ids(changes.getAsJsonArray("changed").toString(), "CLD").contains("CLD2"));
+        Assert.assertFalse(ids(changes.getAsJsonArray("changed").toString(), "CLD").contains("CLD1"));
+
+        String latest = changes.get("version").getAsString();
+        Assert.assertEquals(304, send(PORTS[0], "GET /weather.json?since=" + latest, "", null).statusCode);
+    }
+
+    // Ids in a JSON array of stations that start with prefix
+    private static Set<String> ids(String body, String prefix) {
+        Set<String> ids = new TreeSet<>();
+        for (JsonElement el : JsonParser.parseString(body).getAsJsonArray()) {
+            String id = el.getAsJsonObject().get("id").getAsString();
+            if (id.startsWith(prefix)) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    private static HttpResponse send(int port, String requestLine, String headers, String body) throws IOException {
+        try (Socket socket = new Socket("localhost", port);
+             OutputStream out = socket.getOutputStream();
+             InputStream in = new BufferedInputStream(socket.getInputStream())) {
+
+            byte[] payload = body == null ? new byte[0] : body.getBytes("UTF-8");
+            String request = requestLine + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n" + headers
+                    + (body == null ? "" : "Content-Length: " + payload.length + "\r\n") + "\r\n";
+            out.write(request.getBytes("UTF-8"));
+            out.write(payload);
+            out.flush();
+            return HttpParser.parseResponse(in);
+        }
+    }
+}
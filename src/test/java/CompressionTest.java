@@ -0,0 +1,76 @@
+import org.junit.*;
+import Weather.server.AggregationServer;
+import Weather.util.HttpParser;
+import Weather.util.HttpResponse;
+import com.google.gson.*;
+
+import java.io.*;
+import java.net.*;
+
+public class CompressionTest {
+    private static final int PORT = 5685;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        Thread serverThread = new Thread(() -> {
+            try {
+                new AggregationServer(PORT).start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        try { Thread.sleep(2000); } catch (InterruptedException ignored) {}
+
+        for (int i = 0; i < 100; i++) {
+            String body = "{ \"id\": \"GZ" + i + "\", \"name\": \"Compressed Station " + i + "\", \"state\": \"SA\", \"air_temp\": \"13.3\" }";
+            get("PUT /weather.json", "Content-Length: " + body.length() + "\r\n", body);
+        }
+    }
+
+    @Test
+    public void testFeedIsGzippedWhenAccepted() throws Exception {
+        HttpResponse plain = get("GET /weather.json", "", "");
+        HttpResponse gzipped = get("GET /weather.json", "Accept-Encoding: gzip, deflate\r\n", "");
+
+        Assert.assertNull(plain.headers.get("Content-Encoding"));
+        Assert.assertEquals("gzip", gzipped.headers.get("Content-Encoding"));
+        Assert.assertEquals("Accept-Encoding", gzipped.headers.get("Vary"));
+        Assert.assertTrue("Compressed feed should be much smaller",
+                Integer.parseInt(gzipped.headers.get("Content-Length")) * 3 < Integer.parseInt(plain.headers.get("Content-Length")));
+        Assert.assertEquals(JsonParser.parseString(plain.body), JsonParser.parseString(gzipped.body));
+    }
+
+    @Test
+    public void testStreamedDeltaIsGzipped() throws Exception {
+        HttpResponse delta = get("GET /weather.json?since=0", "Accept-Encoding: gzip\r\n", "");
+        Assert.assertEquals("gzip", delta.headers.get("Content-Encoding"));
+        Assert.assertEquals("chunked", delta.headers.get("Transfer-Encoding"));
+        Assert.assertTrue(JsonParser.parseString(delta.body).getAsJsonObject().getAsJsonArray("changed").size() >= 100);
+    }
+
+    @Test
+    public void testRefusedGzipIsNotUsed() throws Exception {
+        HttpResponse response = get("GET /weather.json", "Accept-Encoding: gzip;q=0, identity\r\n", "");
+        Assert.assertNull(response.headers.get("Content-Encoding"));
+        Assert.assertTrue(response.body.contains("GZ0"));
+    }
+
+    private static HttpResponse get(String requestLine, String headers, String body) throws IOException {
+        try (Socket socket = new Socket("localhost", PORT);
+             OutputStream out = socket.getOutputStream();
+             InputStream in = new BufferedInputStream(socket.getInputStream())) {
+
+            out.write((requestLine + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n" + headers + "\r\n" + body).getBytes());
+            out.flush();
+            return HttpParser.parseResponse(in);
+        }
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        new File("weather.json").delete();
+    }
+}
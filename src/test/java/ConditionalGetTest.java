@@ -0,0 +1,110 @@
+import org.junit.*;
+import Weather.server.AggregationServer;
+import Weather.util.HttpParser;
+import Weather.util.HttpResponse;
+import com.google.gson.*;
+
+import java.io.*;
+import java.net.*;
+
+public class ConditionalGetTest {
+    private static final int PORT = 5682;
+
+    @BeforeClass
+    public static void startServer() {
+        Thread serverThread = new Thread(() -> {
+            try {
+                new AggregationServer(PORT).start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        try { Thread.sleep(2000); } catch (InterruptedException ignored) {}
+    }
+
+    @Test
+    public void testIfNoneMatchReturns304UntilDataChanges() throws Exception {
+        put("{ \"id\": \"ETAG1\", \"air_temp\": \"10.0\" }");
+        HttpResponse first = send("GET /weather.json", null);
+        String etag = first.headers.get("ETag");
+        Assert.assertNotNull("GET should carry an ETag", etag);
+
+        HttpResponse unchanged = send("GET /weather.json", "If-None-Match: " + etag);
+        Assert.assertEquals(304, unchanged.statusCode);
+        Assert.assertNull("304 has no body", unchanged.body);
+
+        put("{ \"id\": \"ETAG1\", \"air_temp\": \"11.0\" }");
+        HttpResponse changed = send("GET /weather.json", "If-None-Match: " + etag);
+        Assert.assertEquals(200, changed.statusCode);
+        Assert.assertNotEquals(etag, changed.headers.get("ETag"));
+    }
+
+    @Test
+    public void testDeltaReturnsOnlyChangedStations() throws Exception {
+        put("{ \"id\": \"DELTA1\", \"air_temp\": \"1.0\" }");
+        put("{ \"id\": \"DELTA2\", \"air_temp\": \"2.0\" }");
+        JsonObject base = JsonParser.parseString(send("GET /weather.json?since=0", null).body).getAsJsonObject();
+        String version = base.get("version").getAsString();
+
+        put("{ \"id\": \"DELTA2\", \"air_temp\": \"2.5\" }");
+        JsonObject delta = JsonParser.parseString(send("GET /weather.json?since=" + version, null).body).getAsJsonObject();
+
+        Assert.assertFalse(delta.get("full").getAsBoolean());
+        JsonArray changed = delta.getAsJsonArray("changed");
+        Assert.assertEquals(1, changed.size());
+        Assert.assertEquals("DELTA2", changed.get(0).getAsJsonObject().get("id").getAsString());
+        Assert.assertEquals("2.5", changed.get(0).getAsJsonObject().get("air_temp").getAsString());
+
+        HttpResponse none = send("GET /weather.json?since=" + delta.get("version").getAsString(), null);
+        Assert.assertEquals(304, none.statusCode);
+    }
+
+    @Test
+    public void testVersionsFromAnotherRunGetAFullResync() throws Exception {
+        put("{ \"id\": \"DELTA3\", \"air_temp\": \"3.0\" }");
+        String version = JsonParser.parseString(send("GET /weather.json?since=0", null).body)
+                .getAsJsonObject().get("version").getAsString();
+        String epoch = version.substring(0, version.lastIndexOf('-'));
+
+        // Ahead of this run, as after a restart, and the same number under an older epoch
+        for (String since : new String[]{epoch + "-999999", "x" + version, "999999"}) {
+            HttpResponse response = send("GET /weather.json?since=" + since, null);
+            Assert.assertEquals(since, 200, response.statusCode);
+            Assert.assertTrue(since, JsonParser.parseString(response.body).getAsJsonObject().get("full").getAsBoolean());
+        }
+        Assert.assertEquals(200, send("GET /weather.json", "If-None-Match: \"" + version.substring(version.lastIndexOf('-') + 1) + "\"").statusCode);
+        Assert.assertEquals(400, send("GET /weather.json?since=abc", null).statusCode);
+    }
+
+    private void put(String body) throws IOException {
+        send("PUT /weather.json", "Content-Length: " + body.length() + "\r\n\r\n" + body);
+    }
+
+    // extra is appended after the Host header: more headers, or headers plus a body
+    private HttpResponse send(String requestLine, String extra) throws IOException {
+        try (Socket socket = new Socket("localhost", PORT);
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+
+            String request = requestLine + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n";
+            if (extra == null) {
+                request += "\r\n";
+            } else if (extra.contains("\r\n\r\n")) {
+                request += extra;
+            } else {
+                request += extra + "\r\n\r\n";
+            }
+            out.write(request);
+            out.flush();
+            return HttpParser.parseResponse(in);
+        }
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        new File("weather.json").delete();
+    }
+}
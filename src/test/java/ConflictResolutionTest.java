@@ -0,0 +1,115 @@
+import org.junit.*;
+import Weather.server.AggregationServer;
+import Weather.util.HttpParser;
+import Weather.util.HttpResponse;
+import com.google.gson.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ConflictResolutionTest {
+    private static final int PORT = 5687;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        Thread serverThread = new Thread(() -> {
+            try {
+                new AggregationServer(PORT).start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        try { Thread.sleep(2000); } catch (InterruptedException ignored) {}
+    }
+
+    @Test
+    public void testStaleWriteIsRejected() throws Exception {
+        Assert.assertEquals(201, put("CR1", 10, "a", "new").statusCode);
+
+        HttpResponse stale = put("CR1", 5, "a", "old");
+        Assert.assertEquals(409, stale.statusCode);
+        Assert.assertEquals("Winning timestamp is reported", "10", stale.headers.get("Station-Lamport"));
+        JsonObject body = JsonParser.parseString(stale.body).getAsJsonObject();
+        Assert.assertFalse(body.get("ack").getAsBoolean());
+        Assert.assertEquals(10, body.get("lamport").getAsLong());
+        Assert.assertEquals("new", station("CR1").get("value").getAsString());
+
+        HttpResponse newer = put("CR1", 11, "a", "newer");
+        Assert.assertEquals(200, newer.statusCode);
+        Assert.assertEquals("11", newer.headers.get("Station-Lamport"));
+    }
+
+    @Test
+    public void testOriginBreaksTies() throws Exception {
+        put("CR2", 20, "b", "from b");
+        Assert.assertEquals(409, put("CR2", 20, "a", "from a").statusCode);
+        Assert.assertEquals(200, put("CR2", 20, "c", "from c").statusCode);
+        Assert.assertEquals("from c", station("CR2").get("value").getAsString());
+    }
+
+    @Test
+    public void testHighestStampWinsUnderConcurrentWrites() throws Exception {
+        List<Integer> stamps = new ArrayList<>();
+        for (int i = 1; i <= 200; i++) {
+            stamps.add(i);
+        }
+        Collections.shuffle(stamps, new Random(42));
+
+        ExecutorService exec = Executors.newFixedThreadPool(16);
+        List<Future<HttpResponse>> results = new ArrayList<>();
+        for (int stamp : stamps) {
+            results.add(exec.submit(() -> put("CR3", stamp, "x", String.valueOf(stamp))));
+        }
+        for (Future<HttpResponse> f : results) {
+            int status = f.get(10, TimeUnit.SECONDS).statusCode;
+            Assert.assertTrue(status == 200 || status == 201 || status == 409);
+        }
+        exec.shutdown();
+
+        Assert.assertEquals("200", station("CR3").get("value").getAsString());
+    }
+
+    @Test
+    public void testMalformedClockIsABadRequest() throws Exception {
+        String body = "{ \"id\": \"CR4\", \"value\": \"v\" }";
+        HttpResponse response = send("PUT /weather.json HTTP/1.1\r\nLamport-Clock: soon\r\nContent-Length: "
+                + body.length() + "\r\n", body);
+        Assert.assertEquals(400, response.statusCode);
+        Assert.assertEquals("Lamport-Clock must be a number",
+                JsonParser.parseString(response.body).getAsJsonObject().get("error").getAsString());
+
+        response = send("GET /weather.json HTTP/1.1\r\nCluster-Lamport: 12x\r\n", "");
+        Assert.assertEquals(400, response.statusCode);
+    }
+
+    private static JsonObject station(String id) throws IOException {
+        return JsonParser.parseString(send("GET /weather/" + id + " HTTP/1.1\r\n", "").body).getAsJsonObject();
+    }
+
+    private static HttpResponse put(String id, int lamport, String origin, String value) throws IOException {
+        String body = "{ \"id\": \"" + id + "\", \"value\": \"" + value + "\" }";
+        return send("PUT /weather.json HTTP/1.1\r\nLamport-Clock: " + lamport + "\r\nOrigin-Id: " + origin
+                + "\r\nContent-Length: " + body.getBytes(StandardCharsets.UTF_8).length + "\r\n", body);
+    }
+
+    private static HttpResponse send(String head, String body) throws IOException {
+        try (Socket socket = new Socket("localhost", PORT);
+             OutputStream out = socket.getOutputStream();
+             InputStream in = new BufferedInputStream(socket.getInputStream())) {
+            out.write((head + "Host: localhost\r\nConnection: close\r\n\r\n" + body).getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            return HttpParser.parseResponse(in);
+        }
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        new File("weather.json").delete();
+    }
+}
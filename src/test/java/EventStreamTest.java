@@ -0,0 +1,224 @@
+import org.junit.*;
+import Weather.server.AggregationServer;
+import Weather.server.ServerConfig;
+import Weather.util.HttpParser;
+import Weather.util.HttpResponse;
+import com.google.gson.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class EventStreamTest {
+    private static final int PORT = 5695;
+    private static final int NIO_PORT = 5696;
+
+    @BeforeClass
+    public static void startServers() {
+        startServer(String.valueOf(PORT), "--event-buffer=16");
+        startServer(String.valueOf(NIO_PORT), "--transport=nio", "--worker-threads=2");
+
+        try { Thread.sleep(2000); } catch (InterruptedException ignored) {}
+    }
+
+    private static void startServer(String... args) {
+        Thread serverThread = new Thread(() -> {
+            try {
+                new AggregationServer(ServerConfig.fromArgs(args)).start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    @Test
+    public void testPutsAndExpiriesArePushedToFilteredSubscribers() throws Exception {
+        try (Subscription all = new Subscription(PORT, "/events", null);
+             Subscription one = new Subscription(PORT, "/events?id=EVT2", null)) {
+            Assert.assertEquals(201, put(PORT, "{ \"id\": \"EVT1\", \"air_temp\": \"10.5\" }", "Lamport-Clock: 900\r\n").statusCode);
+            Assert.assertEquals(201, put(PORT, "{ \"id\": \"EVT2\", \"air_temp\": \"7.0\" }", "Station-TTL: 300\r\n").statusCode);
+
+            Event first = all.next();
+            Assert.assertEquals("put", first.type);
+            JsonObject data = JsonParser.parseString(first.data).getAsJsonObject();
+            Assert.assertEquals("EVT1", data.get("id").getAsString());
+            Assert.assertEquals(900, data.get("lamport").getAsLong());
+            Assert.assertEquals("10.5", data.getAsJsonObject("station").get("air_temp").getAsString());
+            Assert.assertEquals("EVT2", JsonParser.parseString(all.next().data).getAsJsonObject().get("id").getAsString());
+
+            // The filtered stream sees EVT2 only: its PUT, then its expiry
+            Event put = one.next();
+            Assert.assertEquals("put", put.type);
+            Assert.assertEquals("EVT2", JsonParser.parseString(put.data).getAsJsonObject().get("id").getAsString());
+            Event expired = one.next();
+            Assert.assertEquals("expire", expired.type);
+            Assert.assertEquals("{\"id\":\"EVT2\"}", expired.data);
+            Assert.assertTrue(Long.parseLong(expired.id) > Long.parseLong(put.id));
+
+            // A client reconnecting with Last-Event-ID gets what it missed
+            try (Subscription resumed = new Subscription(PORT, "/events?ids=EVT1,EVT2", first.id)) {
+                Event missed = resumed.next();
+                Assert.assertEquals(put.id, missed.id);
+                Assert.assertEquals(put.data, missed.data);
+                Assert.assertEquals(expired.id, resumed.next().id);
+            }
+        }
+    }
+
+    @Test
+    public void testSlowSubscriberDoesNotHoldUpPutsAndIsReset() throws Exception {
+        try (Subscription stalled = new Subscription(PORT, "/events?ids=EVS0,EVS1,EVS2", null)) {
+            // Far more than the socket buffers hold while the subscriber reads nothing
+            char[] padding = new char[8192];
+            Arrays.fill(padding, 'x');
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < 3000; i++) {
+                String body = "{ \"id\": \"EVS" + (i % 3) + "\", \"note\": \"" + new String(padding) + "\" }";
+                int status = put(PORT, body, "").statusCode;
+                Assert.assertTrue(status == 200 || status == 201);
+            }
+            Assert.assertTrue("PUTs were held up by the stalled subscriber", System.currentTimeMillis() - start < 30000);
+
+            // Once it reads again, it is told that it missed events
+            boolean reset = false;
+            for (int i = 0; i < 3000 && !reset; i++) {
+                reset = stalled.next().type.equals("reset");
+            }
+            Assert.assertTrue(reset);
+        }
+    }
+
+    @Test
+    public void testSubscribersDoNotOccupyNioWorkers() throws Exception {
+        // More open streams than the server has workers
+        List<Subscription> streams = new ArrayList<>();
+        try {
+            for (int i = 0; i < 6; i++) {
+                streams.add(new Subscription(NIO_PORT, "/events?id=EVN1", null));
+            }
+            Assert.assertEquals(201, put(NIO_PORT, "{ \"id\": \"EVN1\", \"name\": \"Nio events\" }", "").statusCode);
+            for (Subscription stream : streams) {
+                Event event = stream.next();
+                Assert.assertEquals("put", event.type);
+                Assert.assertTrue(event.data.contains("Nio events"));
+            }
+        } finally {
+            for (Subscription stream : streams) {
+                stream.close();
+            }
+        }
+    }
+
+    private static final class Event {
+        String id;
+        String type;
+        String data;
+    }
+
+    /** Raw SSE client: decodes the chunked body and splits it into events, skipping comments. */
+    private static final class Subscription implements Closeable {
+        private final Socket socket;
+        private final InputStream in;
+        private final StringBuilder text = new StringBuilder();
+
+        Subscription(int port, String path, String lastEventId) throws IOException {
+            socket = new Socket();
+            socket.setReceiveBufferSize(16 * 1024); // so that a client that stops reading soon blocks the server
+            socket.connect(new InetSocketAddress("localhost", port));
+            socket.setSoTimeout(10000);
+            OutputStream out = socket.getOutputStream();
+            String request = "GET " + path + " HTTP/1.1\r\nHost: localhost\r\nAccept: text/event-stream\r\n"
+                    + (lastEventId == null ? "" : "Last-Event-ID: " + lastEventId + "\r\n") + "\r\n";
+            out.write(request.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            in = new BufferedInputStream(socket.getInputStream());
+
+            String status = readLine();
+            Assert.assertTrue(status, status.startsWith("HTTP/1.1 200"));
+            boolean eventStream = false;
+            for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+                eventStream |= line.toLowerCase().startsWith("content-type: text/event-stream");
+            }
+            Assert.assertTrue(eventStream);
+            // The stream opens with a comment, which also shows the subscription is in place
+            Assert.assertNull(nextOrComment());
+        }
+
+        Event next() throws IOException {
+            Event event;
+            while ((event = nextOrComment()) == null) {
+                // heartbeat
+            }
+            return event;
+        }
+
+        // The next event, or null for a comment
+        private Event nextOrComment() throws IOException {
+            int end;
+            while ((end = text.indexOf("\n\n")) < 0) {
+                readChunk();
+            }
+            String block = text.substring(0, end);
+            text.delete(0, end + 2);
+            if (block.startsWith(":")) {
+                return null;
+            }
+            Event event = new Event();
+            for (String line : block.split("\n")) {
+                String value = line.substring(line.indexOf(':') + 1).trim();
+                if (line.startsWith("id:")) {
+                    event.id = value;
+                } else if (line.startsWith("event:")) {
+                    event.type = value;
+                } else if (line.startsWith("data:")) {
+                    event.data = value;
+                }
+            }
+            return event;
+        }
+
+        private void readChunk() throws IOException {
+            int size = Integer.parseInt(readLine().trim(), 16);
+            Assert.assertTrue("stream ended", size > 0);
+            byte[] chunk = in.readNBytes(size);
+            text.append(new String(chunk, StandardCharsets.UTF_8));
+            readLine();
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c < 0) {
+                    throw new EOFException();
+                }
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            return line.toString();
+        }
+
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static HttpResponse put(int port, String body, String headers) throws IOException {
+        try (Socket socket = new Socket("localhost", port);
+             OutputStream out = socket.getOutputStream();
+             InputStream in = new BufferedInputStream(socket.getInputStream())) {
+
+            byte[] payload = body.getBytes(StandardCharsets.UTF_8);
+            String request = "PUT /weather.json HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n"
+                    + "Content-Type: application/json\r\n" + headers + "Content-Length: " + payload.length + "\r\n\r\n";
+            out.write(request.getBytes(StandardCharsets.UTF_8));
+            out.write(payload);
+            out.flush();
+            return HttpParser.parseResponse(in);
+        }
+    }
+}
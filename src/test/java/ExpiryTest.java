@@ -0,0 +1,87 @@
+import org.junit.*;
+import Weather.server.AggregationServer;
+import Weather.util.HttpParser;
+import Weather.util.HttpResponse;
+
+import java.io.*;
+import java.net.*;
+
+public class ExpiryTest {
+    private static final int PORT = 5684;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        Thread serverThread = new Thread(() -> {
+            try {
+                new AggregationServer(PORT).start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        try { Thread.sleep(2000); } catch (InterruptedException ignored) {}
+    }
+
+    @Test
+    public void testStationExpiresAfterItsOwnTtl() throws Exception {
+        Assert.assertEquals(201, put("TTL1", "Station-TTL: 300\r\n").statusCode);
+        Assert.assertEquals(200, get("TTL1").statusCode);
+
+        Thread.sleep(800);
+        Assert.assertEquals("Station should expire shortly after its TTL", 404, get("TTL1").statusCode);
+    }
+
+    @Test
+    public void testRePutExtendsDeadline() throws Exception {
+        put("TTL2", "Station-TTL: 600\r\n");
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(300);
+            put("TTL2", "Station-TTL: 600\r\n");
+        }
+        Assert.assertEquals("Station refreshed within its TTL must survive", 200, get("TTL2").statusCode);
+
+        Thread.sleep(1000);
+        Assert.assertEquals(404, get("TTL2").statusCode);
+    }
+
+    @Test
+    public void testDefaultTtlKeepsStation() throws Exception {
+        put("TTL3", "");
+        Thread.sleep(500);
+        Assert.assertEquals(200, get("TTL3").statusCode);
+    }
+
+    @Test
+    public void testInvalidTtlIsRejected() throws Exception {
+        Assert.assertEquals(400, put("TTL4", "Station-TTL: soon\r\n").statusCode);
+        Assert.assertEquals(404, get("TTL4").statusCode);
+    }
+
+    private static HttpResponse put(String id, String extraHeaders) throws IOException {
+        String body = "{ \"id\": \"" + id + "\", \"air_temp\": \"12.0\" }";
+        return send("PUT /weather.json HTTP/1.1\r\n" + extraHeaders
+                + "Content-Type: application/json\r\nContent-Length: " + body.length() + "\r\n", body);
+    }
+
+    private static HttpResponse get(String id) throws IOException {
+        return send("GET /weather/" + id + " HTTP/1.1\r\n", "");
+    }
+
+    private static HttpResponse send(String head, String body) throws IOException {
+        try (Socket socket = new Socket("localhost", PORT);
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+
+            out.write(head + "Host: localhost\r\nConnection: close\r\n\r\n" + body);
+            out.flush();
+            return HttpParser.parseResponse(in);
+        }
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        new File("weather.json").delete();
+    }
+}
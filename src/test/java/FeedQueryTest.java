@@ -0,0 +1,117 @@
+import org.junit.*;
+import Weather.server.AggregationServer;
+import Weather.util.HttpParser;
+import Weather.util.HttpResponse;
+import com.google.gson.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+public class FeedQueryTest {
+    private static final int PORT = 5683;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        Thread serverThread = new Thread(() -> {
+            try {
+                new AggregationServer(PORT).start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        try { Thread.sleep(2000); } catch (InterruptedException ignored) {}
+
+        for (int i = 0; i < 25; i++) {
+            String body = String.format("{ \"id\": \"Q%02d\", \"name\": \"Query %d\", \"air_temp\": \"%d.0\", \"wind_spd_kmh\": \"%d\" }", i, i, i, i * 2);
+            send("PUT /weather.json", "Content-Length: " + body.length() + "\r\n\r\n" + body);
+        }
+    }
+
+    @Test
+    public void testSingleStationLookup() throws Exception {
+        HttpResponse response = send("GET /weather/Q07", null);
+        Assert.assertEquals(200, response.statusCode);
+        JsonObject station = JsonParser.parseString(response.body).getAsJsonObject();
+        Assert.assertEquals("Q07", station.get("id").getAsString());
+
+        Assert.assertEquals(404, send("GET /weather/NOPE", null).statusCode);
+    }
+
+    @Test
+    public void testIdListWithProjection() throws Exception {
+        HttpResponse response = send("GET /weather.json?ids=Q03,Q01&fields=air_temp", null);
+        JsonArray stations = JsonParser.parseString(response.body).getAsJsonArray();
+        Assert.assertEquals(2, stations.size());
+
+        JsonObject first = stations.get(0).getAsJsonObject();
+        Assert.assertEquals("Q03", first.get("id").getAsString());
+        Assert.assertEquals("3.0", first.get("air_temp").getAsString());
+        Assert.assertFalse("Unrequested fields are dropped", first.has("name"));
+        Assert.assertFalse(first.has("wind_spd_kmh"));
+    }
+
+    @Test
+    public void testCursorPagination() throws Exception {
+        List<String> seen = new ArrayList<>();
+        String cursor = "";
+        do {
+            HttpResponse page = send("GET /weather.json?limit=10&fields=id&cursor=" + cursor, null);
+            for (JsonElement el : JsonParser.parseString(page.body).getAsJsonArray()) {
+                String id = el.getAsJsonObject().get("id").getAsString();
+                if (id.startsWith("Q")) {
+                    seen.add(id);
+                }
+            }
+            cursor = page.headers.get("Next-Cursor");
+        } while (cursor != null);
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            expected.add(String.format("Q%02d", i));
+        }
+        Assert.assertEquals("Pages cover every station once, in id order", expected, seen);
+    }
+
+    @Test
+    public void testBadLimitIsRejected() throws Exception {
+        for (String limit : new String[]{"abc", "-1", "0", "99999999999999999999"}) {
+            HttpResponse response = send("GET /weather.json?limit=" + limit, null);
+            Assert.assertEquals(limit, 400, response.statusCode);
+            Assert.assertEquals("limit must be a positive number",
+                    JsonParser.parseString(response.body).getAsJsonObject().get("error").getAsString());
+        }
+        Assert.assertEquals(200, send("GET /weather.json?limit=99999999999", null).statusCode);
+    }
+
+    @Test
+    public void testMalformedEscapeIsRejected() throws Exception {
+        for (String path : new String[]{"/weather.json?id=%zz", "/weather/%zz", "/weather.json?ids=%"}) {
+            HttpResponse response = send("GET " + path, null);
+            Assert.assertEquals(path, 400, response.statusCode);
+            Assert.assertEquals("malformed URL escape",
+                    JsonParser.parseString(response.body).getAsJsonObject().get("error").getAsString());
+        }
+    }
+
+    private static HttpResponse send(String requestLine, String extra) throws IOException {
+        try (Socket socket = new Socket("localhost", PORT);
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+
+            String request = requestLine + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n";
+            request += extra == null ? "\r\n" : extra;
+            out.write(request);
+            out.flush();
+            return HttpParser.parseResponse(in);
+        }
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        new File("weather.json").delete();
+    }
+}
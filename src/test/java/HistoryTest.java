@@ -0,0 +1,143 @@
+import org.junit.*;
+import Weather.server.AggregationServer;
+import Weather.server.ServerConfig;
+import Weather.util.HttpParser;
+import Weather.util.HttpResponse;
+import com.google.gson.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+
+public class HistoryTest {
+    private static final int PORT = 5697;
+
+    @BeforeClass
+    public static void startServer() {
+        Thread serverThread = new Thread(() -> {
+            try {
+                new AggregationServer(ServerConfig.fromArgs(new String[]{
+                        String.valueOf(PORT), "--history-samples=8", "--history-fields=air_temp,rel_hum,press"})).start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        try { Thread.sleep(2000); } catch (InterruptedException ignored) {}
+    }
+
+    @Test
+    public void testAggregatesOverRecentReadings() throws Exception {
+        for (String temp : new String[]{"10.0", "20.0", "30.0"}) {
+            put("{ \"id\": \"HIS1\", \"air_temp\": \"" + temp + "\", \"press\": 1012 }", "");
+        }
+        put("{ \"id\": \"HIS1\", \"press\": 1000 }", ""); // no air_temp in this one
+
+        JsonObject history = get("/history?id=HIS1&last=2");
+        Assert.assertEquals("HIS1", history.get("id").getAsString());
+        Assert.assertEquals(4, history.get("samples").getAsInt());
+
+        JsonObject temp = history.getAsJsonObject("fields").getAsJsonObject("air_temp");
+        Assert.assertEquals(3, temp.get("count").getAsInt());
+        Assert.assertEquals(10.0, temp.get("min").getAsDouble(), 0.0);
+        Assert.assertEquals(30.0, temp.get("max").getAsDouble(), 0.0);
+        Assert.assertEquals(20.0, temp.get("mean").getAsDouble(), 1e-9);
+
+        JsonObject press = history.getAsJsonObject("fields").getAsJsonObject("press");
+        Assert.assertEquals(1000.0, press.get("min").getAsDouble(), 0.0);
+        Assert.assertEquals(1009.0, press.get("mean").getAsDouble(), 1e-9);
+
+        JsonObject humidity = history.getAsJsonObject("fields").getAsJsonObject("rel_hum");
+        Assert.assertEquals(0, humidity.get("count").getAsInt());
+        Assert.assertFalse(humidity.has("mean"));
+
+        // The newest two samples, oldest first
+        JsonArray last = history.getAsJsonArray("last");
+        Assert.assertEquals(2, last.size());
+        Assert.assertEquals(30.0, last.get(0).getAsJsonObject().get("air_temp").getAsDouble(), 0.0);
+        Assert.assertFalse(last.get(1).getAsJsonObject().has("air_temp"));
+        Assert.assertEquals(1000.0, last.get(1).getAsJsonObject().get("press").getAsDouble(), 0.0);
+    }
+
+    @Test
+    public void testRingKeepsTheNewestSamplesAndRangesSelectByTime() throws Exception {
+        for (int i = 1; i <= 12; i++) {
+            put("{ \"id\": \"HIS2\", \"air_temp\": " + i + " }", "");
+            Thread.sleep(5);
+        }
+        JsonObject history = get("/history?id=HIS2&fields=air_temp&last=8");
+        Assert.assertEquals("only the ring's 8 samples are kept", 8, history.get("samples").getAsInt());
+        JsonObject temp = history.getAsJsonObject("fields").getAsJsonObject("air_temp");
+        Assert.assertEquals(5.0, temp.get("min").getAsDouble(), 0.0);
+        Assert.assertEquals(12.0, temp.get("max").getAsDouble(), 0.0);
+        Assert.assertEquals(8.5, temp.get("mean").getAsDouble(), 1e-9);
+        Assert.assertFalse("only the fields asked for", history.getAsJsonObject("fields").has("press"));
+
+        // A range starting at the sample with 9 and ending at the one with 11
+        JsonArray samples = history.getAsJsonArray("last");
+        long from = samples.get(4).getAsJsonObject().get("time").getAsLong();
+        long to = samples.get(6).getAsJsonObject().get("time").getAsLong();
+        JsonObject range = get("/history?id=HIS2&fields=air_temp&from=" + from + "&to=" + to)
+                .getAsJsonObject("fields").getAsJsonObject("air_temp");
+        Assert.assertTrue(range.get("min").getAsDouble() <= 9.0);
+        Assert.assertTrue(range.get("max").getAsDouble() >= 11.0 && range.get("max").getAsDouble() < 12.0);
+        Assert.assertEquals(0, get("/history?id=HIS2&to=" + (from - 100000)).getAsJsonObject("fields")
+                .getAsJsonObject("air_temp").get("count").getAsInt());
+    }
+
+    @Test
+    public void testUnknownStationsAndBadQueries() throws Exception {
+        Assert.assertEquals(404, send("GET /history?id=NOPE").statusCode);
+        Assert.assertEquals(400, send("GET /history").statusCode);
+        put("{ \"id\": \"HIS3\", \"air_temp\": 1 }", "");
+        Assert.assertEquals(400, send("GET /history?id=HIS3&fields=name").statusCode);
+        Assert.assertEquals(400, send("GET /history?id=HIS3&from=yesterday").statusCode);
+    }
+
+    @Test
+    public void testHistoryIsDroppedWithTheStation() throws Exception {
+        put("{ \"id\": \"HIS4\", \"air_temp\": 5 }", "Station-TTL: 200\r\n");
+        Assert.assertEquals(200, send("GET /history?id=HIS4").statusCode);
+        for (int i = 0; i < 50 && send("GET /history?id=HIS4").statusCode == 200; i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(404, send("GET /history?id=HIS4").statusCode);
+    }
+
+    @Test
+    public void testHistoryIsOffUnlessSamplesAreConfigured() {
+        Assert.assertEquals(0, ServerConfig.fromArgs(new String[]{"4567"}).historySamples);
+    }
+
+    private static void put(String body, String headers) throws IOException {
+        byte[] payload = body.getBytes(StandardCharsets.UTF_8);
+        HttpResponse response = send("PUT /weather.json", "Content-Type: application/json\r\n" + headers
+                + "Content-Length: " + payload.length + "\r\n", payload);
+        Assert.assertTrue(response.statusCode == 200 || response.statusCode == 201);
+    }
+
+    private static JsonObject get(String path) throws IOException {
+        HttpResponse response = send("GET " + path);
+        Assert.assertEquals(response.body, 200, response.statusCode);
+        return JsonParser.parseString(response.body).getAsJsonObject();
+    }
+
+    private static HttpResponse send(String requestLine) throws IOException {
+        return send(requestLine, "", new byte[0]);
+    }
+
+    private static HttpResponse send(String requestLine, String headers, byte[] payload) throws IOException {
+        try (Socket socket = new Socket("localhost", PORT);
+             OutputStream out = socket.getOutputStream();
+             InputStream in = new BufferedInputStream(socket.getInputStream())) {
+
+            String request = requestLine + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n" + headers + "\r\n";
+            out.write(request.getBytes(StandardCharsets.UTF_8));
+            out.write(payload);
+            out.flush();
+            return HttpParser.parseResponse(in);
+        }
+    }
+}
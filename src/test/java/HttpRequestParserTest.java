@@ -0,0 +1,101 @@
+import org.junit.*;
+import Weather.util.HttpRequest;
+import Weather.util.HttpRequestParser;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class HttpRequestParserTest {
+
+    private static byte[] put(String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        String head = "PUT /weather.json HTTP/1.1\r\ncontent-length: " + bytes.length + "\r\nX-Custom:  value \r\n\r\n";
+        byte[] head8 = head.getBytes(StandardCharsets.US_ASCII);
+        byte[] all = new byte[head8.length + bytes.length];
+        System.arraycopy(head8, 0, all, 0, head8.length);
+        System.arraycopy(bytes, 0, all, head8.length, bytes.length);
+        return all;
+    }
+
+    @Test
+    public void testMultibyteBodyIsCountedInBytes() throws Exception {
+        String body = "{ \"id\": \"IDS1\", \"name\": \"Zürich Flughafen – 北京\" }";
+        HttpRequest request = new HttpRequestParser().parse(ByteBuffer.wrap(put(body)));
+
+        Assert.assertNotNull(request);
+        Assert.assertEquals("PUT", request.method);
+        Assert.assertEquals("/weather.json", request.path);
+        Assert.assertEquals("HTTP/1.1", request.version);
+        Assert.assertEquals(body, request.body);
+        Assert.assertEquals("Header lookups ignore case", "value", request.getHeader("x-custom"));
+        Assert.assertNotNull(request.getHeader("Content-Length"));
+    }
+
+    @Test
+    public void testResumesAcrossSingleByteReads() throws Exception {
+        String body = "{ \"id\": \"IDS2\", \"name\": \"Ærø\" }";
+        byte[] raw = put(body);
+        HttpRequestParser parser = new HttpRequestParser();
+        ByteBuffer buf = ByteBuffer.allocate(raw.length);
+
+        HttpRequest request = null;
+        for (int i = 0; i < raw.length; i++) {
+            buf.put(raw[i]);
+            buf.flip();
+            request = parser.parse(buf);
+            buf.compact();
+            if (i < raw.length - 1) {
+                Assert.assertNull("Request is incomplete until the last byte", request);
+            }
+        }
+        Assert.assertNotNull(request);
+        Assert.assertEquals(body, request.body);
+    }
+
+    @Test
+    public void testPipelinedRequestsFromStream() throws Exception {
+        String raw = "GET /weather.json HTTP/1.1\r\nHost: a\r\n\r\n"
+                + "GET /weather/IDS1 HTTP/1.1\r\nHost: b\r\n\r\n";
+        HttpRequestParser parser = new HttpRequestParser();
+        ByteArrayInputStream in = new ByteArrayInputStream(raw.getBytes(StandardCharsets.US_ASCII));
+
+        Assert.assertEquals("/weather.json", parser.read(in).path);
+        Assert.assertTrue(parser.hasBuffered());
+        Assert.assertEquals("/weather/IDS1", parser.read(in).path);
+        Assert.assertNull("Clean end of stream", parser.read(in));
+    }
+
+    @Test
+    public void testLimitsAreEnforced() {
+        HttpRequestParser parser = new HttpRequestParser(128, 16);
+        try {
+            parser.parse(ByteBuffer.wrap(put("{ \"id\": \"too long for the limit\" }")));
+            Assert.fail("Body over the limit must be rejected");
+        } catch (HttpRequestParser.HttpParseException e) {
+            Assert.assertEquals(413, e.status);
+        }
+
+        parser.reset();
+        StringBuilder big = new StringBuilder("GET / HTTP/1.1\r\nX-Big: ");
+        for (int i = 0; i < 200; i++) {
+            big.append('x');
+        }
+        try {
+            parser.parse(ByteBuffer.wrap(big.toString().getBytes(StandardCharsets.US_ASCII)));
+            Assert.fail("Header over the limit must be rejected");
+        } catch (HttpRequestParser.HttpParseException e) {
+            Assert.assertEquals(431, e.status);
+        }
+    }
+
+    @Test
+    public void testMalformedRequestLine() {
+        try {
+            new HttpRequestParser().parse(ByteBuffer.wrap("GARBAGE\r\n\r\n".getBytes(StandardCharsets.US_ASCII)));
+            Assert.fail();
+        } catch (HttpRequestParser.HttpParseException e) {
+            Assert.assertEquals(400, e.status);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+import org.junit.*;
+import Weather.server.AggregationServer;
+import Weather.server.ServerConfig;
+import Weather.util.HttpParser;
+import Weather.util.HttpResponse;
+
+import java.io.*;
+import java.net.*;
+
+public class KeepAliveTest {
+    private static final int THREAD_PORT = 5680;
+    private static final int NIO_PORT = 5681;
+
+    @BeforeClass
+    public static void startServers() {
+        startServer(THREAD_PORT, "thread");
+        startServer(NIO_PORT, "nio");
+        try { Thread.sleep(2000); } catch (InterruptedException ignored) {}
+    }
+
+    private static void startServer(int port, String transport) {
+        Thread serverThread = new Thread(() -> {
+            try {
+                new AggregationServer(ServerConfig.fromArgs(new String[]{
+                        String.valueOf(port), "--transport=" + transport, "--max-requests-per-connection=3"})).start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    @Test
+    public void testPipelinedRequestsOnThreadTransport() throws Exception {
+        assertPipelined(THREAD_PORT, "KA_THREAD");
+    }
+
+    @Test
+    public void testPipelinedRequestsOnNioTransport() throws Exception {
+        assertPipelined(NIO_PORT, "KA_NIO");
+    }
+
+    // Three requests written back to back on one socket: each answered in order, the last one closes
+    private void assertPipelined(int port, String id) throws IOException {
+        String body = "{ \"id\": \"" + id + "\", \"air_temp\": \"10.0\" }";
+        String put = "PUT /weather.json HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Content-Length: " + body.length() + "\r\n" +
+                "\r\n" +
+                body;
+        String get = "GET /weather.json HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "\r\n";
+
+        try (Socket socket = new Socket("localhost", port);
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+
+            socket.setSoTimeout(5000);
+            out.write(put + get + get);
+            out.flush();
+
+            HttpResponse first = HttpParser.parseResponse(in);
+            Assert.assertEquals(201, first.statusCode);
+            Assert.assertEquals("keep-alive", first.headers.get("Connection"));
+
+            HttpResponse second = HttpParser.parseResponse(in);
+            Assert.assertEquals(200, second.statusCode);
+            Assert.assertTrue("GET should see the pipelined PUT", second.body.contains(id));
+
+            HttpResponse third = HttpParser.parseResponse(in);
+            Assert.assertEquals(200, third.statusCode);
+            Assert.assertEquals("Max requests reached, connection should close", "close", third.headers.get("Connection"));
+            Assert.assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void testUnsupportedMethodKeepsConnectionUsableOnThreadTransport() throws Exception {
+        assertUnsupportedMethodIsFramed(THREAD_PORT);
+    }
+
+    @Test
+    public void testUnsupportedMethodKeepsConnectionUsableOnNioTransport() throws Exception {
+        assertUnsupportedMethodIsFramed(NIO_PORT);
+    }
+
+    // The 400 carries a Content-Length, so the client can read the next answer on the same socket
+    private void assertUnsupportedMethodIsFramed(int port) throws IOException {
+        String delete = "DELETE /weather.json HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "\r\n";
+        String get = "GET /weather.json HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "\r\n";
+
+        try (Socket socket = new Socket("localhost", port);
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+
+            socket.setSoTimeout(5000);
+            out.write(delete);
+            out.flush();
+
+            HttpResponse first = HttpParser.parseResponse(in);
+            Assert.assertEquals(400, first.statusCode);
+            Assert.assertNotNull("400 must be framed", first.headers.get("Content-Length"));
+            Assert.assertEquals("keep-alive", first.headers.get("Connection"));
+
+            out.write(get);
+            out.flush();
+            HttpResponse second = HttpParser.parseResponse(in);
+            Assert.assertEquals(200, second.statusCode);
+        }
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        new File("weather.json").delete();
+    }
+}
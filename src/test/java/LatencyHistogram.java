@@ -0,0 +1,75 @@
+/**
+ * Latency histogram with bounded relative error, in the style of HdrHistogram.
+ *
+ * Values below 256 get a bucket each; above that every power of two is split into 128
+ * buckets, so a bucket is never wider than 1/128 (under 0.8%) of the values in it. Memory
+ * is fixed (about 58 KB) whatever the range of the values. Not thread-safe: give each
+ * recording thread its own histogram and add() them together for the report.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 7;
+    private static final int SUB_COUNT = 1 << SUB_BITS;          // buckets per power of two
+    private static final int LINEAR = SUB_COUNT * 2;             // values recorded exactly
+    private static final int BUCKETS = LINEAR + (63 - SUB_BITS) * SUB_COUNT;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total;
+    private long max;
+
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts[index(value)]++;
+        total++;
+        max = Math.max(max, value);
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    public long getTotalCount() {
+        return total;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    // Value (to bucket precision) that percentile percent of the samples do not exceed, e.g. 99.9
+    public long getValueAtPercentile(double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestInBucket(i), max);
+            }
+        }
+        return max;
+    }
+
+    static int index(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        int top = (int) (value >>> shift);                       // in [SUB_COUNT, 2 * SUB_COUNT)
+        return LINEAR + (shift - 1) * SUB_COUNT + (top - SUB_COUNT);
+    }
+
+    static long highestInBucket(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int shift = (index - LINEAR) / SUB_COUNT + 1;
+        long top = (index - LINEAR) % SUB_COUNT + SUB_COUNT;
+        return ((top + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,55 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            h.record(i);
+        }
+        Assert.assertEquals(100, h.getTotalCount());
+        Assert.assertEquals(50, h.getValueAtPercentile(50));
+        Assert.assertEquals(99, h.getValueAtPercentile(99));
+        Assert.assertEquals(100, h.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testLargeValuesWithinRelativeError() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long v = 1; v <= 1_000_000; v++) {
+            h.record(v);
+        }
+        for (double p : new double[]{50, 90, 99, 99.9}) {
+            long expected = (long) (1_000_000 * p / 100);
+            long actual = h.getValueAtPercentile(p);
+            Assert.assertTrue("p" + p + " = " + actual, actual >= expected && actual <= expected * 1.01);
+        }
+        Assert.assertEquals(1_000_000, h.getMax());
+    }
+
+    @Test
+    public void testBucketsCoverTheirValues() {
+        for (long v : new long[]{0, 255, 256, 1000, 123_456_789L, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.index(v);
+            Assert.assertTrue(LatencyHistogram.highestInBucket(index) >= v);
+            if (index > 0) {
+                Assert.assertTrue(LatencyHistogram.highestInBucket(index - 1) < v);
+            }
+        }
+    }
+
+    @Test
+    public void testAddMergesCounts() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.record(10);
+        b.record(5000);
+        b.record(20);
+        a.add(b);
+        Assert.assertEquals(3, a.getTotalCount());
+        Assert.assertEquals(5000, a.getMax());
+        Assert.assertEquals(20, a.getValueAtPercentile(50));
+    }
+}
@@ -0,0 +1,132 @@
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import Weather.util.LogStructuredStore;
+import com.google.gson.JsonObject;
+
+import java.io.*;
+import java.util.*;
+
+public class LogStructuredStoreTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    // The caller's current records, which compaction snapshots from
+    private final Map<String, JsonObject> live = new HashMap<>();
+
+    private static JsonObject station(String id, String temp) {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("id", id);
+        obj.addProperty("air_temp", temp);
+        return obj;
+    }
+
+    @Test
+    public void testRecoverReplaysPutsAndRemoves() throws Exception {
+        File dir = tmp.newFolder("log");
+        LogStructuredStore store = new LogStructuredStore(dir, 1 << 20, false, live::get);
+        store.recover();
+        store.appendPut("A", station("A", "10.0"), 1);
+        store.appendPut("B", station("B", "11.0"), 2);
+        store.appendPut("A", station("A", "12.0"), 3);
+        store.appendRemove("B", 4);
+        store.flush();
+        store.close();
+
+        LogStructuredStore reopened = new LogStructuredStore(dir, 1 << 20, false, live::get);
+        Map<String, JsonObject> data = reopened.recover();
+        Assert.assertEquals(Set.of("A"), data.keySet());
+        Assert.assertEquals("12.0", data.get("A").get("air_temp").getAsString());
+        Assert.assertEquals(4, reopened.getMaxLamport());
+        reopened.close();
+    }
+
+    @Test
+    public void testCompactionDropsCoveredSegments() throws Exception {
+        File dir = tmp.newFolder("log");
+        LogStructuredStore store = new LogStructuredStore(dir, 1 << 20, false, live::get);
+        store.recover();
+        for (int i = 0; i < 100; i++) {
+            JsonObject data = station("S" + (i % 10), String.valueOf(i));
+            live.put("S" + (i % 10), data);
+            store.appendPut("S" + (i % 10), data, i + 1);
+        }
+        store.compact().get();
+        live.put("S0", station("S0", "after"));
+        store.appendPut("S0", live.get("S0"), 101);
+        store.flush();
+        store.close();
+
+        long segments = Arrays.stream(dir.list()).filter(n -> n.endsWith(".log")).count();
+        long snapshots = Arrays.stream(dir.list()).filter(n -> n.endsWith(".json")).count();
+        Assert.assertEquals("Only the segment after the snapshot remains", 1, segments);
+        Assert.assertEquals(1, snapshots);
+
+        LogStructuredStore reopened = new LogStructuredStore(dir, 1 << 20, false, live::get);
+        Map<String, JsonObject> data = reopened.recover();
+        Assert.assertEquals(10, data.size());
+        Assert.assertEquals("after", data.get("S0").get("air_temp").getAsString());
+        Assert.assertEquals("99", data.get("S9").get("air_temp").getAsString());
+        reopened.close();
+    }
+
+    @Test
+    public void testSnapshotSkipsStationsRemovedBeforeItIsWritten() throws Exception {
+        File dir = tmp.newFolder("log");
+        LogStructuredStore store = new LogStructuredStore(dir, 1 << 20, false, live::get);
+        store.recover();
+        live.put("A", station("A", "10.0"));
+        store.appendPut("A", live.get("A"), 1);
+        live.put("B", station("B", "11.0"));
+        store.appendPut("B", live.get("B"), 2);
+        // B is gone from the caller's records by the time the snapshot asks for it
+        live.remove("B");
+        store.compact().get();
+        store.appendRemove("B", 3);
+        store.close();
+
+        live.clear();
+        LogStructuredStore reopened = new LogStructuredStore(dir, 1 << 20, false, live::get);
+        Map<String, JsonObject> data = reopened.recover();
+        Assert.assertEquals(Set.of("A"), data.keySet());
+        Assert.assertEquals("10.0", data.get("A").get("air_temp").getAsString());
+        reopened.close();
+    }
+
+    @Test
+    public void testEmptiedStoreIsNotNew() throws Exception {
+        File dir = tmp.newFolder("log");
+        LogStructuredStore store = new LogStructuredStore(dir, 1 << 20, false, live::get);
+        store.recover();
+        Assert.assertTrue(store.isNew());
+        store.appendPut("A", station("A", "10.0"), 1);
+        store.appendRemove("A", 2);
+        store.flush();
+        store.close();
+
+        LogStructuredStore reopened = new LogStructuredStore(dir, 1 << 20, false, live::get);
+        Assert.assertTrue(reopened.recover().isEmpty());
+        Assert.assertFalse("every station expired, but this is not a first start", reopened.isNew());
+        reopened.close();
+    }
+
+    @Test
+    public void testTornTailIsIgnored() throws Exception {
+        File dir = tmp.newFolder("log");
+        LogStructuredStore store = new LogStructuredStore(dir, 1 << 20, false, live::get);
+        store.recover();
+        store.appendPut("A", station("A", "10.0"), 1);
+        store.appendPut("B", station("B", "11.0"), 2);
+        store.close();
+
+        // Simulate a crash halfway through the last record
+        File segment = Arrays.stream(dir.listFiles()).filter(f -> f.getName().endsWith(".log")).findFirst().get();
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.setLength(raf.length() - 5);
+        }
+
+        LogStructuredStore reopened = new LogStructuredStore(dir, 1 << 20, false, live::get);
+        Map<String, JsonObject> data = reopened.recover();
+        Assert.assertEquals(Set.of("A"), data.keySet());
+        reopened.close();
+    }
+}
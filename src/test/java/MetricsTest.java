@@ -0,0 +1,85 @@
+import org.junit.*;
+import Weather.server.AggregationServer;
+import Weather.util.HttpParser;
+import Weather.util.HttpResponse;
+
+import java.io.*;
+import java.net.*;
+
+public class MetricsTest {
+    private static final int PORT = 5688;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        Thread serverThread = new Thread(() -> {
+            try {
+                new AggregationServer(PORT).start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        try { Thread.sleep(2000); } catch (InterruptedException ignored) {}
+    }
+
+    @Test
+    public void testMetricsReflectTraffic() throws Exception {
+        String body = "{ \"id\": \"MET1\", \"name\": \"Metrics\", \"air_temp\": \"12.0\" }";
+        Assert.assertEquals(201, send("PUT /weather.json", "Content-Length: " + body.length() + "\r\n\r\n" + body).statusCode);
+        Assert.assertEquals(200, send("GET /weather.json", null).statusCode);
+
+        HttpResponse metrics = send("GET /metrics", null);
+        Assert.assertEquals(200, metrics.statusCode);
+        Assert.assertTrue(metrics.headers.get("Content-Type").startsWith("text/plain"));
+
+        String text = metrics.body;
+        Assert.assertTrue(text.contains("# TYPE weather_request_parse_seconds histogram"));
+        Assert.assertEquals("one station held", 1, sample(text, "weather_stations"), 0);
+        Assert.assertEquals("the scrape itself is on an open connection", 1, sample(text, "weather_active_connections"), 0);
+        Assert.assertEquals(1, sample(text, "weather_put_apply_seconds_count"), 0);
+        Assert.assertEquals(1, sample(text, "weather_feed_serialize_seconds_count"), 0);
+        Assert.assertEquals(1, sample(text, "weather_persist_flush_seconds_bucket{le=\"+Inf\"}"), 0);
+        Assert.assertTrue(sample(text, "weather_persist_bytes_total") > 0);
+        Assert.assertTrue("PUT, GET and this scrape were parsed", sample(text, "weather_request_parse_seconds_count") >= 3);
+    }
+
+    @Test
+    public void testMalformedRequestIsCounted() throws Exception {
+        try (Socket socket = new Socket("localhost", PORT)) {
+            socket.getOutputStream().write("NONSENSE\r\n\r\n".getBytes());
+            socket.getInputStream().readAllBytes();
+        }
+        String text = send("GET /metrics", null).body;
+        Assert.assertTrue(sample(text, "weather_parse_errors_total") >= 1);
+    }
+
+    // Value of the sample line that starts with name, e.g. "weather_stations 3"
+    private static double sample(String text, String name) {
+        for (String line : text.split("\n")) {
+            if (line.startsWith(name + " ")) {
+                return Double.parseDouble(line.substring(name.length() + 1));
+            }
+        }
+        throw new AssertionError("No sample " + name);
+    }
+
+    private static HttpResponse send(String requestLine, String extra) throws IOException {
+        try (Socket socket = new Socket("localhost", PORT);
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+
+            String request = requestLine + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n";
+            request += extra == null ? "\r\n" : extra;
+            out.write(request);
+            out.flush();
+            return HttpParser.parseResponse(in);
+        }
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        new File("weather.json").delete();
+    }
+}
@@ -0,0 +1,137 @@
+import org.junit.*;
+import Weather.server.AggregationServer;
+import Weather.server.ServerConfig;
+import Weather.util.HttpParser;
+import Weather.util.HttpResponse;
+import com.google.gson.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class NioTransportTest {
+    private static final int PORT = 5679;
+
+    @BeforeClass
+    public static void startServer() {
+        Thread serverThread = new Thread(() -> {
+            try {
+                new AggregationServer(ServerConfig.fromArgs(new String[]{
+                        String.valueOf(PORT), "--transport=nio", "--io-threads=2"})).start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        try { Thread.sleep(2000); } catch (InterruptedException ignored) {}
+    }
+
+    @Test
+    public void testPutAndGetOverNio() throws Exception {
+        String response = send("PUT", "{ \"id\": \"NIO1\", \"name\": \"Nio Station\", \"air_temp\": \"12.5\" }");
+        Assert.assertTrue("First PUT should return 201 Created", response.startsWith("HTTP/1.1 201"));
+        Assert.assertTrue("Response should contain Lamport-Clock header", response.contains("Lamport-Clock:"));
+
+        String get = send("GET", null);
+        Assert.assertTrue("GET should return 200 OK", get.startsWith("HTTP/1.1 200"));
+        Assert.assertTrue("GET should contain station ID", get.contains("NIO1"));
+    }
+
+    @Test
+    public void testManyConcurrentConnections() throws Exception {
+        int clients = 200;
+        ExecutorService exec = Executors.newFixedThreadPool(32);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            final int n = i;
+            results.add(exec.submit(() -> send("PUT", "{ \"id\": \"NIOC" + n + "\", \"air_temp\": \"1.0\" }")));
+        }
+        for (Future<String> f : results) {
+            Assert.assertTrue(f.get(10, TimeUnit.SECONDS).startsWith("HTTP/1.1 201"));
+        }
+        exec.shutdown();
+
+        String get = send("GET", null);
+        Assert.assertTrue(get.contains("NIOC0") && get.contains("NIOC" + (clients - 1)));
+    }
+
+    @Test
+    public void testLargeDeltaIsStreamedChunked() throws Exception {
+        for (int i = 0; i < 300; i++) {
+            send("PUT", "{ \"id\": \"NIOS" + i + "\", \"name\": \"Streamed station " + i + " with a longer name\" }");
+        }
+
+        try (Socket socket = new Socket("localhost", PORT);
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            out.write("GET /weather.json?since=0 HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+            out.flush();
+
+            HttpResponse response = HttpParser.parseResponse(in);
+            Assert.assertEquals(200, response.statusCode);
+            Assert.assertEquals("chunked", response.headers.get("Transfer-Encoding"));
+            JsonObject delta = JsonParser.parseString(response.body).getAsJsonObject();
+            Assert.assertTrue(delta.getAsJsonArray("changed").size() >= 300);
+        }
+    }
+
+    @Test
+    public void testRejectedRequestGetsValidJsonMeasuredInBytes() throws Exception {
+        try (Socket socket = new Socket("localhost", PORT);
+             OutputStream out = socket.getOutputStream();
+             InputStream in = new BufferedInputStream(socket.getInputStream())) {
+            // The parser's message quotes this value, which has a quote and a non-ASCII byte
+            out.write("PUT /weather.json HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: \"gzip\u00e9\"\r\n\r\n"
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+
+            HttpResponse response = HttpParser.parseResponse(in);
+            Assert.assertEquals(501, response.statusCode);
+            Assert.assertEquals(response.body.getBytes(StandardCharsets.UTF_8).length,
+                    Integer.parseInt(response.headers.get("Content-Length")));
+            String error = JsonParser.parseString(response.body).getAsJsonObject().get("error").getAsString();
+            Assert.assertTrue(error, error.contains("\"gzip\u00e9\""));
+        }
+    }
+
+    // Sends one request and returns the raw response (headers and body)
+    private String send(String method, String body) throws IOException {
+        try (Socket socket = new Socket("localhost", PORT);
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+
+            StringBuilder request = new StringBuilder()
+                    .append(method).append(" /weather.json HTTP/1.1\r\n")
+                    .append("Host: localhost\r\n")
+                    .append("Lamport-Clock: 1\r\n")
+                    .append("Connection: close\r\n");
+            if (body != null) {
+                request.append("Content-Type: application/json\r\n")
+                        .append("Content-Length: ").append(body.length()).append("\r\n");
+            }
+            request.append("\r\n");
+            if (body != null) {
+                request.append(body);
+            }
+
+            out.write(request.toString());
+            out.flush();
+
+            StringBuilder response = new StringBuilder();
+            int c;
+            while ((c = in.read()) != -1) {
+                response.append((char) c);
+            }
+            return response.toString();
+        }
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        new File("weather.json").delete();
+    }
+}
@@ -0,0 +1,153 @@
+import org.junit.*;
+import Weather.server.AggregationServer;
+import Weather.server.ServerConfig;
+import Weather.util.HttpParser;
+import Weather.util.HttpResponse;
+import com.google.gson.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.Files;
+
+public class ReplicationTest {
+    private static final int PRIMARY = 5692;
+    private static final int REPLICA_1 = 5693;
+    private static final int REPLICA_2 = 5694;
+    private static final String[] GROUP = {"--group=localhost:5692,localhost:5693,localhost:5694", "--promote-after-ms=500"};
+
+    private static Process primary;
+
+    @BeforeClass
+    public static void startGroup() throws Exception {
+        // The first member runs in its own JVM so that the test can kill it
+        File dir = Files.createTempDirectory("replication-primary").toFile();
+        primary = new ProcessBuilder(System.getProperty("java.home") + "/bin/java",
+                "-cp", System.getProperty("java.class.path"),
+                "Weather.server.AggregationServer", String.valueOf(PRIMARY), GROUP[0], GROUP[1])
+                .directory(dir)
+                .redirectErrorStream(true)
+                .redirectOutput(new File(dir, "server.log"))
+                .start();
+
+        for (int port : new int[]{REPLICA_1, REPLICA_2}) {
+            ServerConfig config = ServerConfig.fromArgs(new String[]{String.valueOf(port), GROUP[0], GROUP[1]});
+            Thread serverThread = new Thread(() -> {
+                try {
+                    new AggregationServer(config).start();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            serverThread.setDaemon(true);
+            serverThread.start();
+        }
+
+        awaitRole(PRIMARY, "primary", 15000);
+        awaitFollowing(REPLICA_1, "localhost:" + PRIMARY, 5000);
+        awaitFollowing(REPLICA_2, "localhost:" + PRIMARY, 5000);
+    }
+
+    @AfterClass
+    public static void stopPrimary() {
+        if (primary != null) {
+            primary.destroyForcibly();
+        }
+    }
+
+    @Test
+    public void testReplicasCopyThePrimaryAndFailOver() throws Exception {
+        // A PUT on a replica is passed on to the primary and comes back through the log
+        HttpResponse put = send(REPLICA_2, "PUT /weather.json", "Lamport-Clock: 700\r\n", "{ \"id\": \"REP1\", \"air_temp\": \"11.0\" }");
+        Assert.assertEquals(201, put.statusCode);
+        Assert.assertEquals("700", put.headers.get("Station-Lamport"));
+
+        HttpResponse copy = await(REPLICA_1, "GET /weather/REP1", "");
+        Assert.assertEquals("11.0", JsonParser.parseString(copy.body).getAsJsonObject().get("air_temp").getAsString());
+        Assert.assertNotNull("replica reads say how old they are", copy.headers.get("Replica-Staleness"));
+        Assert.assertTrue(Long.parseLong(copy.headers.get("Lamport-Clock")) > 700);
+
+        // A zero staleness bound is always answered from the primary, so a write is seen at once
+        Assert.assertEquals(201, send(PRIMARY, "PUT /weather.json", "", "{ \"id\": \"REP2\" }").statusCode);
+        Assert.assertEquals(200, send(REPLICA_2, "GET /weather/REP2", "Max-Staleness: 0\r\n", null).statusCode);
+
+        // The primary dies: the next member in the group takes over with the data it copied
+        await(REPLICA_2, "GET /weather/REP2", "");
+        primary.destroyForcibly().waitFor();
+        awaitRole(REPLICA_1, "primary", 10000);
+        Assert.assertEquals(200, send(REPLICA_1, "GET /weather/REP1", "", null).statusCode);
+
+        JsonObject status = awaitFollowing(REPLICA_2, "localhost:" + REPLICA_1, 10000);
+        Assert.assertEquals("replica", status.get("role").getAsString());
+
+        // Writes continue through the remaining replica and are copied back to it
+        HttpResponse after = send(REPLICA_2, "PUT /weather.json", "Lamport-Clock: 5\r\n", "{ \"id\": \"REP1\", \"air_temp\": \"12.0\" }");
+        Assert.assertEquals("older stamp than the copied write", 409, after.statusCode);
+        Assert.assertEquals(200, send(REPLICA_2, "PUT /weather.json", "", "{ \"id\": \"REP1\", \"air_temp\": \"13.0\" }").statusCode);
+        for (int i = 0; i < 100; i++) {
+            HttpResponse read = send(REPLICA_2, "GET /weather/REP1", "", null);
+            if (JsonParser.parseString(read.body).getAsJsonObject().get("air_temp").getAsString().equals("13.0")) {
+                return;
+            }
+            Thread.sleep(50);
+        }
+        Assert.fail("write after failover was not replicated");
+    }
+
+    private static void awaitRole(int port, String role, long timeoutMs) throws Exception {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                HttpResponse status = send(port, "GET /replication/status", "", null);
+                if (role.equals(JsonParser.parseString(status.body).getAsJsonObject().get("role").getAsString())) {
+                    return;
+                }
+            } catch (IOException ignored) {
+                // not listening yet
+            }
+            Thread.sleep(100);
+        }
+        Assert.fail(port + " did not become " + role);
+    }
+
+    private static JsonObject awaitFollowing(int port, String primary, long timeoutMs) throws Exception {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                JsonObject status = JsonParser.parseString(send(port, "GET /replication/status", "", null).body).getAsJsonObject();
+                if (!status.get("primary").isJsonNull() && primary.equals(status.get("primary").getAsString())) {
+                    return status;
+                }
+            } catch (IOException ignored) {
+                // not listening yet
+            }
+            Thread.sleep(100);
+        }
+        throw new AssertionError(port + " did not follow " + primary);
+    }
+
+    private static HttpResponse await(int port, String requestLine, String headers) throws Exception {
+        for (int i = 0; i < 100; i++) {
+            HttpResponse response = send(port, requestLine, headers, null);
+            if (response.statusCode == 200) {
+                return response;
+            }
+            Thread.sleep(50);
+        }
+        throw new AssertionError(requestLine + " never succeeded on " + port);
+    }
+
+    private static HttpResponse send(int port, String requestLine, String headers, String body) throws IOException {
+        try (Socket socket = new Socket("localhost", port);
+             OutputStream out = socket.getOutputStream();
+             InputStream in = new BufferedInputStream(socket.getInputStream())) {
+
+            byte[] payload = body == null ? new byte[0] : body.getBytes("UTF-8");
+            String request = requestLine + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n" + headers
+                    + (body == null ? "" : "Content-Length: " + payload.length + "\r\n") + "\r\n";
+            out.write(request.getBytes("UTF-8"));
+            out.write(payload);
+            out.flush();
+            return HttpParser.parseResponse(in);
+        }
+    }
+}
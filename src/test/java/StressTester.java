@@ -1,69 +1,268 @@
-import Weather.content.ContentServer;
-import Weather.client.GETClient;
+import Weather.server.AggregationServer;
+import Weather.server.ServerConfig;
+import Weather.util.HttpParser;
+import Weather.util.HttpResponse;
 
 import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * StressTester: spawns multiple ContentServers and GETClients
- * to test AggregationServer under heavy load.
+ * StressTester: open-loop load generator for sizing an AggregationServer.
+ *
+ * Simulated stations PUT their reading and simulated readers GET the feed, each over its
+ * own keep-alive connection, on a fixed schedule that together makes up the target rates.
+ * Requests are sent when they are due whatever the server is doing, and latency is taken
+ * from that due time, not from when the request actually went out. A stalled server
+ * therefore shows up in the percentiles as the wait every queued request saw, instead of
+ * being hidden by a client that politely slowed down (coordinated omission).
+ *
+ * Requests still due when the run ends are reported as missed. PUTs count as errors unless
+ * answered 200/201, GETs unless answered 200/304; a failed connection is reopened.
+ *
+ * Usage: StressTester [--host=localhost] [--port=4567] [--stations=100] [--readers=10]
+ *        [--put-rate=1000] [--get-rate=100] [--duration=30] [--warmup=5] [--timeout-ms=10000]
+ *        [--gzip] [--server [AggregationServer options...]]
+ *
+ * Rates are requests per second across all stations or readers. With --server an
+ * AggregationServer is started in this JVM on --port; options StressTester does not know
+ * (e.g. --transport=nio) are passed on to it.
  */
 public class StressTester {
-    private static final String HOST = "localhost";
-    private static final int PORT = 4567; // make sure your server runs on this port
+    private static String host = "localhost";
+    private static int port = ServerConfig.DEFAULT_PORT;
+    private static int stations = 100;
+    private static int readers = 10;
+    private static double putRate = 1000;
+    private static double getRate = 100;
+    private static int durationSec = 30;
+    private static int warmupSec = 5;
+    private static int timeoutMs = 10000;
+    private static boolean gzip = false;
+
+    /** Results of one simulated client, merged per request type for the report. */
+    private static final class Stats {
+        final LatencyHistogram latency = new LatencyHistogram(); // microseconds
+        long completed;
+        long errors;
+        long missed;
+
+        void add(Stats other) {
+            latency.add(other.latency);
+            completed += other.completed;
+            errors += other.errors;
+            missed += other.missed;
+        }
+    }
 
     public static void main(String[] args) throws Exception {
-        int numStations = 10;   // number of concurrent ContentServers
-        int numClients = 5;     // number of concurrent GETClients
-        int durationSec = 60;   // run for 1 minute
-
-        System.out.println("Starting stress test with " + numStations + " ContentServers and "
-                + numClients + " GETClients for " + durationSec + " seconds...");
-
-        ExecutorService pool = Executors.newCachedThreadPool();
-
-        // Launch ContentServers (re-PUT every 20s)
-        for (int i = 1; i <= numStations; i++) {
-            final int id = i;
-            pool.submit(() -> {
-                try {
-                    File f = new File("station" + id + ".txt");
-                    try (PrintWriter pw = new PrintWriter(f)) {
-                        pw.println("id:ST" + id);
-                        pw.println("name:Station " + id);
-                        pw.println("air_temp:" + (15 + id));
-                    }
-                    ContentServer.main(new String[]{HOST + ":" + PORT, f.getName()});
-                } catch (Exception e) {
-                    System.err.println("[ContentServer-" + id + "] " + e.getMessage());
-                }
-            });
+        List<String> serverArgs = new ArrayList<>();
+        boolean startServer = false;
+        for (String arg : args) {
+            String[] kv = arg.substring(arg.startsWith("--") ? 2 : 0).split("=", 2);
+            String value = kv.length > 1 ? kv[1] : "true";
+            switch (kv[0]) {
+                case "host": host = value; break;
+                case "port": port = Integer.parseInt(value); break;
+                case "stations": stations = Integer.parseInt(value); break;
+                case "readers": readers = Integer.parseInt(value); break;
+                case "put-rate": putRate = Double.parseDouble(value); break;
+                case "get-rate": getRate = Double.parseDouble(value); break;
+                case "duration": durationSec = Integer.parseInt(value); break;
+                case "warmup": warmupSec = Integer.parseInt(value); break;
+                case "timeout-ms": timeoutMs = Integer.parseInt(value); break;
+                case "gzip": gzip = Boolean.parseBoolean(value); break;
+                case "server": startServer = true; break;
+                default: serverArgs.add(arg);
+            }
+        }
+        if (!serverArgs.isEmpty() && !startServer) {
+            throw new IllegalArgumentException("Unknown options " + serverArgs + " (server options need --server)");
+        }
+        if (startServer) {
+            serverArgs.add("--port=" + port);
+            startServer(ServerConfig.fromArgs(serverArgs.toArray(new String[0])));
+        }
+
+        System.out.printf("Target %s:%d: %d stations at %.0f PUT/s, %d readers at %.0f GET/s, %ds after %ds warmup%n",
+                host, port, stations, putRate, readers, getRate, durationSec, warmupSec);
+
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200); // time to start every client
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSec);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSec);
+
+        List<Future<Stats>> puts = new ArrayList<>();
+        List<Future<Stats>> gets = new ArrayList<>();
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            long putInterval = interval(stations, putRate);
+            for (int i = 0; i < stations && putRate > 0; i++) {
+                final int station = i;
+                long first = start + putInterval * i / stations; // spread the clients over one interval
+                puts.add(clients.submit(() -> run(n -> putRequest(station, n), true, first, putInterval, measureFrom, end)));
+            }
+            long getInterval = interval(readers, getRate);
+            for (int i = 0; i < readers && getRate > 0; i++) {
+                long first = start + getInterval * i / readers;
+                gets.add(clients.submit(() -> run(n -> getRequest(), false, first, getInterval, measureFrom, end)));
+            }
         }
 
-        // Launch GETClients periodically
-        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(numClients);
-        for (int j = 1; j <= numClients; j++) {
-            scheduler.scheduleAtFixedRate(() -> {
-                try {
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    PrintStream oldOut = System.out;
-                    System.setOut(new PrintStream(baos));
-                    GETClient.main(new String[]{HOST + ":" + PORT});
-                    System.setOut(oldOut);
-
-                    String output = baos.toString();
-                    System.out.println("[GETClient] Response:\n" + output.split("\n")[0]); // log first line
-                } catch (Exception e) {
-                    System.err.println("[GETClient] " + e.getMessage());
+        report("PUT", merge(puts));
+        report("GET", merge(gets));
+        System.exit(0);
+    }
+
+    private interface RequestSource {
+        byte[] next(long n);
+    }
+
+    // Runs one client's schedule: request n is due at first + n * interval
+    private static Stats run(RequestSource source, boolean put, long first, long interval, long measureFrom, long end) {
+        Stats stats = new Stats();
+        Connection connection = null;
+        for (long n = 0; ; n++) {
+            long due = first + n * interval;
+            if (due >= end) {
+                break;
+            }
+            long now = System.nanoTime();
+            if (now >= end) {
+                // Still behind schedule when the run is over: these requests were never sent
+                stats.missed += (end - due + interval - 1) / interval;
+                break;
+            }
+            while (now < due) {
+                LockSupport.parkNanos(due - now);
+                now = System.nanoTime();
+            }
+
+            boolean measured = due >= measureFrom;
+            try {
+                if (connection == null) {
+                    connection = new Connection();
+                }
+                HttpResponse response = connection.send(source.next(n));
+                long latency = System.nanoTime() - due;
+                boolean ok = put ? response.statusCode == 200 || response.statusCode == 201
+                        : response.statusCode == 200 || response.statusCode == 304;
+                if (measured && ok) {
+                    stats.latency.record(TimeUnit.NANOSECONDS.toMicros(latency));
+                    stats.completed++;
+                } else if (measured) {
+                    stats.errors++;
+                }
+                if ("close".equalsIgnoreCase(response.headers.get("Connection"))) {
+                    connection.close();
+                    connection = null;
+                }
+            } catch (IOException e) {
+                if (measured) {
+                    stats.errors++;
+                }
+                if (connection != null) {
+                    connection.close();
+                    connection = null;
                 }
-            }, 2, 5, TimeUnit.SECONDS); // fetch every 5s
+            }
         }
+        if (connection != null) {
+            connection.close();
+        }
+        return stats;
+    }
+
+    private static long interval(int clients, double rate) {
+        return rate > 0 ? (long) (clients * 1e9 / rate) : Long.MAX_VALUE;
+    }
+
+    private static byte[] putRequest(int station, long n) {
+        String body = "{\"id\":\"LOAD" + station + "\",\"name\":\"Load Station " + station + "\","
+                + "\"state\":\"SA\",\"air_temp\":\"" + (10 + n % 25) + ".5\",\"wind_spd_kmh\":\"" + (n % 40) + "\"}";
+        byte[] payload = body.getBytes(StandardCharsets.UTF_8);
+        String head = "PUT /weather.json HTTP/1.1\r\n" +
+                "Host: " + host + ":" + port + "\r\n" +
+                "User-Agent: ATOMClient/1/0\r\n" +
+                "Content-Type: application/json\r\n" +
+                "Content-Length: " + payload.length + "\r\n" +
+                "Lamport-Clock: " + (n + 1) + "\r\n" +
+                "Origin-Id: load-" + station + "\r\n" +
+                "\r\n";
+        ByteArrayOutputStream out = new ByteArrayOutputStream(head.length() + payload.length);
+        out.writeBytes(head.getBytes(StandardCharsets.US_ASCII));
+        out.writeBytes(payload);
+        return out.toByteArray();
+    }
+
+    private static byte[] getRequest() {
+        return ("GET /weather.json HTTP/1.1\r\n" +
+                "Host: " + host + ":" + port + "\r\n" +
+                (gzip ? "Accept-Encoding: gzip\r\n" : "") +
+                "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** One keep-alive connection; requests on it are sent one at a time. */
+    private static final class Connection {
+        private final Socket socket = new Socket();
+        private final OutputStream out;
+        private final InputStream in;
+
+        Connection() throws IOException {
+            socket.connect(new InetSocketAddress(host, port), timeoutMs);
+            socket.setSoTimeout(timeoutMs);
+            socket.setTcpNoDelay(true);
+            out = socket.getOutputStream();
+            in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+        }
+
+        HttpResponse send(byte[] request) throws IOException {
+            out.write(request);
+            out.flush();
+            HttpResponse response = HttpParser.parseResponse(in);
+            if (response == null) {
+                throw new EOFException("Connection closed by server");
+            }
+            return response;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
 
-        // Let it run for durationSec
-        Thread.sleep(durationSec * 1000);
+    private static Stats merge(List<Future<Stats>> futures) throws Exception {
+        Stats total = new Stats();
+        for (Future<Stats> f : futures) {
+            total.add(f.get());
+        }
+        return total;
+    }
+
+    private static void report(String type, Stats stats) {
+        LatencyHistogram h = stats.latency;
+        System.out.printf("%-4s requests=%d errors=%d missed=%d throughput=%.1f/s p50=%.2fms p99=%.2fms p999=%.2fms max=%.2fms%n",
+                type, stats.completed, stats.errors, stats.missed, stats.completed / (double) durationSec,
+                h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(99) / 1000.0,
+                h.getValueAtPercentile(99.9) / 1000.0, h.getMax() / 1000.0);
+    }
 
-        System.out.println("Stress test finished. Shutting down...");
-        pool.shutdownNow();
-        scheduler.shutdownNow();
+    private static void startServer(ServerConfig config) throws InterruptedException {
+        Thread t = new Thread(() -> {
+            try {
+                new AggregationServer(config).start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+        Thread.sleep(1000);
     }
 }
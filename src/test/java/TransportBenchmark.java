@@ -0,0 +1,157 @@
+import Weather.server.AggregationServer;
+import Weather.server.ServerConfig;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * TransportBenchmark: compares the thread-per-connection, virtual-thread and NIO transports.
+ *
+ * For each transport an in-process AggregationServer is started and measured twice:
+ * - latency: concurrent clients issue PUT/GET back to back, p50/p99 are reported
+ * - capacity: idle connections are opened in steps (each holding a half-sent request) until
+ *   a fresh probe GET no longer completes in time; the last healthy step is reported
+ *
+ * Usage: TransportBenchmark [clients] [seconds] [maxConnections]
+ */
+public class TransportBenchmark {
+    private static final String HOST = "localhost";
+    private static final int BASE_PORT = 7100;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int maxConnections = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+
+        ServerConfig.Transport[] transports = ServerConfig.Transport.values();
+        for (int i = 0; i < transports.length; i++) {
+            int port = BASE_PORT + i;
+            startServer(port, transports[i]);
+
+            double[] latency = measureLatency(port, clients, seconds);
+            int capacity = measureCapacity(port, maxConnections);
+
+            System.out.printf("%-8s clients=%d requests=%d p50=%.2fms p99=%.2fms maxConnections=%d%n",
+                    transports[i], clients, (long) latency[2], latency[0], latency[1], capacity);
+        }
+        System.exit(0);
+    }
+
+    private static void startServer(int port, ServerConfig.Transport transport) throws InterruptedException {
+        ServerConfig config = new ServerConfig(port);
+        config.transport = transport;
+        Thread t = new Thread(() -> {
+            try {
+                new AggregationServer(config).start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+        Thread.sleep(1000);
+    }
+
+    // Returns {p50 ms, p99 ms, request count}
+    private static double[] measureLatency(int port, int clients, int seconds) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Future<List<Long>>> futures = new ArrayList<>();
+
+        for (int c = 0; c < clients; c++) {
+            final int id = c;
+            futures.add(pool.submit(() -> {
+                List<Long> samples = new ArrayList<>();
+                int n = 0;
+                while (System.nanoTime() < deadline) {
+                    long start = System.nanoTime();
+                    try {
+                        if (n++ % 4 == 0) {
+                            request(port, "PUT", "{ \"id\": \"BENCH" + id + "\", \"air_temp\": \"" + n + "\" }");
+                        } else {
+                            request(port, "GET", null);
+                        }
+                        samples.add(System.nanoTime() - start);
+                    } catch (IOException e) {
+                        // failed requests are not latency samples
+                    }
+                }
+                return samples;
+            }));
+        }
+
+        List<Long> all = new ArrayList<>();
+        for (Future<List<Long>> f : futures) {
+            all.addAll(f.get());
+        }
+        pool.shutdown();
+
+        Collections.sort(all);
+        if (all.isEmpty()) {
+            return new double[]{0, 0, 0};
+        }
+        return new double[]{
+                all.get(all.size() / 2) / 1e6,
+                all.get((int) Math.min(all.size() - 1, Math.ceil(all.size() * 0.99) - 1)) / 1e6,
+                all.size()
+        };
+    }
+
+    private static int measureCapacity(int port, int maxConnections) {
+        List<Socket> held = new ArrayList<>();
+        int step = Math.max(1, maxConnections / 10);
+        int healthy = 0;
+        try {
+            while (held.size() < maxConnections) {
+                for (int i = 0; i < step && held.size() < maxConnections; i++) {
+                    Socket s = new Socket(HOST, port);
+                    // Header block is never finished, so the server keeps the connection open
+                    s.getOutputStream().write("GET /weather.json HTTP/1.1\r\nHost: localhost\r\n"
+                            .getBytes(StandardCharsets.US_ASCII));
+                    held.add(s);
+                }
+                try {
+                    request(port, "GET", null);
+                    healthy = held.size();
+                } catch (IOException e) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // out of sockets/threads on either side: the last healthy step stands
+        } finally {
+            for (Socket s : held) {
+                try {
+                    s.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return healthy;
+    }
+
+    private static void request(int port, String method, String body) throws IOException {
+        try (Socket socket = new Socket(HOST, port)) {
+            socket.setSoTimeout(2000);
+            String request = method + " /weather.json HTTP/1.1\r\n" +
+                    "Host: localhost\r\n" +
+                    "Lamport-Clock: 1\r\n" +
+                    "Connection: close\r\n" +
+                    (body != null ? "Content-Length: " + body.length() + "\r\n" : "") +
+                    "\r\n" +
+                    (body != null ? body : "");
+            OutputStream out = socket.getOutputStream();
+            out.write(request.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            byte[] buf = new byte[8192];
+            while (in.read(buf) != -1) {
+                // drain until the server closes
+            }
+        }
+    }
+}
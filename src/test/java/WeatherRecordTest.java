@@ -0,0 +1,74 @@
+import org.junit.*;
+import Weather.util.WeatherRecord;
+import com.google.gson.*;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.StringWriter;
+import java.util.*;
+
+public class WeatherRecordTest {
+
+    private static JsonObject json(String text) {
+        return JsonParser.parseString(text).getAsJsonObject();
+    }
+
+    private static String write(WeatherRecord record, Set<String> fields) throws Exception {
+        StringWriter out = new StringWriter();
+        record.write(new JsonWriter(out), fields);
+        return out.toString();
+    }
+
+    @Test
+    public void testKnownFieldsAreTyped() {
+        WeatherRecord record = WeatherRecord.fromJson(json(
+                "{ \"id\": \"IDS60901\", \"name\": \"Adelaide\", \"air_temp\": \"13.3\", \"rel_hum\": 60, \"cloud\": \"Partly cloudy\" }"));
+        Assert.assertEquals("IDS60901", record.id());
+        Assert.assertEquals("Partly cloudy", record.getText("cloud"));
+        Assert.assertEquals(13.3, record.getNumber("air_temp"), 0);
+        Assert.assertEquals(60, record.getNumber("rel_hum"), 0);
+        Assert.assertTrue(Double.isNaN(record.getNumber("press")));
+        Assert.assertNull(record.getText("air_temp"));
+    }
+
+    @Test
+    public void testValuesRoundTripExactly() throws Exception {
+        JsonObject original = json("{ \"id\": \"S1\", \"air_temp\": \"15.0\", \"apparent_t\": 9.5, \"rel_hum\": \"60\","
+                + " \"wind_spd_kmh\": 13, \"lat\": \"-34.90\", \"lon\": \"1e2\", \"press\": \"n/a\","
+                + " \"local_date_time_full\": \"20230715160000\", \"dewpt\": null, \"name\": 7,"
+                + " \"extra\": { \"a\": [1, 2] }, \"flag\": true }");
+        WeatherRecord record = WeatherRecord.fromJson(original);
+
+        Assert.assertEquals(original, record.toJsonObject());
+        Assert.assertEquals(original, JsonParser.parseString(write(record, null)));
+
+        // Quoted stays quoted and unquoted stays a number, with the text as sent
+        String text = write(record, null);
+        Assert.assertTrue(text, text.contains("\"air_temp\":\"15.0\""));
+        Assert.assertTrue(text, text.contains("\"apparent_t\":9.5"));
+        Assert.assertTrue(text, text.contains("\"wind_spd_kmh\":13"));
+        Assert.assertTrue(text, text.contains("\"lat\":\"-34.90\""));
+        Assert.assertTrue(text, text.contains("\"local_date_time_full\":\"20230715160000\""));
+    }
+
+    @Test
+    public void testUnquotedNumbersKeepTheirTextInTheJsonTree() throws Exception {
+        JsonObject tree = WeatherRecord.fromJson(json("{ \"id\": \"S3\", \"lat\": -34.90, \"press\": 1e3 }")).toJsonObject();
+        Assert.assertEquals("{\"id\":\"S3\",\"lat\":-34.90,\"press\":1e3}", tree.toString());
+        Assert.assertEquals(1000, tree.get("press").getAsLong());
+    }
+
+    @Test
+    public void testProjectionKeepsId() throws Exception {
+        WeatherRecord record = WeatherRecord.fromJson(json(
+                "{ \"id\": \"S2\", \"name\": \"Two\", \"air_temp\": \"3.0\", \"custom\": \"x\" }"));
+        JsonObject projected = JsonParser.parseString(write(record, Set.of("air_temp", "custom"))).getAsJsonObject();
+        Assert.assertEquals(json("{ \"id\": \"S2\", \"air_temp\": \"3.0\", \"custom\": \"x\" }"), projected);
+    }
+
+    @Test
+    public void testRepeatedTextIsShared() {
+        WeatherRecord a = WeatherRecord.fromJson(json("{ \"id\": \"A\", \"state\": \"" + new String("SA") + "\" }"));
+        WeatherRecord b = WeatherRecord.fromJson(json("{ \"id\": \"B\", \"state\": \"" + new String("SA") + "\" }"));
+        Assert.assertSame(a.getText("state"), b.getText("state"));
+    }
+}
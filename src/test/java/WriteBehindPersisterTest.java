@@ -0,0 +1,67 @@
+import org.junit.*;
+import Weather.util.WriteBehindPersister;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class WriteBehindPersisterTest {
+
+    @Test
+    public void testChangesWithinWindowShareOneFlush() throws Exception {
+        List<Map<String, Long>> flushes = Collections.synchronizedList(new ArrayList<>());
+        WriteBehindPersister persister = new WriteBehindPersister(ids -> flushes.add(new HashMap<>(ids)), 200, 1000);
+
+        CompletableFuture<Void> a = persister.markDirty("A", 1);
+        CompletableFuture<Void> b = persister.markDirty("B", 2);
+        CompletableFuture<Void> again = persister.markDirty("A", 4);
+
+        Assert.assertSame("Changes in one window share the flush future", a, b);
+        Assert.assertSame(a, again);
+        a.get(2, TimeUnit.SECONDS);
+
+        Assert.assertEquals(1, flushes.size());
+        Assert.assertEquals("Latest Lamport time per id is kept", Map.of("A", 4L, "B", 2L), flushes.get(0));
+        persister.close();
+    }
+
+    @Test
+    public void testBatchLimitFlushesBeforeWindow() throws Exception {
+        WriteBehindPersister persister = new WriteBehindPersister(ids -> { }, 60000, 3);
+
+        persister.markDirty("A", 1);
+        persister.markDirty("B", 2);
+        CompletableFuture<Void> third = persister.markDirty("C", 3);
+
+        third.get(2, TimeUnit.SECONDS);
+        persister.close();
+    }
+
+    @Test
+    public void testFailedFlushFailsWaiters() throws Exception {
+        WriteBehindPersister persister = new WriteBehindPersister(ids -> {
+            throw new IOException("disk full");
+        }, 10, 1000);
+
+        CompletableFuture<Void> flushed = persister.markDirty("A", 1);
+        try {
+            flushed.get(2, TimeUnit.SECONDS);
+            Assert.fail("Waiter should see the flush failure");
+        } catch (ExecutionException e) {
+            Assert.assertEquals("disk full", e.getCause().getMessage());
+        }
+        persister.close();
+    }
+
+    @Test
+    public void testCloseFlushesPending() throws Exception {
+        List<Map<String, Long>> flushes = Collections.synchronizedList(new ArrayList<>());
+        WriteBehindPersister persister = new WriteBehindPersister(ids -> flushes.add(new HashMap<>(ids)), 60000, 1000);
+
+        CompletableFuture<Void> flushed = persister.markDirty("A", 1);
+        persister.close();
+
+        Assert.assertTrue(flushed.isDone());
+        Assert.assertEquals(1, flushes.size());
+    }
+}